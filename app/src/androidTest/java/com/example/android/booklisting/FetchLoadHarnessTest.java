@@ -0,0 +1,333 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load harness for the fetch pipeline: drives {@link QueryUtils#fetchBookData(String)} and
+ * {@link BookLoader#loadInBackground()} concurrently against a {@link StandInBooksServer},
+ * and reports the p50/p95/p99 latency of each phase of the requests (connect, time to first
+ * byte, body read and parse) and the throughput at rising concurrency.
+ * <p>
+ * It also compares the requests with and without the hedging and retries of
+ * {@link ResilientTransport}: the tail latency against a server with a few slow responses,
+ * and the failures against one with errors. And it checks that sequential requests share
+ * one keep-alive connection.
+ * <p>
+ * Results are logged with the FetchLoadHarness tag, to compare runs.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class FetchLoadHarnessTest {
+
+    private static final String LOG_TAG = "FetchLoadHarness";
+
+    private static final int[] CONCURRENCY_LEVELS = {1, 2, 4, 8, 16};
+
+    private static final int REQUESTS_PER_THREAD = 10;
+
+    private static final long SEED = 17;
+
+    /** Makes every query unique, so they are not collapsed or served from a cache */
+    private static final AtomicInteger sQueryNumber = new AtomicInteger();
+
+    private final List<RequestTiming> mTimings =
+            Collections.synchronizedList(new ArrayList<RequestTiming>());
+
+    private Context mContext;
+    private StandInBooksServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = InstrumentationRegistry.getTargetContext();
+
+        // The fixtures of the benchmark module, added to the test assets
+        mServer = new StandInBooksServer(readAsset("fixtures/volumes_10.json"),
+                readAsset("fixtures/volumes_40.json"), SEED);
+        mServer.start();
+
+        QueryUtils.setRequestListener(new QueryUtils.RequestListener() {
+            @Override
+            public void onRequestFinished(RequestTiming timing) {
+                mTimings.add(timing);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        QueryUtils.setRequestListener(null);
+        BooksHttpClient.getInstance().setTransport(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void risingConcurrency() throws Exception {
+        // A mobile network
+        mServer.setLatencyMillis(50);
+        mServer.setBytesPerSecond(256 * 1024);
+
+        for (int concurrency : CONCURRENCY_LEVELS) {
+            mTimings.clear();
+            int requests = concurrency * REQUESTS_PER_THREAD;
+            Run run = run(concurrency, requests);
+            report("concurrency " + concurrency, run);
+
+            assertEquals(0, run.failures);
+            assertEquals(requests, mTimings.size());
+        }
+    }
+
+    @Test
+    public void injectedErrors() throws Exception {
+        mServer.setLatencyMillis(20);
+        mServer.setErrorRate(0.2);
+        mServer.setTruncateRate(0.1);
+
+        int requests = 8 * REQUESTS_PER_THREAD;
+        Run run = run(8, requests);
+        report("injected errors", run);
+
+        // Failed requests are reported as such, nothing is thrown
+        int failedTimings = 0;
+        synchronized (mTimings) {
+            for (RequestTiming timing : mTimings) {
+                if (!timing.success) {
+                    failedTimings++;
+                }
+            }
+        }
+        assertTrue(run.failures > 0);
+        assertEquals(run.failures, failedTimings);
+    }
+
+    @Test
+    public void sequentialRequests_reuseOneConnection() throws Exception {
+        setTransport(false);
+        for (int i = 0; i < 5; i++) {
+            List<Book> books = QueryUtils.fetchBookData(mServer.getVolumesUrl()
+                    + "?q=reuse" + sQueryNumber.incrementAndGet() + "&maxResults=10");
+            assertTrue(books != null && !books.isEmpty());
+        }
+
+        // Each response is read to the end and closed, so its connection goes back to
+        // the pool and the next request is sent on it
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void hedgingCutsTailLatency() throws Exception {
+        // A few responses take a second
+        mServer.setLatencyMillis(20);
+        mServer.setSlowResponses(0.03, 1000);
+
+        int requests = 4 * 50;
+        setTransport(false);
+        Run plain = run(4, requests);
+        report("without hedging", plain);
+        long plainP99 = totalPercentile(99);
+
+        setTransport(true);
+        // Hedging starts once enough requests have been timed
+        run(4, 40);
+        mTimings.clear();
+        Run hedged = run(4, requests);
+        report("with hedging", hedged);
+        long hedgedP99 = totalPercentile(99);
+
+        // Slow responses are overtaken by the hedge, sent at the p95 of the recent ones
+        assertTrue("p99 " + hedgedP99 / 1e6 + " ms, was " + plainP99 / 1e6 + " ms",
+                hedgedP99 < plainP99 / 2);
+    }
+
+    @Test
+    public void retriesRecoverErrors() throws Exception {
+        mServer.setLatencyMillis(20);
+        mServer.setErrorRate(0.2);
+
+        int requests = 4 * REQUESTS_PER_THREAD;
+        setTransport(false);
+        Run plain = run(4, requests);
+        report("without retries", plain);
+
+        setTransport(true);
+        Run retried = run(4, requests);
+        report("with retries", retried);
+
+        // 503 responses are retried after their Retry-After
+        assertTrue(plain.failures > 0);
+        assertTrue(retried.failures < plain.failures);
+    }
+
+    /**
+     * Send the requests through HttpURLConnection alone, or wrapped in a
+     * {@link ResilientTransport} that retries and hedges them, and clear the timings.
+     */
+    private void setTransport(boolean resilient) {
+        HttpTransport transport = new UrlConnectionTransport();
+        if (resilient) {
+            ResilientTransport resilientTransport =
+                    new ResilientTransport(transport, RetryPolicy.getDefault());
+            resilientTransport.setHedging(true);
+            transport = resilientTransport;
+        }
+        BooksHttpClient.getInstance().setTransport(transport);
+        mTimings.clear();
+    }
+
+    /**
+     * Make the given number of requests with the given number of threads, half of them
+     * through {@link QueryUtils#fetchBookData(String)} and half through a {@link BookLoader}.
+     */
+    private Run run(int concurrency, int requests) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        List<Future<List<Book>>> results = new ArrayList<Future<List<Book>>>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            final String queryUrl = mServer.getVolumesUrl() + "?q=load"
+                    + sQueryNumber.incrementAndGet();
+            if (i % 2 == 0) {
+                results.add(executor.submit(new Callable<List<Book>>() {
+                    @Override
+                    public List<Book> call() {
+                        return QueryUtils.fetchBookData(
+                                QueryUtils.buildPageUrl(queryUrl, 0, QueryUtils.MAX_PAGE_SIZE));
+                    }
+                }));
+            } else {
+                results.add(executor.submit(new Callable<List<Book>>() {
+                    @Override
+                    public List<Book> call() {
+                        return new BookLoader(mContext, queryUrl, 10).loadInBackground().books;
+                    }
+                }));
+            }
+        }
+
+        int failures = 0;
+        for (Future<List<Book>> result : results) {
+            List<Book> books = result.get();
+            if (books == null || books.isEmpty()) {
+                failures++;
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        executor.shutdown();
+
+        return new Run(requests, failures, elapsedNanos);
+    }
+
+    private void report(String name, Run run) {
+        Log.i(LOG_TAG, String.format(Locale.US, "%s: %d requests, %d failed, %.1f requests/s",
+                name, run.requests, run.failures, run.requests * 1e9 / run.elapsedNanos));
+
+        List<RequestTiming> timings;
+        synchronized (mTimings) {
+            timings = new ArrayList<RequestTiming>(mTimings);
+        }
+        long[] connect = new long[timings.size()];
+        long[] firstByte = new long[timings.size()];
+        long[] bodyRead = new long[timings.size()];
+        long[] parse = new long[timings.size()];
+        long[] total = new long[timings.size()];
+        for (int i = 0; i < timings.size(); i++) {
+            RequestTiming timing = timings.get(i);
+            connect[i] = timing.connectNanos;
+            firstByte[i] = timing.firstByteNanos;
+            bodyRead[i] = timing.bodyReadNanos;
+            parse[i] = timing.parseNanos;
+            total[i] = timing.totalNanos;
+        }
+        reportPhase("connect", connect);
+        reportPhase("ttfb", firstByte);
+        reportPhase("body read", bodyRead);
+        reportPhase("parse", parse);
+        reportPhase("total", total);
+    }
+
+    /**
+     * Returns the given percentile of the total time of the requests timed so far.
+     */
+    private long totalPercentile(int percentile) {
+        long[] total;
+        synchronized (mTimings) {
+            total = new long[mTimings.size()];
+            for (int i = 0; i < total.length; i++) {
+                total[i] = mTimings.get(i).totalNanos;
+            }
+        }
+        Arrays.sort(total);
+        return percentile(total, percentile);
+    }
+
+    private static void reportPhase(String phase, long[] nanos) {
+        if (nanos.length == 0) {
+            return;
+        }
+        Arrays.sort(nanos);
+        Log.i(LOG_TAG, String.format(Locale.US, "  %-10s p50 %8.2f ms  p95 %8.2f ms  p99 %8.2f ms",
+                phase, percentile(nanos, 50) / 1e6, percentile(nanos, 95) / 1e6,
+                percentile(nanos, 99) / 1e6));
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static byte[] readAsset(String name) throws IOException {
+        InputStream in = InstrumentationRegistry.getContext().getAssets().open(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Outcome of a run
+     */
+    private static final class Run {
+        final int requests;
+        final int failures;
+        final long elapsedNanos;
+
+        Run(int requests, int failures, long elapsedNanos) {
+            this.requests = requests;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+}
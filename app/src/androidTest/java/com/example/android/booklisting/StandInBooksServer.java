@@ -0,0 +1,297 @@
+package com.example.android.booklisting;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP/1.1 server standing in for the Books API, replaying canned volume list
+ * responses, so the fetch pipeline can be driven without touching the real API.
+ * <p>
+ * Requests with maxResults up to 10 get the small response, the rest the big one. Responses
+ * are never cacheable, so the HTTP response cache doesn't hide the network. Connections are
+ * kept alive, as the real API does.
+ * <p>
+ * The network can be shaped: a latency before the response headers, slow responses with a
+ * much longer one, a bandwidth limit for the body, and injected errors, either 503 responses
+ * or connections closed halfway through the body. Slow responses and injected errors are
+ * drawn from a seeded random, so a run can be repeated.
+ */
+final class StandInBooksServer {
+
+    private static final String LOG_TAG = StandInBooksServer.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Size of the body chunks written when the bandwidth is limited */
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final byte[] ERROR_BODY =
+            "{\"error\":{\"code\":503,\"message\":\"Backend Error\"}}".getBytes(UTF_8);
+
+    private final byte[] mSmallResponse;
+    private final byte[] mLargeResponse;
+
+    private volatile int mLatencyMillis;
+    private volatile int mBytesPerSecond;
+    private volatile double mErrorRate;
+    private volatile double mTruncateRate;
+    private volatile double mSlowRate;
+    private volatile int mSlowLatencyMillis;
+    private final Random mRandom;
+
+    /** Connections accepted so far */
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+
+    private ServerSocket mServerSocket;
+    private ExecutorService mExecutor;
+
+    /**
+     * @param smallResponse body returned for up to 10 results
+     * @param largeResponse body returned for more results
+     * @param seed          seed of the injected errors
+     */
+    StandInBooksServer(byte[] smallResponse, byte[] largeResponse, long seed) {
+        mSmallResponse = smallResponse;
+        mLargeResponse = largeResponse;
+        mRandom = new Random(seed);
+    }
+
+    /** Delay before the response headers are sent */
+    void setLatencyMillis(int latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /** Bandwidth of the response bodies, 0 for unlimited */
+    void setBytesPerSecond(int bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /** Fraction of the requests answered with a 503 */
+    void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /** Fraction of the requests whose connection is closed halfway through the body */
+    void setTruncateRate(double truncateRate) {
+        mTruncateRate = truncateRate;
+    }
+
+    /** Fraction of the requests answered after the given latency instead of the usual one */
+    void setSlowResponses(double slowRate, int slowLatencyMillis) {
+        mSlowRate = slowRate;
+        mSlowLatencyMillis = slowLatencyMillis;
+    }
+
+    /**
+     * Start listening on a free port of the loopback interface.
+     */
+    void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor = Executors.newCachedThreadPool();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * Returns the URL of the volumes resource, to append the query parameters to.
+     */
+    String getVolumesUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/books/v1/volumes";
+    }
+
+    /**
+     * Number of connections accepted so far, which tells whether the client reuses them.
+     */
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    void shutdown() throws IOException {
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mConnectionCount.incrementAndGet();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // Closed
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answer the requests of a connection until the client closes it.
+     */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = readRequest(in)) != null) {
+                if (!respond(requestLine, out)) {
+                    break;
+                }
+            }
+        } catch (SocketException e) {
+            // The client went away
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem serving request", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Read a request, returning its request line, or null if the connection was closed.
+     * The headers are skipped, GET requests have no body.
+     */
+    private static String readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return null;
+        }
+        String header;
+        do {
+            header = readLine(in);
+        } while (header != null && !header.isEmpty());
+        return requestLine;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                String s = new String(line.toByteArray(), UTF_8);
+                return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+            }
+            line.write(b);
+        }
+        return line.size() == 0 ? null : new String(line.toByteArray(), UTF_8);
+    }
+
+    /**
+     * Write the response to a request.
+     *
+     * @return whether the connection can be used for another request
+     */
+    private boolean respond(String requestLine, OutputStream out) throws IOException {
+        boolean error;
+        boolean truncate;
+        boolean slow;
+        synchronized (mRandom) {
+            error = mRandom.nextDouble() < mErrorRate;
+            truncate = !error && mRandom.nextDouble() < mTruncateRate;
+            slow = mRandom.nextDouble() < mSlowRate;
+        }
+
+        sleep(slow ? mSlowLatencyMillis : mLatencyMillis);
+
+        byte[] body;
+        String status;
+        if (error) {
+            status = "503 Service Unavailable";
+            body = ERROR_BODY;
+        } else {
+            status = "200 OK";
+            body = maxResults(requestLine) <= 10 ? mSmallResponse : mLargeResponse;
+        }
+
+        String headers = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: application/json; charset=UTF-8\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Cache-Control: no-store\r\n"
+                + (error ? "Retry-After: 1\r\n" : "")
+                + "Connection: keep-alive\r\n"
+                + "\r\n";
+        out.write(headers.getBytes(UTF_8));
+
+        int length = truncate ? body.length / 2 : body.length;
+        writeBody(out, body, length);
+        out.flush();
+
+        // A truncated response can only be ended by closing the connection
+        return !truncate;
+    }
+
+    /**
+     * Write the body, at the configured bandwidth.
+     */
+    private void writeBody(OutputStream out, byte[] body, int length) throws IOException {
+        int bytesPerSecond = mBytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            out.write(body, 0, length);
+            return;
+        }
+        long start = System.nanoTime();
+        for (int offset = 0; offset < length; offset += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, length - offset);
+            out.write(body, offset, count);
+            out.flush();
+            // Wait until the bytes written so far fit the bandwidth
+            long dueNanos = (offset + count) * 1000000000L / bytesPerSecond;
+            long aheadMillis = (dueNanos - (System.nanoTime() - start)) / 1000000;
+            sleep((int) aheadMillis);
+        }
+    }
+
+    private static int maxResults(String requestLine) {
+        int start = requestLine.indexOf("maxResults=");
+        if (start < 0) {
+            return Integer.MAX_VALUE;
+        }
+        start += "maxResults=".length();
+        int end = start;
+        while (end < requestLine.length() && Character.isDigit(requestLine.charAt(end))) {
+            end++;
+        }
+        try {
+            return Integer.parseInt(requestLine.substring(start, end));
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static void sleep(int millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
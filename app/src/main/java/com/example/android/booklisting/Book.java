@@ -1,36 +1,107 @@
 package com.example.android.booklisting;
 
-import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A class that represents a book
+ * <p>
+ * Books are kept by the thousand for the catalog and the caches, so the representation
+ * is compact: authors and industry identifiers are held in fixed-size arrays, the two
+ * thumbnail URLs in fields, and low-cardinality Strings (identifier types, language and
+ * publisher) are shared through the {@link StringPool}. Books are immutable.
  */
 public class Book {
 
-    private String mId;
-    private String mTitle;
-    private ArrayList<String> mAuthors;
-    private String mPublisher;
-    private String mPublishedDate; // ISO format
-    private ArrayList<IndustryIdentifier> mIndustryidentifiers;
-    private int mPageCount;
-    private ArrayList<ImageLink> mImageLinks;
-    private String mLanguage;
-    private String mInfoLink;
-
-    public Book(String id, String title, ArrayList<String> authors, String publisher,
-                String publishedDate, ArrayList<IndustryIdentifier> industryidentifiers,
-                int pageCount, ArrayList<ImageLink> imageLinks, String language, String infoLink) {
+    private static final String[] EMPTY = new String[0];
+
+    private static final String TYPE_SMALL_THUMBNAIL = "smallThumbnail";
+
+    // 64-bit FNV-1a parameters, for the stable id
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String mId;
+    private final String mTitle;
+    private final String[] mAuthors;
+    private final String mPublisher;
+    private final String mPublishedDate; // ISO format
+    private final String[] mIdentifierTypes; // ISBN_13..., same length as mIdentifiers
+    private final String[] mIdentifiers;
+    private final int mPageCount;
+    private final String mSmallThumbnail; // empty or null if none
+    private final String mThumbnail; // empty or null if none
+    private final String mLanguage;
+    private final String mInfoLink;
+    private final String mDescription; // HTML, null if the full volume hasn't been loaded
+
+    // Display-ready authors, computed once when the book is created, which happens on a
+    // background thread, so binding a list row doesn't build any strings.
+    // "Author 1, Author 2." or null if no authors.
+    private final String mDisplayAuthors;
+
+    // Number standing for the id, for the stable ids of the list, computed with the
+    // display values.
+    private final long mStableId;
+
+    /**
+     * Constructs a book from parsed lists, as the JSON parsers and the catalog build them.
+     * The lists are copied into the compact representation.
+     */
+    public Book(String id, String title, List<String> authors, String publisher,
+                String publishedDate, List<IndustryIdentifier> industryidentifiers,
+                int pageCount, List<ImageLink> imageLinks, String language, String infoLink) {
+        this(id, title, authors, publisher, publishedDate, industryidentifiers, pageCount,
+                imageLinks, language, infoLink, null);
+    }
+
+    /**
+     * Constructs a book with the details only returned by the full volume resource.
+     *
+     * @param description the description, as HTML, or an empty String if the volume has none
+     */
+    public Book(String id, String title, List<String> authors, String publisher,
+                String publishedDate, List<IndustryIdentifier> industryidentifiers,
+                int pageCount, List<ImageLink> imageLinks, String language, String infoLink,
+                String description) {
+        this(id, title, toArray(authors), publisher, publishedDate,
+                identifierTypes(industryidentifiers), identifierCodes(industryidentifiers),
+                pageCount, imageUrl(imageLinks, true), imageUrl(imageLinks, false),
+                language, infoLink, description);
+    }
+
+    /**
+     * Constructs a book from its compact representation. The arrays are kept, not copied,
+     * and must not be modified afterwards.
+     */
+    Book(String id, String title, String[] authors, String publisher, String publishedDate,
+         String[] identifierTypes, String[] identifiers, int pageCount,
+         String smallThumbnail, String thumbnail, String language, String infoLink,
+         String description) {
         this.mId = id;
         this.mTitle = title;
-        this.mAuthors = authors;
-        this.mPublisher = publisher;
+        this.mAuthors = authors != null ? authors : EMPTY;
+        this.mPublisher = StringPool.intern(publisher);
         this.mPublishedDate = publishedDate;
-        this.mIndustryidentifiers = industryidentifiers;
+        this.mIdentifierTypes = identifierTypes != null ? identifierTypes : EMPTY;
+        this.mIdentifiers = identifiers != null ? identifiers : EMPTY;
         this.mPageCount = pageCount;
-        this.mImageLinks = imageLinks;
-        this.mLanguage = language;
+        this.mSmallThumbnail = smallThumbnail;
+        this.mThumbnail = thumbnail;
+        this.mLanguage = StringPool.intern(language);
         this.mInfoLink = infoLink;
+        this.mDescription = description;
+
+        this.mDisplayAuthors = mAuthors.length == 0 ? null : joinAuthors(mAuthors, ".");
+        this.mStableId = stableId(id);
+    }
+
+    /**
+     * Returns a copy of this book with the given description.
+     */
+    public Book withDescription(String description) {
+        return new Book(mId, mTitle, mAuthors, mPublisher, mPublishedDate, mIdentifierTypes,
+                mIdentifiers, mPageCount, mSmallThumbnail, mThumbnail, mLanguage, mInfoLink,
+                description);
     }
 
     public String getTitle() {
@@ -41,8 +112,20 @@ public class Book {
         return mId;
     }
 
-    public ArrayList<String> getAuthors() {
-        return mAuthors;
+    /**
+     * Returns a number standing for the id: a 64-bit hash of it, so that two ids having the
+     * same one is vanishingly unlikely among the books of a list.
+     */
+    public long getStableId() {
+        return mStableId;
+    }
+
+    public int getAuthorCount() {
+        return mAuthors.length;
+    }
+
+    public String getAuthor(int index) {
+        return mAuthors[index];
     }
 
     public String getPublisher() {
@@ -53,16 +136,34 @@ public class Book {
         return mPublishedDate;
     }
 
-    public ArrayList<IndustryIdentifier> getIndustryidentifiers() {
-        return mIndustryidentifiers;
+    public int getIdentifierCount() {
+        return mIdentifiers.length;
+    }
+
+    public String getIdentifierType(int index) {
+        return mIdentifierTypes[index];
+    }
+
+    public String getIdentifier(int index) {
+        return mIdentifiers[index];
     }
 
     public int getPageCount() {
         return mPageCount;
     }
 
-    public ArrayList<ImageLink> getImageLinks() {
-        return mImageLinks;
+    /**
+     * Returns the URL of the small thumbnail, empty or null if there is none.
+     */
+    public String getSmallThumbnail() {
+        return mSmallThumbnail;
+    }
+
+    /**
+     * Returns the URL of the thumbnail, empty or null if there is none.
+     */
+    public String getThumbnail() {
+        return mThumbnail;
     }
 
     public String getLanguage() {
@@ -72,6 +173,156 @@ public class Book {
     public String getInfoLink() {
         return mInfoLink;
     }
-}
 
+    /**
+     * Returns the description, as HTML, or null if it hasn't been loaded.
+     */
+    public String getDescription() {
+        return mDescription;
+    }
+
+    /**
+     * Returns whether the book has been loaded from the full volume resource,
+     * which has the fields that search results lack.
+     */
+    public boolean hasDetails() {
+        return mDescription != null;
+    }
 
+    /**
+     * Returns the authors joined for a list row, "Author 1, Author 2.", or null if there are
+     * no authors, in which case the view is hidden.
+     */
+    public String getDisplayAuthors() {
+        return mDisplayAuthors;
+    }
+
+    /**
+     * Returns the authors joined by commas, or an empty String if there are none.
+     * Built on each call, it is only used by the details screen.
+     */
+    public String getPrintableAuthors() {
+        return joinAuthors(mAuthors, "");
+    }
+
+    /**
+     * Returns whether there is a publisher to show.
+     */
+    public boolean hasPublisher() {
+        return mPublisher != null && !mPublisher.isEmpty();
+    }
+
+    /**
+     * Returns the type of the first industry identifier, or null if there are none.
+     */
+    public String getPrimaryIdentifierType() {
+        return mIdentifierTypes.length == 0 ? null : mIdentifierTypes[0];
+    }
+
+    /**
+     * Returns the code of the first industry identifier, or null if there are none.
+     */
+    public String getPrimaryIdentifier() {
+        return mIdentifiers.length == 0 ? null : mIdentifiers[0];
+    }
+
+    /**
+     * Returns the industry identifier codes, one per line.
+     * Built on each call, it is only used by the details screen.
+     */
+    public String getPrintableIdentifiers() {
+        StringBuilder identifiers = new StringBuilder();
+        for (int i = 0; i < mIdentifiers.length; i++) {
+            if (i != 0) {
+                identifiers.append('\n');
+            }
+            identifiers.append(mIdentifiers[i]);
+        }
+        return identifiers.toString();
+    }
+
+    /**
+     * Returns the URL of the smallest thumbnail available, or null if there is none.
+     */
+    public String getThumbnailUrl() {
+        if (mSmallThumbnail != null && !mSmallThumbnail.isEmpty()) {
+            return mSmallThumbnail;
+        }
+        if (mThumbnail != null && !mThumbnail.isEmpty()) {
+            return mThumbnail;
+        }
+        return null;
+    }
+
+    private static String joinAuthors(String[] authors, String end) {
+        if (authors.length == 0) {
+            return "";
+        }
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < authors.length; i++) {
+            if (i != 0) {
+                joined.append(", ");
+            }
+            joined.append(authors[i]);
+        }
+        return joined.append(end).toString();
+    }
+
+    private static long stableId(String id) {
+        long hash = FNV_OFFSET_BASIS;
+        if (id != null) {
+            for (int i = 0; i < id.length(); i++) {
+                hash = (hash ^ id.charAt(i)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    private static String[] toArray(List<String> list) {
+        if (list == null || list.isEmpty()) {
+            return EMPTY;
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    private static String[] identifierTypes(List<IndustryIdentifier> identifiers) {
+        if (identifiers == null || identifiers.isEmpty()) {
+            return EMPTY;
+        }
+        String[] types = new String[identifiers.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = StringPool.intern(identifiers.get(i).getType());
+        }
+        return types;
+    }
+
+    private static String[] identifierCodes(List<IndustryIdentifier> identifiers) {
+        if (identifiers == null || identifiers.isEmpty()) {
+            return EMPTY;
+        }
+        String[] codes = new String[identifiers.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = identifiers.get(i).getIdentifier();
+        }
+        return codes;
+    }
+
+    /**
+     * Returns the URL of the small thumbnail, or of the other one. A link of any other
+     * type is taken as the other thumbnail if there is none.
+     */
+    private static String imageUrl(List<ImageLink> imageLinks, boolean small) {
+        if (imageLinks == null) {
+            return null;
+        }
+        String url = null;
+        for (int i = 0; i < imageLinks.size(); i++) {
+            ImageLink imageLink = imageLinks.get(i);
+            boolean isSmall = TYPE_SMALL_THUMBNAIL.equals(imageLink.getType());
+            if (isSmall == small && (url == null || url.isEmpty())) {
+                url = imageLink.getmUrl();
+            }
+        }
+        return url;
+    }
+}
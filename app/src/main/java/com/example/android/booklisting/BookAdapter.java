@@ -1,116 +1,332 @@
 package com.example.android.booklisting;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-
-import static com.example.android.booklisting.R.id.authors;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * An {@link BookAdapter} knows how to create a list item layout for each book
  * in the data source (a list of {@link Book} objects).
  * <p>
- * These list item layouts will be provided to an adapter view like ListView
- * to be displayed to the user.
+ * These list item layouts will be provided to a RecyclerView to be displayed to the user.
+ * <p>
+ * A new list is submitted with {@link #submitList(List)}: the differences with the current
+ * one are computed on a background thread, keyed on the book id, and only the rows that
+ * were inserted, removed, moved or changed are updated. Changed rows are rebound partially,
+ * with a payload telling which parts changed.
  */
 
-public class BookAdapter extends ArrayAdapter<Book> {
+public class BookAdapter extends RecyclerView.Adapter<BookAdapter.BookViewHolder> {
+
+    /**
+     * Receives clicks on the books of the list.
+     */
+    public interface OnBookClickListener {
+        void onBookClick(Book book);
+    }
+
+    /**
+     * Computes the differences between lists off the main thread. Shared by all adapters,
+     * it is only busy when a list is submitted.
+     */
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Loads the book covers off the UI thread
+     */
+    private final ImageLoader mImageLoader;
+
+    /**
+     * Size the covers are shown at, in pixels
+     */
+    private final int mThumbnailWidth;
+    private final int mThumbnailHeight;
+
+    private final OnBookClickListener mListener;
+
+    /**
+     * Books shown, only modified on the main thread
+     */
+    private List<Book> mBooks = Collections.emptyList();
+
+    /**
+     * Incremented on each submitted list, so an older diff is not applied after a newer one
+     */
+    private int mGeneration;
 
     /**
      * Constructs a new {@link BookAdapter}.
      *
-     * @param context of the app
-     * @param books   is the list of books, which is the data source of the adapter
+     * @param context  of the activity showing the list, which owns the thumbnail loads and
+     *                 cancels them with {@link RequestScheduler#cancelAll(Object)}
+     * @param listener receives clicks on the books
      */
-    public BookAdapter(Context context, List<Book> books) {
-        super(context, 0, books);
+    public BookAdapter(Context context, OnBookClickListener listener) {
+        this(context, listener, ImageLoader.getInstance(context),
+                context.getResources().getDimensionPixelSize(R.dimen.thumbnail_width),
+                context.getResources().getDimensionPixelSize(R.dimen.thumbnail_height));
+        setHasStableIds(true);
     }
 
     /**
-     * Returns a list item view that displays information about the book at the given position
-     * in the list of books.
+     * Constructs a {@link BookAdapter} with the given image loader and cover size, for the
+     * tests binding rows without a RecyclerView.
      */
+    BookAdapter(Context context, OnBookClickListener listener, ImageLoader imageLoader,
+                int thumbnailWidth, int thumbnailHeight) {
+        mContext = context;
+        mListener = listener;
+        mImageLoader = imageLoader;
+        mThumbnailWidth = thumbnailWidth;
+        mThumbnailHeight = thumbnailHeight;
+    }
+
+    /**
+     * Show the given list of books. Must be called from the main thread.
+     *
+     * @param books the books to show, null for none. Null books and books already
+     *              in the list are skipped.
+     */
+    public void submitList(List<Book> books) {
+        final List<Book> newBooks = sanitize(books);
+        final List<Book> oldBooks = mBooks;
+        final int generation = ++mGeneration;
+
+        // Nothing to diff, update everything right away
+        if (oldBooks.isEmpty() || newBooks.isEmpty()) {
+            mBooks = newBooks;
+            notifyDataSetChanged();
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<BookDiff.Update> updates = BookDiff.compute(oldBooks, newBooks);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list has been submitted since
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mBooks = newBooks;
+                        dispatchUpdates(updates);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the book at the given position.
+     */
+    public Book getItem(int position) {
+        return mBooks.get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mBooks.size();
+    }
+
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse,
-        // otherwise, if convertView is null, then inflate a new list item layout.
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.list_item, parent, false);
+    public long getItemId(int position) {
+        // Computed by the book from its id, it is the same in every list
+        return mBooks.get(position).getStableId();
+    }
+
+    @Override
+    public BookViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(mContext).inflate(
+                R.layout.list_item, parent, false);
+        return new BookViewHolder(listItemView);
+    }
+
+    @Override
+    public void onBindViewHolder(BookViewHolder holder, int position) {
+        holder.bind(mBooks.get(position), ~0);
+    }
+
+    @Override
+    public void onBindViewHolder(BookViewHolder holder, int position, List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
         }
+        // Only rebind the parts that changed
+        int changes = 0;
+        for (Object payload : payloads) {
+            changes |= (Integer) payload;
+        }
+        holder.bind(mBooks.get(position), changes);
+    }
 
-        // Find the book at the given position in the list of books
-        Book currentBook = getItem(position);
-
-        // Find the TextView with view ID title
-        TextView titleView = (TextView) listItemView.findViewById(R.id.title);
-        // Display the title of the current book in that TextView
-        titleView.setText(currentBook.getTitle());
-
-        // Find the TextView with view ID authors
-        TextView authorsView = (TextView) listItemView.findViewById(authors);
-        // Get the authors from the Book object.
-        // As it is an array, each element will be concatenated to be shown together in the text view
-
-        ArrayList<String> authors = currentBook.getAuthors();
-        if (authors != null && authors.size()>0) {
-            String concatenatedAuthorsString = "";
-            for (String a : authors) {
-                if (!concatenatedAuthorsString.equals("")) {
-                    concatenatedAuthorsString += ", ";
-                }
-                concatenatedAuthorsString += a;
+    @Override
+    public void onViewRecycled(BookViewHolder holder) {
+        // Don't keep loading a cover for a row that is no longer shown
+        mImageLoader.cancel(holder.thumbnailView);
+    }
+
+    private void dispatchUpdates(List<BookDiff.Update> updates) {
+        for (BookDiff.Update update : updates) {
+            switch (update.type) {
+                case BookDiff.REMOVE:
+                    notifyItemRangeRemoved(update.position, update.value);
+                    break;
+                case BookDiff.INSERT:
+                    notifyItemRangeInserted(update.position, update.value);
+                    break;
+                case BookDiff.MOVE:
+                    notifyItemMoved(update.position, update.value);
+                    break;
+                case BookDiff.CHANGE:
+                    notifyItemChanged(update.position, update.value);
+                    break;
             }
-            if (!concatenatedAuthorsString.equals("")) {
-                concatenatedAuthorsString += ".";
+        }
+    }
+
+    /**
+     * Returns a copy of the list without null books or repeated ids, which the API may return
+     * across pages.
+     */
+    private static List<Book> sanitize(List<Book> books) {
+        if (books == null) {
+            return Collections.emptyList();
+        }
+        List<Book> sanitized = new ArrayList<Book>(books.size());
+        Set<String> ids = new HashSet<String>(books.size() * 2);
+        for (Book book : books) {
+            if (book != null && ids.add(book.getId())) {
+                sanitized.add(book);
             }
+        }
+        return sanitized;
+    }
+
+    /**
+     * Holds the views of a list item, so they are only looked up once.
+     */
+    class BookViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final ImageView thumbnailView;
+        final TextView titleView;
+        final TextView authorsView;
+        final TextView publisherView;
+        final LinearLayout identifierView;
+        final TextView identifierTypeView;
+        final TextView identifierCodeView;
 
-            // Display the authors of the current book in that TextView
-            authorsView.setText(concatenatedAuthorsString);
-            authorsView.setVisibility(View.VISIBLE);
-        } else {
-            authorsView.setVisibility(View.GONE);
+        BookViewHolder(View listItemView) {
+            this(listItemView,
+                    (ImageView) listItemView.findViewById(R.id.thumbnail),
+                    (TextView) listItemView.findViewById(R.id.title),
+                    (TextView) listItemView.findViewById(R.id.authors),
+                    (TextView) listItemView.findViewById(R.id.publisher),
+                    (LinearLayout) listItemView.findViewById(R.id.identifier),
+                    (TextView) listItemView.findViewById(R.id.identifier_type),
+                    (TextView) listItemView.findViewById(R.id.identifier_code));
         }
 
-        // Find the TextView with view ID publisher
-        TextView publisherView = (TextView) listItemView.findViewById(R.id.publisher);
-        // Display the publisher of the current book in that TextView
-        String publisher = currentBook.getPublisher();
-        if (publisher != null && !publisher.equals("")) {
-            publisherView.setText(currentBook.getPublisher());
-            publisherView.setVisibility(View.VISIBLE);
-        } else {
-            publisherView.setVisibility(View.GONE);
+        /**
+         * Constructs a holder of the given views, which tests create without a layout.
+         */
+        BookViewHolder(View listItemView, ImageView thumbnailView, TextView titleView,
+                       TextView authorsView, TextView publisherView,
+                       LinearLayout identifierView, TextView identifierTypeView,
+                       TextView identifierCodeView) {
+            super(listItemView);
+            this.thumbnailView = thumbnailView;
+            this.titleView = titleView;
+            this.authorsView = authorsView;
+            this.publisherView = publisherView;
+            this.identifierView = identifierView;
+            this.identifierTypeView = identifierTypeView;
+            this.identifierCodeView = identifierCodeView;
+            listItemView.setOnClickListener(this);
         }
 
-        // Find the TextView with view ID identifier
-        LinearLayout identifierView = (LinearLayout) listItemView.findViewById(R.id.identifier);
-        // Find the TextView with view ID identifier_type
-        TextView identifierTypeView = (TextView) listItemView.findViewById(R.id.identifier_type);
-        // Find the TextView with view ID identifier_code
-        TextView identifierCodeView = (TextView) listItemView.findViewById(R.id.identifier_code);
-        // Get the identifiers array from the Book object.
-        ArrayList<IndustryIdentifier> identifiers = currentBook.getIndustryidentifiers();
-        if (identifiers != null && identifiers.size()>0) {
-            // Display the first identifier of the current book in that TextView
-            identifierTypeView.setText(identifiers.get(0).getType());
-            identifierCodeView.setText(identifiers.get(0).getIdentifier());
-            identifierView.setVisibility(View.VISIBLE);
-        } else {
-            // Hides the layout if no identifiers
-            identifierView.setVisibility(View.GONE);
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (mListener != null && position != RecyclerView.NO_POSITION) {
+                mListener.onBookClick(mBooks.get(position));
+            }
         }
 
-        // Return the list item view that is now showing the appropriate data
-        return listItemView;
-    }
+        /**
+         * Show the given parts of the book. Only uses values precomputed by the book,
+         * so it doesn't allocate, unless the cover isn't in the memory cache of the
+         * {@link ImageLoader} and has to be loaded.
+         *
+         * @param book    the book to show
+         * @param changes the {@link BookDiff} CHANGED_ flags of the parts to bind
+         */
+        void bind(Book book, int changes) {
+            if ((changes & BookDiff.CHANGED_THUMBNAIL) != 0) {
+                // Load the cover in the background. If the view is being recycled, this also
+                // cancels the load of the cover it was showing before.
+                mImageLoader.load(mContext, book.getThumbnailUrl(), thumbnailView,
+                        mThumbnailWidth, mThumbnailHeight);
+            }
+
+            if ((changes & BookDiff.CHANGED_TITLE) != 0) {
+                // Display the title of the current book in that TextView
+                titleView.setText(book.getTitle());
+            }
 
+            if ((changes & BookDiff.CHANGED_AUTHORS) != 0) {
+                // Display the authors of the current book, already joined, in that TextView
+                String authors = book.getDisplayAuthors();
+                if (authors != null) {
+                    authorsView.setText(authors);
+                    authorsView.setVisibility(View.VISIBLE);
+                } else {
+                    authorsView.setVisibility(View.GONE);
+                }
+            }
+
+            if ((changes & BookDiff.CHANGED_PUBLISHER) != 0) {
+                // Display the publisher of the current book in that TextView
+                if (book.hasPublisher()) {
+                    publisherView.setText(book.getPublisher());
+                    publisherView.setVisibility(View.VISIBLE);
+                } else {
+                    publisherView.setVisibility(View.GONE);
+                }
+            }
+
+            if ((changes & BookDiff.CHANGED_IDENTIFIER) != 0) {
+                if (book.getPrimaryIdentifier() != null) {
+                    // Display the first identifier of the current book in that TextView
+                    identifierTypeView.setText(book.getPrimaryIdentifierType());
+                    identifierCodeView.setText(book.getPrimaryIdentifier());
+                    identifierView.setVisibility(View.VISIBLE);
+                } else {
+                    // Hides the layout if no identifiers
+                    identifierView.setVisibility(View.GONE);
+                }
+            }
+        }
+    }
 }
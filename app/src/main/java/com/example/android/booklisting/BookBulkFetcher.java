@@ -0,0 +1,188 @@
+package com.example.android.booklisting;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches large result sets by requesting several pages of the same query at once.
+ * <p>
+ * Page requests run in the prefetch lane of the {@link RequestScheduler}, so a request for
+ * N pages takes about N / lane threads round trips instead of N, without delaying what the
+ * user is waiting for. They are tagged with the owner of the fetch, so
+ * {@link RequestScheduler#cancelAll(Object)} cancels them with the rest of its work.
+ * Pages are merged back in rank order, and volumes the API returns again across page
+ * boundaries are dropped.
+ * <p>
+ * This is meant for bulk work, such as catalog checks. The result list shown to the
+ * user is still loaded page by page by {@link BookLoader}.
+ */
+public final class BookBulkFetcher {
+
+    /**
+     * Requests one page of results.
+     */
+    interface PageFetcher {
+        /**
+         * @param pageUrl query URL of the page, with its startIndex and maxResults
+         * @return the books of the page, or null if the request failed
+         */
+        List<Book> fetchPage(String pageUrl);
+    }
+
+    /** Pages requested with {@link QueryUtils#fetchBookData(String)} */
+    private static final PageFetcher QUERY_UTILS_FETCHER = new PageFetcher() {
+        @Override
+        public List<Book> fetchPage(String pageUrl) {
+            return QueryUtils.fetchBookData(pageUrl);
+        }
+    };
+
+    private static BookBulkFetcher sInstance;
+
+    private final RequestScheduler mScheduler;
+    private final PageFetcher mFetcher;
+    private final int mPageSize;
+
+    /**
+     * Constructs a new {@link BookBulkFetcher}.
+     *
+     * @param scheduler runs the page requests
+     * @param fetcher   requests a page
+     * @param pageSize  number of books requested per page
+     */
+    BookBulkFetcher(RequestScheduler scheduler, PageFetcher fetcher, int pageSize) {
+        mScheduler = scheduler;
+        mFetcher = fetcher;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Returns the fetcher shared by the whole process, with the shared scheduler.
+     */
+    public static synchronized BookBulkFetcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new BookBulkFetcher(RequestScheduler.getInstance(),
+                    QUERY_UTILS_FETCHER, QueryUtils.MAX_PAGE_SIZE);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Start fetching up to maxResults books for the given query.
+     *
+     * @param owner      owner of the page requests, for
+     *                   {@link RequestScheduler#cancelAll(Object)}, or null
+     * @param queryUrl   query URL, without startIndex and maxResults parameters
+     * @param maxResults number of books wanted
+     * @return a handle to wait for the result or cancel the fetch
+     */
+    public Request fetch(Object owner, String queryUrl, int maxResults) {
+        int pageSize = mPageSize;
+        List<Future<List<Book>>> pages = new ArrayList<Future<List<Book>>>();
+        for (int startIndex = 0; startIndex < maxResults; startIndex += pageSize) {
+            final int size = Math.min(pageSize, maxResults - startIndex);
+            final String pageUrl = QueryUtils.buildPageUrl(queryUrl, startIndex, size);
+            pages.add(mScheduler.submit(RequestScheduler.LANE_PREFETCH, owner,
+                    new Callable<List<Book>>() {
+                        @Override
+                        public List<Book> call() throws Exception {
+                            return mFetcher.fetchPage(pageUrl);
+                        }
+                    }));
+        }
+        return new Request(pages, pageSize);
+    }
+
+    /**
+     * A bulk fetch in progress. Cancelling it doesn't affect other fetches.
+     */
+    public static final class Request {
+
+        private final List<Future<List<Book>>> mPages;
+        private final int mPageSize;
+        private volatile boolean mCancelled;
+
+        private Request(List<Future<List<Book>>> pages, int pageSize) {
+            mPages = pages;
+            mPageSize = pageSize;
+        }
+
+        /**
+         * Wait for the pages and merge them in rank order, without duplicated volumes.
+         * <p>
+         * Merging stops at the first short page, which means the results are exhausted,
+         * and the following page requests are cancelled. A failed page fails the whole
+         * fetch, so the books before it are not taken for all the results.
+         *
+         * @return the merged list of books
+         * @throws IOException           if a page request failed
+         * @throws InterruptedException  if the calling thread is interrupted while waiting
+         * @throws CancellationException if the request has been cancelled
+         */
+        public List<Book> get() throws IOException, InterruptedException {
+            List<Book> books = new ArrayList<Book>();
+            Set<String> ids = new HashSet<String>();
+
+            int pageIndex = 0;
+            for (; pageIndex < mPages.size(); pageIndex++) {
+                List<Book> page;
+                try {
+                    page = mPages.get(pageIndex).get();
+                } catch (ExecutionException e) {
+                    cancelFrom(pageIndex + 1);
+                    throw new IOException("Problem fetching page " + pageIndex, e.getCause());
+                }
+                if (mCancelled) {
+                    throw new CancellationException();
+                }
+                if (page == null) {
+                    cancelFrom(pageIndex + 1);
+                    throw new IOException("Problem fetching page " + pageIndex);
+                }
+
+                for (Book book : page) {
+                    // ids.add() is false for a volume already seen in a previous page
+                    if (book != null && ids.add(book.getId())) {
+                        books.add(book);
+                    }
+                }
+
+                if (page.size() < mPageSize) {
+                    pageIndex++;
+                    break;
+                }
+            }
+
+            // Results are exhausted, don't wait for the pages after the end
+            cancelFrom(pageIndex);
+            return books;
+        }
+
+        private void cancelFrom(int pageIndex) {
+            for (int i = pageIndex; i < mPages.size(); i++) {
+                mPages.get(i).cancel(true);
+            }
+        }
+
+        /**
+         * Cancel the page requests that haven't finished yet.
+         */
+        public void cancel() {
+            mCancelled = true;
+            for (Future<List<Book>> page : mPages) {
+                page.cancel(true);
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.android.booklisting;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide, in-memory LRU cache of parsed results, keyed by the normalized query URL.
+ * <p>
+ * Shared by all the {@link BookLoader} instances, so going back to a search, or recreating
+ * the activity, doesn't fetch and parse the same results again. The cache is bounded both
+ * by number of entries and by an estimate of the bytes held, and entries expire after a
+ * time to live. All the methods are thread safe.
+ */
+public final class BookCache {
+
+    /**
+     * Default maximum number of cached queries
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 20;
+
+    /**
+     * Default maximum estimated size of the cached books
+     */
+    private static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024; // 2 MiB
+
+    /**
+     * Default time to live of an entry
+     */
+    private static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000; // 10 minutes
+
+    /**
+     * Approximate overhead of an object header plus its reference fields
+     */
+    private static final int OBJECT_OVERHEAD_BYTES = 16;
+
+    /**
+     * Approximate overhead of a String: the object, its char array header and hash
+     */
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private static BookCache sInstance;
+
+    private final int mMaxEntries;
+    private final long mMaxBytes;
+    private final long mTtlMillis;
+
+    /**
+     * Entries in access order, the least recently used first
+     */
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long mBytes;
+
+    /**
+     * Constructs a new {@link BookCache}.
+     *
+     * @param maxEntries maximum number of cached queries
+     * @param maxBytes   maximum estimated size of the cached books
+     * @param ttlMillis  time after which an entry is no longer returned
+     */
+    public BookCache(int maxEntries, long maxBytes, long ttlMillis) {
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the cache shared by the whole process, created with the default limits.
+     */
+    public static synchronized BookCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new BookCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, DEFAULT_TTL_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the books cached for the given query URL.
+     *
+     * @return an unmodifiable list, or null if there is no entry or it has expired
+     */
+    public synchronized List<Book> get(String url) {
+        String key = QueryUtils.normalizeUrl(url);
+        if (key == null) {
+            return null;
+        }
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - entry.createdAt > mTtlMillis) {
+            remove(key);
+            return null;
+        }
+        return entry.books;
+    }
+
+    /**
+     * Returns the books cached for the given query URL, even if the entry has expired,
+     * for them to be shown while they are revalidated. An expired entry is not removed.
+     *
+     * @return an unmodifiable list, or null if there is no entry
+     */
+    public synchronized List<Book> getStale(String url) {
+        String key = QueryUtils.normalizeUrl(url);
+        if (key == null) {
+            return null;
+        }
+        Entry entry = mEntries.get(key);
+        return entry == null ? null : entry.books;
+    }
+
+    /**
+     * Store the books for the given query URL, replacing any previous entry,
+     * and evict the least recently used entries if the limits are exceeded.
+     * An entry bigger than the whole byte budget is not stored.
+     */
+    public synchronized void put(String url, List<Book> books) {
+        String key = QueryUtils.normalizeUrl(url);
+        if (key == null || books == null) {
+            return;
+        }
+        remove(key);
+
+        long bytes = estimateSize(books);
+        if (bytes > mMaxBytes) {
+            return;
+        }
+
+        Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<Book>(books)),
+                bytes, SystemClock.elapsedRealtime());
+        mEntries.put(key, entry);
+        mBytes += bytes;
+
+        trimToLimits();
+    }
+
+    /**
+     * Remove all the entries. Called when the system is low on memory.
+     */
+    public synchronized void evictAll() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    private void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mBytes -= entry.bytes;
+        }
+    }
+
+    private void trimToLimits() {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while ((mEntries.size() > mMaxEntries || mBytes > mMaxBytes) && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            mBytes -= eldest.bytes;
+        }
+    }
+
+    /**
+     * Estimate the heap size of a list of books. It doesn't need to be exact,
+     * only proportional to what the books really take.
+     */
+    static long estimateSize(List<Book> books) {
+        long bytes = OBJECT_OVERHEAD_BYTES;
+        for (Book book : books) {
+            if (book == null) {
+                continue;
+            }
+            bytes += OBJECT_OVERHEAD_BYTES
+                    + estimateSize(book.getId())
+                    + estimateSize(book.getTitle())
+                    + estimateSize(book.getPublisher())
+                    + estimateSize(book.getPublishedDate())
+                    + estimateSize(book.getLanguage())
+                    + estimateSize(book.getInfoLink());
+            for (int i = 0; i < book.getAuthorCount(); i++) {
+                bytes += estimateSize(book.getAuthor(i));
+            }
+            // Identifier types are shared, only the codes count
+            for (int i = 0; i < book.getIdentifierCount(); i++) {
+                bytes += estimateSize(book.getIdentifier(i));
+            }
+            bytes += estimateSize(book.getSmallThumbnail())
+                    + estimateSize(book.getThumbnail())
+                    + estimateSize(book.getDisplayAuthors())
+                    + estimateSize(book.getDescription());
+        }
+        return bytes;
+    }
+
+    private static long estimateSize(String s) {
+        return s == null ? 0 : STRING_OVERHEAD_BYTES + 2 * s.length();
+    }
+
+    /**
+     * A cached result, with its estimated size and creation time
+     */
+    private static final class Entry {
+        final List<Book> books;
+        final long bytes;
+        final long createdAt;
+
+        Entry(List<Book> books, long bytes, long createdAt) {
+            this.books = books;
+            this.bytes = bytes;
+            this.createdAt = createdAt;
+        }
+    }
+}
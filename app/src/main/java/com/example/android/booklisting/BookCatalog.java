@@ -0,0 +1,410 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.example.android.booklisting.BookDbHelper.COLUMN_AUTHORS;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_BOOK_ID;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_IDENTIFIER;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_INFO_LINK;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_LANGUAGE;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_LAST_USED;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_NAME;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_PAGE_COUNT;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_POSITION;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_PUBLISHED_DATE;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_PUBLISHER;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_ROW_ID;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_TITLE;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_TYPE;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_URL;
+import static com.example.android.booklisting.BookDbHelper.COLUMN_VOLUME_ID;
+import static com.example.android.booklisting.BookDbHelper.TABLE_AUTHORS;
+import static com.example.android.booklisting.BookDbHelper.TABLE_BOOKS;
+import static com.example.android.booklisting.BookDbHelper.TABLE_BOOKS_FTS;
+import static com.example.android.booklisting.BookDbHelper.TABLE_IDENTIFIERS;
+import static com.example.android.booklisting.BookDbHelper.TABLE_IMAGE_LINKS;
+
+/**
+ * Offline catalog of every book the app has parsed, stored in SQLite.
+ * <p>
+ * Books are written one page at a time, in a single transaction, and can be searched by
+ * title, authors and publisher through a full-text index, so a query can be answered
+ * locally when there is no connectivity or while the network request is in flight.
+ * The catalog keeps at most {@link #MAX_BOOKS} books, evicting the least recently used.
+ * <p>
+ * All the methods do disk I/O and must be called from a background thread.
+ */
+public final class BookCatalog {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = BookCatalog.class.getSimpleName();
+
+    /** Maximum number of books kept in the catalog */
+    static final int MAX_BOOKS = 2000;
+
+    /** Types of the stored image links */
+    private static final String IMAGE_TYPE_SMALL_THUMBNAIL = "smallThumbnail";
+    private static final String IMAGE_TYPE_THUMBNAIL = "thumbnail";
+
+    /** Default maximum number of books returned by a search */
+    static final int DEFAULT_SEARCH_LIMIT = 40;
+
+    private static BookCatalog sInstance;
+
+    private final BookDbHelper mDbHelper;
+
+    private BookCatalog(Context context) {
+        mDbHelper = new BookDbHelper(context);
+    }
+
+    /**
+     * Returns the catalog shared by the whole process.
+     */
+    public static synchronized BookCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookCatalog(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Store a page of books, replacing the previous version of any book already stored,
+     * and evict the least recently used books if the catalog is full.
+     * All the writes are done in a single transaction.
+     */
+    public void saveBooks(List<Book> books) {
+        if (books == null || books.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteStatement deleteBook = null;
+        SQLiteStatement insertBook = null;
+        SQLiteStatement insertFts = null;
+        SQLiteStatement insertAuthor = null;
+        SQLiteStatement insertIdentifier = null;
+        SQLiteStatement insertImageLink = null;
+
+        db.beginTransaction();
+        try {
+            deleteBook = db.compileStatement("DELETE FROM " + TABLE_BOOKS
+                    + " WHERE " + COLUMN_VOLUME_ID + " = ?");
+            insertBook = db.compileStatement("INSERT INTO " + TABLE_BOOKS + " ("
+                    + COLUMN_VOLUME_ID + ", " + COLUMN_TITLE + ", " + COLUMN_PUBLISHER + ", "
+                    + COLUMN_PUBLISHED_DATE + ", " + COLUMN_PAGE_COUNT + ", " + COLUMN_LANGUAGE + ", "
+                    + COLUMN_INFO_LINK + ", " + COLUMN_LAST_USED + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            insertFts = db.compileStatement("INSERT INTO " + TABLE_BOOKS_FTS + " (docid, "
+                    + COLUMN_TITLE + ", " + COLUMN_AUTHORS + ", " + COLUMN_PUBLISHER
+                    + ") VALUES (?, ?, ?, ?)");
+            insertAuthor = db.compileStatement("INSERT INTO " + TABLE_AUTHORS + " ("
+                    + COLUMN_BOOK_ID + ", " + COLUMN_POSITION + ", " + COLUMN_NAME
+                    + ") VALUES (?, ?, ?)");
+            insertIdentifier = db.compileStatement("INSERT INTO " + TABLE_IDENTIFIERS + " ("
+                    + COLUMN_BOOK_ID + ", " + COLUMN_POSITION + ", " + COLUMN_TYPE + ", "
+                    + COLUMN_IDENTIFIER + ") VALUES (?, ?, ?, ?)");
+            insertImageLink = db.compileStatement("INSERT INTO " + TABLE_IMAGE_LINKS + " ("
+                    + COLUMN_BOOK_ID + ", " + COLUMN_POSITION + ", " + COLUMN_TYPE + ", "
+                    + COLUMN_URL + ") VALUES (?, ?, ?, ?)");
+
+            for (Book book : books) {
+                if (book == null) {
+                    continue;
+                }
+
+                // The delete trigger also removes the children and the full-text entry
+                deleteBook.bindString(1, book.getId());
+                deleteBook.executeUpdateDelete();
+
+                insertBook.bindString(1, book.getId());
+                insertBook.bindString(2, book.getTitle());
+                bindStringOrNull(insertBook, 3, book.getPublisher());
+                bindStringOrNull(insertBook, 4, book.getPublishedDate());
+                insertBook.bindLong(5, book.getPageCount());
+                bindStringOrNull(insertBook, 6, book.getLanguage());
+                bindStringOrNull(insertBook, 7, book.getInfoLink());
+                insertBook.bindLong(8, now);
+                long rowId = insertBook.executeInsert();
+
+                StringBuilder authors = new StringBuilder();
+                for (int i = 0; i < book.getAuthorCount(); i++) {
+                    insertAuthor.bindLong(1, rowId);
+                    insertAuthor.bindLong(2, i);
+                    insertAuthor.bindString(3, book.getAuthor(i));
+                    insertAuthor.executeInsert();
+                    authors.append(book.getAuthor(i)).append(' ');
+                }
+
+                for (int i = 0; i < book.getIdentifierCount(); i++) {
+                    insertIdentifier.bindLong(1, rowId);
+                    insertIdentifier.bindLong(2, i);
+                    bindStringOrNull(insertIdentifier, 3, book.getIdentifierType(i));
+                    insertIdentifier.bindString(4, book.getIdentifier(i));
+                    insertIdentifier.executeInsert();
+                }
+
+                // Both thumbnails, small one first, as the parser reads them
+                if (book.getSmallThumbnail() != null || book.getThumbnail() != null) {
+                    insertImageLink.bindLong(1, rowId);
+                    insertImageLink.bindLong(2, 0);
+                    insertImageLink.bindString(3, IMAGE_TYPE_SMALL_THUMBNAIL);
+                    bindStringOrNull(insertImageLink, 4, book.getSmallThumbnail());
+                    insertImageLink.executeInsert();
+
+                    insertImageLink.bindLong(1, rowId);
+                    insertImageLink.bindLong(2, 1);
+                    insertImageLink.bindString(3, IMAGE_TYPE_THUMBNAIL);
+                    bindStringOrNull(insertImageLink, 4, book.getThumbnail());
+                    insertImageLink.executeInsert();
+                }
+
+                insertFts.bindLong(1, rowId);
+                insertFts.bindString(2, book.getTitle());
+                insertFts.bindString(3, authors.toString());
+                bindStringOrNull(insertFts, 4, book.getPublisher());
+                insertFts.executeInsert();
+            }
+
+            evictLeastRecentlyUsed(db);
+
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            // Not fatal, the books just won't be available offline
+            Log.e(LOG_TAG, "Problem saving books", e);
+        } finally {
+            db.endTransaction();
+            closeStatements(deleteBook, insertBook, insertFts,
+                    insertAuthor, insertIdentifier, insertImageLink);
+        }
+    }
+
+    /**
+     * Search the catalog for books whose title, authors or publisher contain all the words
+     * in the given search terms, as words or word prefixes.
+     *
+     * @param searchTerms the terms, as typed by the user
+     * @param limit       maximum number of books to return
+     * @return the matching books, most recently used first, or an empty list
+     */
+    public List<Book> search(String searchTerms, int limit) {
+        String match = toMatchExpression(searchTerms);
+        if (match == null) {
+            return new ArrayList<Book>();
+        }
+        return loadBooks(TABLE_BOOKS_FTS + " f JOIN " + TABLE_BOOKS + " b"
+                        + " ON b." + COLUMN_ROW_ID + " = f.docid"
+                        + " WHERE " + TABLE_BOOKS_FTS + " MATCH ?"
+                        + " ORDER BY b." + COLUMN_LAST_USED + " DESC"
+                        + " LIMIT " + limit,
+                new String[]{match});
+    }
+
+    /**
+     * Returns the stored version of a book.
+     *
+     * @param volumeId the Google Books volume ID
+     * @return the book, or null if it is not in the catalog
+     */
+    public Book getBook(String volumeId) {
+        List<Book> books = loadBooks(TABLE_BOOKS + " b WHERE b." + COLUMN_VOLUME_ID + " = ?",
+                new String[]{volumeId});
+        return books.isEmpty() ? null : books.get(0);
+    }
+
+    /**
+     * Load the books selected by the given clause, with their children, and mark them
+     * as recently used.
+     *
+     * @param fromClause FROM and following clauses, the books table must be aliased as b
+     * @param args       arguments of the clause
+     * @return the books, in the order of the clause, or an empty list
+     */
+    private List<Book> loadBooks(String fromClause, String[] args) {
+        List<Book> books = new ArrayList<Book>();
+        Map<Long, BookRow> rows = new HashMap<Long, BookRow>();
+        List<BookRow> orderedRows = new ArrayList<BookRow>();
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT b." + COLUMN_ROW_ID + ", b." + COLUMN_VOLUME_ID
+                    + ", b." + COLUMN_TITLE + ", b." + COLUMN_PUBLISHER
+                    + ", b." + COLUMN_PUBLISHED_DATE + ", b." + COLUMN_PAGE_COUNT
+                    + ", b." + COLUMN_LANGUAGE + ", b." + COLUMN_INFO_LINK
+                    + " FROM " + fromClause, args);
+            while (cursor.moveToNext()) {
+                BookRow row = new BookRow(cursor);
+                rows.put(row.rowId, row);
+                orderedRows.add(row);
+            }
+            cursor.close();
+            cursor = null;
+
+            if (orderedRows.isEmpty()) {
+                return books;
+            }
+
+            String inClause = inClause(orderedRows);
+            cursor = db.rawQuery("SELECT " + COLUMN_BOOK_ID + ", " + COLUMN_NAME
+                    + " FROM " + TABLE_AUTHORS + " WHERE " + COLUMN_BOOK_ID + inClause
+                    + " ORDER BY " + COLUMN_BOOK_ID + ", " + COLUMN_POSITION, null);
+            while (cursor.moveToNext()) {
+                rows.get(cursor.getLong(0)).authors.add(cursor.getString(1));
+            }
+            cursor.close();
+
+            cursor = db.rawQuery("SELECT " + COLUMN_BOOK_ID + ", " + COLUMN_TYPE + ", "
+                    + COLUMN_IDENTIFIER + " FROM " + TABLE_IDENTIFIERS
+                    + " WHERE " + COLUMN_BOOK_ID + inClause
+                    + " ORDER BY " + COLUMN_BOOK_ID + ", " + COLUMN_POSITION, null);
+            while (cursor.moveToNext()) {
+                rows.get(cursor.getLong(0)).identifiers.add(
+                        new IndustryIdentifier(cursor.getString(1), cursor.getString(2)));
+            }
+            cursor.close();
+
+            cursor = db.rawQuery("SELECT " + COLUMN_BOOK_ID + ", " + COLUMN_TYPE + ", "
+                    + COLUMN_URL + " FROM " + TABLE_IMAGE_LINKS
+                    + " WHERE " + COLUMN_BOOK_ID + inClause
+                    + " ORDER BY " + COLUMN_BOOK_ID + ", " + COLUMN_POSITION, null);
+            while (cursor.moveToNext()) {
+                rows.get(cursor.getLong(0)).imageLinks.add(
+                        new ImageLink(cursor.getString(1), cursor.getString(2)));
+            }
+            cursor.close();
+            cursor = null;
+
+            // Mark them as recently used
+            db.execSQL("UPDATE " + TABLE_BOOKS + " SET " + COLUMN_LAST_USED + " = "
+                    + System.currentTimeMillis() + " WHERE " + COLUMN_ROW_ID + inClause);
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem reading books", e);
+            return books;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        for (BookRow row : orderedRows) {
+            books.add(row.toBook());
+        }
+        return books;
+    }
+
+    /**
+     * Delete the least recently used books over {@link #MAX_BOOKS}.
+     */
+    private static void evictLeastRecentlyUsed(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + TABLE_BOOKS + " WHERE " + COLUMN_ROW_ID + " IN ("
+                + "SELECT " + COLUMN_ROW_ID + " FROM " + TABLE_BOOKS
+                + " ORDER BY " + COLUMN_LAST_USED + " DESC"
+                + " LIMIT -1 OFFSET " + MAX_BOOKS + ")");
+    }
+
+    /**
+     * Convert the search terms to an FTS MATCH expression: every word, lower-cased
+     * so it's not taken as an operator, as a prefix. API qualifiers such as "intitle:"
+     * are dropped.
+     *
+     * @return the expression, or null if there are no words in the terms
+     */
+    static String toMatchExpression(String searchTerms) {
+        if (searchTerms == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String term : searchTerms.trim().split("\\s+")) {
+            // intitle:android -> android
+            int qualifierEnd = term.indexOf(':');
+            if (qualifierEnd >= 0) {
+                term = term.substring(qualifierEnd + 1);
+            }
+            StringBuilder word = new StringBuilder();
+            for (int i = 0; i <= term.length(); i++) {
+                char c = i < term.length() ? term.charAt(i) : ' ';
+                if (Character.isLetterOrDigit(c)) {
+                    word.append(c);
+                } else if (word.length() > 0) {
+                    if (match.length() > 0) {
+                        match.append(' ');
+                    }
+                    match.append(word.toString().toLowerCase(Locale.ROOT)).append('*');
+                    word.setLength(0);
+                }
+            }
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    private static String inClause(List<BookRow> rows) {
+        StringBuilder in = new StringBuilder(" IN (");
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) {
+                in.append(',');
+            }
+            in.append(rows.get(i).rowId);
+        }
+        return in.append(')').toString();
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void closeStatements(SQLiteStatement... statements) {
+        for (SQLiteStatement statement : statements) {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * A books row, and its children, while it is being read
+     */
+    private static final class BookRow {
+        final long rowId;
+        final String volumeId;
+        final String title;
+        final String publisher;
+        final String publishedDate;
+        final int pageCount;
+        final String language;
+        final String infoLink;
+        final ArrayList<String> authors = new ArrayList<String>();
+        final ArrayList<IndustryIdentifier> identifiers = new ArrayList<IndustryIdentifier>();
+        final ArrayList<ImageLink> imageLinks = new ArrayList<ImageLink>();
+
+        BookRow(Cursor cursor) {
+            rowId = cursor.getLong(0);
+            volumeId = cursor.getString(1);
+            title = cursor.getString(2);
+            publisher = cursor.getString(3);
+            publishedDate = cursor.getString(4);
+            pageCount = cursor.getInt(5);
+            language = cursor.getString(6);
+            infoLink = cursor.getString(7);
+        }
+
+        Book toBook() {
+            return new Book(volumeId, title, authors, publisher, publishedDate,
+                    identifiers, pageCount, imageLinks, language, infoLink);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Database helper for the offline book catalog. Manages database creation and version
+ * management. The schema is described by the table and column constants.
+ */
+public class BookDbHelper extends SQLiteOpenHelper {
+
+    /** Name of the database file */
+    private static final String DATABASE_NAME = "catalog.db";
+
+    /**
+     * Database version. If you change the database schema, you must increment the database
+     * version.
+     */
+    private static final int DATABASE_VERSION = 1;
+
+    // Books table, one row per volume
+    static final String TABLE_BOOKS = "books";
+    static final String COLUMN_ROW_ID = "_id";
+    static final String COLUMN_VOLUME_ID = "volume_id";
+    static final String COLUMN_TITLE = "title";
+    static final String COLUMN_PUBLISHER = "publisher";
+    static final String COLUMN_PUBLISHED_DATE = "published_date";
+    static final String COLUMN_PAGE_COUNT = "page_count";
+    static final String COLUMN_LANGUAGE = "language";
+    static final String COLUMN_INFO_LINK = "info_link";
+    /** Last time the book was stored or returned by a search, for LRU eviction */
+    static final String COLUMN_LAST_USED = "last_used";
+
+    // Child tables: authors, industry identifiers and image links, in their original order
+    static final String TABLE_AUTHORS = "authors";
+    static final String TABLE_IDENTIFIERS = "identifiers";
+    static final String TABLE_IMAGE_LINKS = "image_links";
+    static final String COLUMN_BOOK_ID = "book_id";
+    static final String COLUMN_POSITION = "position";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_TYPE = "type";
+    static final String COLUMN_IDENTIFIER = "identifier";
+    static final String COLUMN_URL = "url";
+
+    // Full-text index over title, authors and publisher. docid is the books row id.
+    static final String TABLE_BOOKS_FTS = "books_fts";
+    static final String COLUMN_AUTHORS = "authors";
+
+    /**
+     * Constructs a new instance of {@link BookDbHelper}.
+     *
+     * @param context of the app
+     */
+    public BookDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * This is called when the database is created for the first time.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + COLUMN_ROW_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_VOLUME_ID + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_TITLE + " TEXT NOT NULL, "
+                + COLUMN_PUBLISHER + " TEXT, "
+                + COLUMN_PUBLISHED_DATE + " TEXT, "
+                + COLUMN_PAGE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_LANGUAGE + " TEXT, "
+                + COLUMN_INFO_LINK + " TEXT, "
+                + COLUMN_LAST_USED + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("CREATE INDEX " + TABLE_BOOKS + "_" + COLUMN_LAST_USED
+                + " ON " + TABLE_BOOKS + " (" + COLUMN_LAST_USED + ");");
+
+        db.execSQL("CREATE TABLE " + TABLE_AUTHORS + " ("
+                + COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                + COLUMN_POSITION + " INTEGER NOT NULL, "
+                + COLUMN_NAME + " TEXT NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_BOOK_ID + ", " + COLUMN_POSITION + "));");
+
+        db.execSQL("CREATE TABLE " + TABLE_IDENTIFIERS + " ("
+                + COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                + COLUMN_POSITION + " INTEGER NOT NULL, "
+                + COLUMN_TYPE + " TEXT, "
+                + COLUMN_IDENTIFIER + " TEXT NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_BOOK_ID + ", " + COLUMN_POSITION + "));");
+
+        db.execSQL("CREATE TABLE " + TABLE_IMAGE_LINKS + " ("
+                + COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                + COLUMN_POSITION + " INTEGER NOT NULL, "
+                + COLUMN_TYPE + " TEXT, "
+                + COLUMN_URL + " TEXT, "
+                + "PRIMARY KEY (" + COLUMN_BOOK_ID + ", " + COLUMN_POSITION + "));");
+
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_BOOKS_FTS + " USING fts4("
+                + COLUMN_TITLE + ", " + COLUMN_AUTHORS + ", " + COLUMN_PUBLISHER + ");");
+
+        // Deleting a book deletes its children and its full-text entry
+        db.execSQL("CREATE TRIGGER " + TABLE_BOOKS + "_delete AFTER DELETE ON " + TABLE_BOOKS
+                + " BEGIN "
+                + "DELETE FROM " + TABLE_AUTHORS + " WHERE " + COLUMN_BOOK_ID + " = OLD." + COLUMN_ROW_ID + "; "
+                + "DELETE FROM " + TABLE_IDENTIFIERS + " WHERE " + COLUMN_BOOK_ID + " = OLD." + COLUMN_ROW_ID + "; "
+                + "DELETE FROM " + TABLE_IMAGE_LINKS + " WHERE " + COLUMN_BOOK_ID + " = OLD." + COLUMN_ROW_ID + "; "
+                + "DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid = OLD." + COLUMN_ROW_ID + "; "
+                + "END;");
+    }
+
+    /**
+     * This is called when the database needs to be upgraded.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The database is still at version 1, so there's nothing to do be done here.
+    }
+}
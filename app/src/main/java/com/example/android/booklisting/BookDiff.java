@@ -0,0 +1,193 @@
+package com.example.android.booklisting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the item updates that turn one list of books into another, keyed on
+ * {@link Book#getId()}, so a RecyclerView adapter can animate only what changed.
+ * <p>
+ * Updates are computed in the order they have to be dispatched: removals first, then
+ * insertions, moves and changes from the top of the new list down. Consecutive insertions
+ * and removals are coalesced into ranges, so appending a page is a single update.
+ * This is meant to be run on a background thread.
+ */
+final class BookDiff {
+
+    /** Payload flags, telling which parts of a row changed */
+    static final int CHANGED_TITLE = 1;
+    static final int CHANGED_AUTHORS = 1 << 1;
+    static final int CHANGED_PUBLISHER = 1 << 2;
+    static final int CHANGED_IDENTIFIER = 1 << 3;
+    static final int CHANGED_THUMBNAIL = 1 << 4;
+
+    /** Kinds of update */
+    static final int REMOVE = 0;
+    static final int INSERT = 1;
+    static final int MOVE = 2;
+    static final int CHANGE = 3;
+
+    private BookDiff() {
+    }
+
+    /**
+     * An update to dispatch to the adapter.
+     */
+    static final class Update {
+        final int type;
+        /** Position for REMOVE, INSERT and CHANGE, from position for MOVE */
+        final int position;
+        /** Item count for REMOVE and INSERT, to position for MOVE, payload flags for CHANGE */
+        final int value;
+
+        Update(int type, int position, int value) {
+            this.type = type;
+            this.position = position;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Compute the updates from the old list to the new one. Neither list may contain nulls
+     * or duplicated ids, {@link BookAdapter#submitList(List)} removes them first.
+     */
+    static List<Update> compute(List<Book> oldBooks, List<Book> newBooks) {
+        List<Update> updates = new ArrayList<Update>();
+
+        Set<String> newIds = new HashSet<String>(newBooks.size() * 2);
+        for (Book book : newBooks) {
+            newIds.add(book.getId());
+        }
+
+        // Removals, from the bottom so positions above are not affected. The working list
+        // is the old list as the adapter sees it after each update.
+        List<Book> working = new ArrayList<Book>(oldBooks);
+        for (int i = working.size() - 1; i >= 0; ) {
+            if (newIds.contains(working.get(i).getId())) {
+                i--;
+                continue;
+            }
+            int end = i;
+            while (i >= 0 && !newIds.contains(working.get(i).getId())) {
+                i--;
+            }
+            int start = i + 1;
+            updates.add(new Update(REMOVE, start, end - start + 1));
+            working.subList(start, end + 1).clear();
+        }
+
+        Map<String, Book> oldById = new HashMap<String, Book>(working.size() * 2);
+        for (Book book : working) {
+            oldById.put(book.getId(), book);
+        }
+
+        // Insertions, moves and changes, top to bottom
+        for (int j = 0; j < newBooks.size(); ) {
+            Book newBook = newBooks.get(j);
+            Book oldBook = oldById.get(newBook.getId());
+
+            if (oldBook == null) {
+                int start = j;
+                while (j < newBooks.size() && !oldById.containsKey(newBooks.get(j).getId())) {
+                    working.add(j, newBooks.get(j));
+                    j++;
+                }
+                updates.add(new Update(INSERT, start, j - start));
+                continue;
+            }
+
+            if (!working.get(j).getId().equals(newBook.getId())) {
+                int from = indexOf(working, newBook.getId(), j + 1);
+                working.add(j, working.remove(from));
+                updates.add(new Update(MOVE, from, j));
+            }
+
+            int changes = changes(oldBook, newBook);
+            if (changes != 0) {
+                updates.add(new Update(CHANGE, j, changes));
+            }
+            j++;
+        }
+
+        return updates;
+    }
+
+    /**
+     * Returns the payload flags for the parts of the row that differ between the two books.
+     */
+    static int changes(Book oldBook, Book newBook) {
+        int changes = 0;
+        if (!equals(oldBook.getTitle(), newBook.getTitle())) {
+            changes |= CHANGED_TITLE;
+        }
+        if (!equals(oldBook.getDisplayAuthors(), newBook.getDisplayAuthors())) {
+            changes |= CHANGED_AUTHORS;
+        }
+        if (!equals(oldBook.getPublisher(), newBook.getPublisher())) {
+            changes |= CHANGED_PUBLISHER;
+        }
+        if (!equals(oldBook.getPrimaryIdentifierType(), newBook.getPrimaryIdentifierType())
+                || !equals(oldBook.getPrimaryIdentifier(), newBook.getPrimaryIdentifier())) {
+            changes |= CHANGED_IDENTIFIER;
+        }
+        if (!equals(oldBook.getThumbnailUrl(), newBook.getThumbnailUrl())) {
+            changes |= CHANGED_THUMBNAIL;
+        }
+        return changes;
+    }
+
+    /**
+     * Whether the two lists have the same books, by ID, in the same order, with the same
+     * values in all the fields of a search result. The description, which search results
+     * don't have, is not compared.
+     * <p>
+     * The lists are pages as parsed, which may hold nulls for incomplete volumes: a null
+     * is the same as a null at the same position only.
+     */
+    static boolean isSame(List<Book> oldBooks, List<Book> newBooks) {
+        if (oldBooks.size() != newBooks.size()) {
+            return false;
+        }
+        for (int i = 0; i < oldBooks.size(); i++) {
+            Book oldBook = oldBooks.get(i);
+            Book newBook = newBooks.get(i);
+            if (oldBook == null || newBook == null) {
+                if (oldBook != newBook) {
+                    return false;
+                }
+                continue;
+            }
+            if (!equals(oldBook.getId(), newBook.getId())
+                    || changes(oldBook, newBook) != 0
+                    || !equals(oldBook.getPrintableAuthors(), newBook.getPrintableAuthors())
+                    || !equals(oldBook.getPublishedDate(), newBook.getPublishedDate())
+                    || !equals(oldBook.getPrintableIdentifiers(),
+                    newBook.getPrintableIdentifiers())
+                    || oldBook.getPageCount() != newBook.getPageCount()
+                    || !equals(oldBook.getSmallThumbnail(), newBook.getSmallThumbnail())
+                    || !equals(oldBook.getThumbnail(), newBook.getThumbnail())
+                    || !equals(oldBook.getLanguage(), newBook.getLanguage())
+                    || !equals(oldBook.getInfoLink(), newBook.getInfoLink())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(List<Book> books, String id, int from) {
+        for (int i = from; i < books.size(); i++) {
+            if (books.get(i).getId().equals(id)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Book " + id + " not found");
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
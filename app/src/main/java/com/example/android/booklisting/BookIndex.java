@@ -0,0 +1,465 @@
+package com.example.android.booklisting;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sorts and filters a list of loaded books in memory, and counts its facets, so the results
+ * can be reordered or narrowed down without another request to the Books API.
+ * <p>
+ * The sort keys and facet values of every book are computed once, when the index is built:
+ * published dates are parsed, titles are ranked with a collator, and facet values are
+ * turned into small integers. A query then only compares packed primitive keys, which sorts
+ * a few thousand books in a millisecond or two. Both building and querying are meant to be
+ * done on a background thread; an index is immutable once built.
+ * <p>
+ * Facet counts are those of the values of a facet among the books matching the filters of
+ * the other facets, so they tell how many books selecting each value would show.
+ */
+final class BookIndex {
+
+    // Sort orders
+    static final int SORT_RELEVANCE = 0;
+    static final int SORT_PUBLISHED_DATE = 1;
+    static final int SORT_PAGE_COUNT = 2;
+    static final int SORT_TITLE = 3;
+
+    // Facets
+    static final int FACET_LANGUAGE = 0;
+    static final int FACET_PUBLISHER = 1;
+    static final int FACET_IDENTIFIER_TYPE = 2;
+    static final int FACET_COUNT = 3;
+
+    /** Sort key of a missing value, which sorts last in either direction */
+    private static final int MISSING = Integer.MAX_VALUE;
+
+    /** Id of a filter value that no book has */
+    private static final int NO_MATCH = -2;
+
+    /** Id of no filter */
+    private static final int ANY = -1;
+
+    private static final int[] NO_VALUES = new int[0];
+
+    /** Books the index was built from */
+    private final List<Book> mSource;
+
+    /** Books of the source, without the nulls of incomplete volumes */
+    private final List<Book> mBooks;
+
+    /** Published dates as yyyymmdd, with 0 for a missing month or day, or MISSING */
+    private final int[] mDates;
+
+    /** Page counts, or MISSING */
+    private final int[] mPageCounts;
+
+    /** Position of each title in collation order, equal titles having equal ranks */
+    private final int[] mTitleRanks;
+
+    /** Distinct values of each facet, by id */
+    private final String[][] mFacetValues;
+
+    /** Value ids of each facet of each book, by facet then book */
+    private final int[][][] mFacetIds;
+
+    private BookIndex(List<Book> source, List<Book> books) {
+        mSource = source;
+        mBooks = books;
+        int count = books.size();
+        mDates = new int[count];
+        mPageCounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            Book book = books.get(i);
+            mDates[i] = parseDate(book.getPublishedDate());
+            mPageCounts[i] = book.getPageCount() > 0 ? book.getPageCount() : MISSING;
+        }
+        mTitleRanks = rankTitles(books);
+
+        mFacetValues = new String[FACET_COUNT][];
+        mFacetIds = new int[FACET_COUNT][count][];
+        for (int facet = 0; facet < FACET_COUNT; facet++) {
+            Map<String, Integer> ids = new HashMap<String, Integer>();
+            List<String> values = new ArrayList<String>();
+            for (int i = 0; i < count; i++) {
+                mFacetIds[facet][i] = valueIds(facetValues(books.get(i), facet), ids, values);
+            }
+            mFacetValues[facet] = values.toArray(new String[values.size()]);
+        }
+    }
+
+    /**
+     * Build the index of a list of books, which must not be modified afterwards. The nulls
+     * the parser leaves for incomplete volumes are left out.
+     */
+    static BookIndex build(List<Book> books) {
+        List<Book> indexed = books;
+        if (books.contains(null)) {
+            indexed = new ArrayList<Book>(books.size());
+            for (Book book : books) {
+                if (book != null) {
+                    indexed.add(book);
+                }
+            }
+        }
+        return new BookIndex(books, indexed);
+    }
+
+    /**
+     * Returns the books the index was built from.
+     */
+    List<Book> getBooks() {
+        return mSource;
+    }
+
+    /**
+     * Sort and filter the books, and count their facets.
+     */
+    Result query(Refinement refinement) {
+        int count = mBooks.size();
+
+        // Ids of the values filtered on
+        int[] filterIds = new int[FACET_COUNT];
+        for (int facet = 0; facet < FACET_COUNT; facet++) {
+            String value = refinement.getFilter(facet);
+            filterIds[facet] = value == null ? ANY : indexOf(mFacetValues[facet], value);
+        }
+
+        int[][] facetCounts = new int[FACET_COUNT][];
+        for (int facet = 0; facet < FACET_COUNT; facet++) {
+            facetCounts[facet] = new int[mFacetValues[facet].length];
+        }
+
+        // Sort keys of the matching books, with their position in the low bits, so sorting
+        // them is a sort of primitives and ties keep the relevance order
+        long[] keys = new long[count];
+        int matching = 0;
+        boolean[] matches = new boolean[FACET_COUNT];
+        for (int i = 0; i < count; i++) {
+            int failed = 0;
+            for (int facet = 0; facet < FACET_COUNT; facet++) {
+                matches[facet] = filterIds[facet] == ANY
+                        || contains(mFacetIds[facet][i], filterIds[facet]);
+                if (!matches[facet]) {
+                    failed++;
+                }
+            }
+            // A facet is counted among the books matching the other facets
+            for (int facet = 0; facet < FACET_COUNT; facet++) {
+                if (failed == 0 || (failed == 1 && !matches[facet])) {
+                    for (int id : mFacetIds[facet][i]) {
+                        facetCounts[facet][id]++;
+                    }
+                }
+            }
+            if (failed == 0) {
+                keys[matching++] = ((long) sortKey(refinement, i) << 32) | i;
+            }
+        }
+        Arrays.sort(keys, 0, matching);
+
+        List<Book> books = new ArrayList<Book>(matching);
+        for (int i = 0; i < matching; i++) {
+            books.add(mBooks.get((int) keys[i]));
+        }
+
+        List<List<FacetValue>> facets = new ArrayList<List<FacetValue>>(FACET_COUNT);
+        for (int facet = 0; facet < FACET_COUNT; facet++) {
+            facets.add(facetValues(facet, facetCounts[facet]));
+        }
+        return new Result(books, facets);
+    }
+
+    private int sortKey(Refinement refinement, int book) {
+        int key;
+        switch (refinement.getSort()) {
+            case SORT_PUBLISHED_DATE:
+                key = mDates[book];
+                break;
+            case SORT_PAGE_COUNT:
+                key = mPageCounts[book];
+                break;
+            case SORT_TITLE:
+                key = mTitleRanks[book];
+                break;
+            default:
+                return 0;
+        }
+        if (refinement.isDescending() && key != MISSING) {
+            // Keys are not negative, so this reverses them and keeps MISSING last
+            key = MISSING - 1 - key;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the values of a facet with their counts, most frequent first, leaving out
+     * those with no books.
+     */
+    private List<FacetValue> facetValues(int facet, int[] counts) {
+        List<FacetValue> values = new ArrayList<FacetValue>();
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] > 0) {
+                values.add(new FacetValue(mFacetValues[facet][id], counts[id]));
+            }
+        }
+        Collections.sort(values, new Comparator<FacetValue>() {
+            @Override
+            public int compare(FacetValue a, FacetValue b) {
+                if (a.count != b.count) {
+                    return a.count > b.count ? -1 : 1;
+                }
+                return a.value.compareTo(b.value);
+            }
+        });
+        return values;
+    }
+
+    /**
+     * Parse a published date, which the API gives as "yyyy", "yyyy-mm" or "yyyy-mm-dd".
+     *
+     * @return the date as yyyymmdd, with 0 for a missing month or day, or MISSING if there
+     * is no year
+     */
+    static int parseDate(String date) {
+        if (date == null) {
+            return MISSING;
+        }
+        int[] parts = new int[3];
+        int part = 0;
+        int digits = 0;
+        for (int i = 0; i < date.length() && part < parts.length; i++) {
+            char c = date.charAt(i);
+            if (c >= '0' && c <= '9') {
+                parts[part] = parts[part] * 10 + (c - '0');
+                digits++;
+            } else if (c == '-' && digits > 0) {
+                part++;
+                digits = 0;
+            } else {
+                // A time, or something that isn't a date
+                break;
+            }
+        }
+        int year = parts[0];
+        if (year <= 0 || year > 9999) {
+            return MISSING;
+        }
+        int month = parts[1] <= 12 ? parts[1] : 0;
+        int day = month != 0 && parts[2] <= 31 ? parts[2] : 0;
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * Rank the titles in the collation order of the default locale, ignoring case.
+     */
+    private static int[] rankTitles(List<Book> books) {
+        int count = books.size();
+        Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.SECONDARY);
+        final CollationKey[] keys = new CollationKey[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            String title = books.get(i).getTitle();
+            keys[i] = collator.getCollationKey(title == null ? "" : title);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return keys[a].compareTo(keys[b]);
+            }
+        });
+        int[] ranks = new int[count];
+        int rank = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && keys[order[i]].compareTo(keys[order[i - 1]]) != 0) {
+                rank = i;
+            }
+            ranks[order[i]] = rank;
+        }
+        return ranks;
+    }
+
+    private static String[] facetValues(Book book, int facet) {
+        switch (facet) {
+            case FACET_LANGUAGE:
+                return new String[]{book.getLanguage()};
+            case FACET_PUBLISHER:
+                return new String[]{book.hasPublisher() ? book.getPublisher() : null};
+            default:
+                String[] types = new String[book.getIdentifierCount()];
+                for (int i = 0; i < types.length; i++) {
+                    types[i] = book.getIdentifierType(i);
+                }
+                return types;
+        }
+    }
+
+    /**
+     * Returns the ids of the given values, assigning new ones to values not seen yet.
+     * Missing values are left out, and duplicates are only listed once.
+     */
+    private static int[] valueIds(String[] bookValues, Map<String, Integer> ids,
+                                  List<String> values) {
+        int[] bookIds = new int[bookValues.length];
+        int count = 0;
+        for (String value : bookValues) {
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            if (!contains(bookIds, count, id)) {
+                bookIds[count++] = id;
+            }
+        }
+        if (count == 0) {
+            return NO_VALUES;
+        }
+        return count == bookIds.length ? bookIds : Arrays.copyOf(bookIds, count);
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        return contains(ids, ids.length, id);
+    }
+
+    private static boolean contains(int[] ids, int length, int id) {
+        for (int i = 0; i < length; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return NO_MATCH;
+    }
+
+    /**
+     * How to sort and filter the books. Immutable, so it can be handed to a background
+     * thread: the with methods return a modified copy.
+     */
+    static final class Refinement {
+
+        /** Relevance order, as returned by the API, with no filters */
+        static final Refinement NONE =
+                new Refinement(SORT_RELEVANCE, false, new String[FACET_COUNT]);
+
+        private final int mSort;
+        private final boolean mDescending;
+        private final String[] mFilters;
+
+        private Refinement(int sort, boolean descending, String[] filters) {
+            mSort = sort;
+            mDescending = descending;
+            mFilters = filters;
+        }
+
+        /**
+         * @param sort       {@link #SORT_RELEVANCE}, {@link #SORT_PUBLISHED_DATE},
+         *                   {@link #SORT_PAGE_COUNT} or {@link #SORT_TITLE}
+         * @param descending whether to sort from the highest value down, ignored for
+         *                   relevance. Books without the value come last either way.
+         */
+        Refinement withSort(int sort, boolean descending) {
+            if (sort < SORT_RELEVANCE || sort > SORT_TITLE) {
+                throw new IllegalArgumentException("Unknown sort: " + sort);
+            }
+            return new Refinement(sort, descending, mFilters);
+        }
+
+        /**
+         * Only keep the books with the given value of the facet, or all of them if null.
+         */
+        Refinement withFilter(int facet, String value) {
+            String[] filters = mFilters.clone();
+            filters[facet] = value;
+            return new Refinement(mSort, mDescending, filters);
+        }
+
+        int getSort() {
+            return mSort;
+        }
+
+        boolean isDescending() {
+            return mDescending;
+        }
+
+        /**
+         * Returns the value the facet is filtered on, or null if it isn't.
+         */
+        String getFilter(int facet) {
+            return mFilters[facet];
+        }
+
+        /**
+         * Whether the books are left as they are, in relevance order and unfiltered.
+         */
+        boolean isNone() {
+            if (mSort != SORT_RELEVANCE) {
+                return false;
+            }
+            for (String filter : mFilters) {
+                if (filter != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A value of a facet, and the number of books with it.
+     */
+    static final class FacetValue {
+        final String value;
+        final int count;
+
+        FacetValue(String value, int count) {
+            this.value = value;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Books matching a refinement, in order, and the facets of the books.
+     */
+    static final class Result {
+
+        private final List<Book> mBooks;
+        private final List<List<FacetValue>> mFacets;
+
+        Result(List<Book> books, List<List<FacetValue>> facets) {
+            mBooks = books;
+            mFacets = facets;
+        }
+
+        List<Book> getBooks() {
+            return mBooks;
+        }
+
+        /**
+         * Returns the values of a facet, most frequent first.
+         */
+        List<FacetValue> getFacet(int facet) {
+            return mFacets.get(facet);
+        }
+    }
+}
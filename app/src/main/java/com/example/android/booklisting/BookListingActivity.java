@@ -8,14 +8,20 @@ import android.content.Loader;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.SubMenu;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 public class BookListingActivity extends AppCompatActivity
         implements LoaderCallbacks<List<Book>> {
@@ -27,7 +33,84 @@ public class BookListingActivity extends AppCompatActivity
      * This really only comes into play if you're using multiple loaders.
      */
     private static final int BOOK_LOADER_ID = 1;
+    /**
+     * Loader ID for the results stored on the device, which runs along with the network one
+     */
+    private static final int CATALOG_LOADER_ID = 2;
+
+    /** Time from the activity being created to the first results shown, see {@link Metrics} */
+    private static final Metrics.Histogram sTimeToResults = Metrics.timer("ui.time_to_results");
+
+    /** Time to hand the delivered results to the adapter */
+    private static final Metrics.Histogram sDeliverTime = Metrics.timer("ui.load_finished");
+
+    /** Time to sort and filter the loaded results, building their index if needed */
+    private static final Metrics.Histogram sRefineTime = Metrics.timer("ui.refine");
+
+    // Keys of the saved instance state
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_DESCENDING = "descending";
+    private static final String STATE_FILTER = "filter";
+
+    /** Values of a facet listed at most in its filter menu, the most frequent ones */
+    private static final int MAX_FILTER_VALUES = 10;
+
+    /** Group of the values of a filter menu, checked one at a time */
+    private static final int FILTER_GROUP = 1;
     private String mQuery = null;
+
+    /**
+     * Whether there is no network connection, so only the catalog is searched
+     */
+    private boolean mOffline;
+
+    /**
+     * Whether the adapter is showing results stored on the device, from the last snapshot
+     * of the query or the offline catalog
+     */
+    private boolean mShowingCatalog;
+
+    /**
+     * Whether the network loader has delivered results, which replace the catalog ones
+     */
+    private boolean mNetworkDelivered;
+
+    /**
+     * Last results written to the snapshot, so redeliveries are not written again
+     */
+    private List<Book> mSnapshotBooks;
+
+    /**
+     * Results as delivered by the loaders, before they are sorted and filtered
+     */
+    private List<Book> mLoadedBooks;
+
+    /**
+     * How the user asked for the results to be sorted and filtered
+     */
+    private BookIndex.Refinement mRefinement = BookIndex.Refinement.NONE;
+
+    /**
+     * Index of the loaded results, only used by the refinement task
+     */
+    private volatile BookIndex mIndex;
+
+    /**
+     * Last refinement of the loaded results, whose facets fill the filter menus
+     */
+    private BookIndex.Result mRefined;
+
+    /**
+     * Incremented for every refinement, so the result of an outdated one is dropped
+     */
+    private int mRefineGeneration;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * When the activity was created, until the first results are shown, then 0
+     */
+    private long mCreateNanos;
     /**
      * Adapter for the list of books
      */
@@ -41,64 +124,64 @@ public class BookListingActivity extends AppCompatActivity
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mCreateNanos = System.nanoTime();
         setContentView(R.layout.activity_book_listing);
 
         Intent intent = getIntent();
         mQuery = intent.getStringExtra(EXTRA_QUERY_URL);
+        if (savedInstanceState != null) {
+            mRefinement = restoreRefinement(savedInstanceState);
+        }
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView bookListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView bookListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        bookListView.setLayoutManager(layoutManager);
 
         mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
-        bookListView.setEmptyView(mEmptyStateTextView);
 
-        // Create a new adapter that takes an empty list of earthquakes as input
-        mAdapter = new BookAdapter(this, new ArrayList<Book>());
-
-        // Set the adapter on the {@link ListView}
-        // so the list can be populated in the user interface
-        bookListView.setAdapter(mAdapter);
-
-        // Set an item click listener on the ListView, which opens  a details activity
+        // Create a new adapter, with a click listener which opens a details activity
         // with more information about the selected book.
-        bookListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mAdapter = new BookAdapter(this, new BookAdapter.OnBookClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                // Find the book that was clicked on
-                Book currentBook = mAdapter.getItem(position);
-
-                Intent intent = new Intent(getApplicationContext(), DetailsActivity.class);
+            public void onBookClick(Book currentBook) {
+                Intent intent = DetailsActivity.createIntent(getApplicationContext(), currentBook);
+                startActivity(intent);
+            }
+        });
 
-                intent.putExtra("title", currentBook.getTitle());
+        // Show the empty view when the list is empty, as RecyclerView doesn't do it
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
 
-                ArrayList<String> authors = currentBook.getAuthors();
-                String printableAuthors = "";
-                for (int i = 0; i < authors.size(); i++) {
-                    if (i != 0) {
-                        printableAuthors += ", ";
-                    }
-                    printableAuthors += authors.get(i);
-                }
-                intent.putExtra("printableAuthors", printableAuthors);
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
 
-                intent.putExtra("publisher", currentBook.getPublisher());
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
 
-                intent.putExtra("publishedDate", currentBook.getPublishedDate());
+        // Set the adapter on the {@link RecyclerView}
+        // so the list can be populated in the user interface
+        bookListView.setAdapter(mAdapter);
 
-                ArrayList<IndustryIdentifier> industryIdentifiers = currentBook.getIndustryidentifiers();
-                String printableIdentifiers = "";
-                for (int i = 0; i < industryIdentifiers.size(); i++) {
-                    if (i != 0) {
-                        printableIdentifiers += "\n";
-                    }
-                    printableIdentifiers += industryIdentifiers.get(i).getIdentifier();
+        // Load the next page in the background when the user gets close to the end of the list
+        final int prefetchDistance = getResources().getInteger(R.integer.prefetch_distance);
+        bookListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mAdapter.getItemCount();
+                if (totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        + 1 + prefetchDistance >= totalItemCount) {
+                    loadNextPage();
                 }
-                intent.putExtra("printableIdentifiers", printableIdentifiers);
-
-                intent.putExtra("infoLink", currentBook.getInfoLink());
-
-                startActivity(intent);
-
             }
         });
 
@@ -109,55 +192,348 @@ public class BookListingActivity extends AppCompatActivity
         // Get details on the currently active default data network
         NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
 
-        // If there is a network connection, fetch data
-        if (networkInfo != null && networkInfo.isConnected()) {
-            // Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
+        // Get a reference to the LoaderManager, in order to interact with loaders.
+        LoaderManager loaderManager = getLoaderManager();
+
+        // Search the offline catalog in any case: it is shown while the network request
+        // is in flight, or instead of it if there is no connection.
+        loaderManager.initLoader(CATALOG_LOADER_ID, null, this);
 
+        // If there is a network connection, fetch data
+        mOffline = networkInfo == null || !networkInfo.isConnected();
+        if (!mOffline) {
             // Initialize the loader. Pass in the int ID constant defined above and pass in null for
             // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
             // because this activity implements the LoaderCallbacks interface).
             loaderManager.initLoader(BOOK_LOADER_ID, null, this);
-        } else {
-            // Otherwise, display error
-            // First, hide loading indicator so error message will be visible
-            View loadingIndicator = findViewById(R.id.loading_indicator);
-            loadingIndicator.setVisibility(View.GONE);
+        }
+    }
 
-            // Update empty state with no connection error message
-            mEmptyStateTextView.setText(R.string.no_internet_connection);
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // The process may be killed while in the background, save the cached responses
+        BookListingApplication.flushHttpCache();
+
+        if (Log.isLoggable(Metrics.LOG_TAG, Log.DEBUG)) {
+            Log.d(Metrics.LOG_TAG, Metrics.dump());
         }
     }
 
     @Override
-    public Loader<List<Book>> onCreateLoader(int i, Bundle bundle) {
+    protected void onDestroy() {
+        super.onDestroy();
+        // Stop downloading thumbnails nobody will see
+        RequestScheduler.getInstance().cancelAll(this);
+    }
+
+    /**
+     * Ask the loader for the next page of results. Does nothing if it is already loading
+     * one or there are no more.
+     */
+    private void loadNextPage() {
+        Loader<List<Book>> loader = getLoaderManager().getLoader(BOOK_LOADER_ID);
+        if (loader != null) {
+            ((BookLoader) loader).loadNextPage();
+        }
+    }
+
+    @Override
+    public Loader<List<Book>> onCreateLoader(int id, Bundle bundle) {
+        if (id == CATALOG_LOADER_ID) {
+            // Create a new loader searching the offline catalog
+            return new CatalogLoader(this, mQuery);
+        }
         // Create a new loader for the given URL
-        return new BookLoader(this, mQuery);
+        return new BookLoader(this, mQuery, getResources().getInteger(R.integer.page_size));
     }
 
     @Override
     public void onLoadFinished(Loader<List<Book>> loader, List<Book> books) {
+        if (loader.getId() == CATALOG_LOADER_ID) {
+            onCatalogLoadFinished(books);
+            return;
+        }
+
         // Hide loading indicator because the data has been loaded
         View loadingIndicator = findViewById(R.id.loading_indicator);
         loadingIndicator.setVisibility(View.GONE);
 
-        // Set empty state text to display "No books found."
-        mEmptyStateTextView.setText(R.string.no_books);
+        // If the request failed, keep showing the catalog results, if any
+        if (books == null && mShowingCatalog) {
+            return;
+        }
+
+        // Network results replace the catalog ones. The loader delivers all the books
+        // loaded so far, the adapter only updates the rows that changed, so the list
+        // isn't reset while scrolling. Stale results, delivered while the loader checks
+        // them, are replaced the same way if they turn out to have changed.
+        mShowingCatalog = false;
+        mNetworkDelivered = books != null;
+
+        // Set empty state text to display "No books found.", or that the request failed,
+        // which is not the same as no results
+        mEmptyStateTextView.setText(books == null ? R.string.problem_loading : R.string.no_books);
+
+        long start = System.nanoTime();
+        showBooks(books);
+        updateEmptyView();
+        sDeliverTime.recordSince(start);
+        recordTimeToResults(books);
+
+        // Keep them to show them right away on a cold start
+        if (books != null && books != mSnapshotBooks && !((BookLoader) loader).isStale()) {
+            mSnapshotBooks = books;
+            SnapshotStore.getInstance(this).saveAsync(mQuery, books);
+        }
+    }
 
-        // Clear the adapter of previous earthquake data
-        mAdapter.clear();
+    /**
+     * Show the books stored on the device, unless the network results are already shown.
+     */
+    private void onCatalogLoadFinished(List<Book> books) {
+        if (mNetworkDelivered) {
+            return;
+        }
 
-        // If there is a valid list of {@link Books}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
+        View loadingIndicator = findViewById(R.id.loading_indicator);
         if (books != null && !books.isEmpty()) {
-            mAdapter.addAll(books);
+            loadingIndicator.setVisibility(View.GONE);
+            long start = System.nanoTime();
+            showBooks(books);
+            sDeliverTime.recordSince(start);
+            mShowingCatalog = true;
+            recordTimeToResults(books);
+        } else if (mOffline) {
+            // Nothing else is coming, display error
+            // First, hide loading indicator so error message will be visible
+            loadingIndicator.setVisibility(View.GONE);
+
+            // Update empty state with no connection error message
+            mEmptyStateTextView.setText(R.string.no_internet_connection);
+            updateEmptyView();
         }
     }
 
     @Override
     public void onLoaderReset(Loader<List<Book>> loader) {
-        // Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+        // Loader reset, so we can clear out our existing data, if it's the data shown.
+        if ((loader.getId() == CATALOG_LOADER_ID) == mShowingCatalog) {
+            showBooks(null);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(STATE_SORT, mRefinement.getSort());
+        outState.putBoolean(STATE_DESCENDING, mRefinement.isDescending());
+        for (int facet = 0; facet < BookIndex.FACET_COUNT; facet++) {
+            outState.putString(STATE_FILTER + facet, mRefinement.getFilter(facet));
+        }
+    }
+
+    private static BookIndex.Refinement restoreRefinement(Bundle state) {
+        BookIndex.Refinement refinement = BookIndex.Refinement.NONE.withSort(
+                state.getInt(STATE_SORT), state.getBoolean(STATE_DESCENDING));
+        for (int facet = 0; facet < BookIndex.FACET_COUNT; facet++) {
+            refinement = refinement.withFilter(facet, state.getString(STATE_FILTER + facet));
+        }
+        return refinement;
+    }
+
+    /**
+     * Show loaded books, sorted and filtered as the user asked. Unless they are left as
+     * they are, they are shown once refined in the background.
+     */
+    private void showBooks(List<Book> books) {
+        mLoadedBooks = books;
+        if (mRefinement.isNone()) {
+            mAdapter.submitList(books);
+        }
+        // Even if they are shown as they are, for the facets of the filter menus
+        refine();
+    }
+
+    /**
+     * Sort and filter the loaded books in the background, with the index of the loaded
+     * books, rebuilt when more are loaded, and show them if they are refined.
+     */
+    private void refine() {
+        final List<Book> books = mLoadedBooks;
+        final BookIndex.Refinement refinement = mRefinement;
+        final int generation = ++mRefineGeneration;
+        if (books == null) {
+            mRefined = null;
+            return;
+        }
+        RequestScheduler.getInstance().submit(RequestScheduler.LANE_INTERACTIVE, this,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.nanoTime();
+                        BookIndex index = mIndex;
+                        if (index == null || index.getBooks() != books) {
+                            index = BookIndex.build(books);
+                            mIndex = index;
+                        }
+                        final BookIndex.Result result = index.query(refinement);
+                        sRefineTime.recordSince(start);
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onRefined(generation, refinement, result);
+                            }
+                        });
+                    }
+                });
+    }
+
+    private void onRefined(int generation, BookIndex.Refinement refinement,
+                           BookIndex.Result result) {
+        // Drop it if the books or the refinement have changed since
+        if (generation != mRefineGeneration) {
+            return;
+        }
+        mRefined = result;
+        if (!refinement.isNone()) {
+            mAdapter.submitList(result.getBooks());
+        }
+        invalidateOptionsMenu();
+    }
+
+    private void setRefinement(BookIndex.Refinement refinement) {
+        mRefinement = refinement;
+        if (refinement.isNone()) {
+            // Back to the loaded books, as they are
+            mAdapter.submitList(mLoadedBooks);
+        }
+        refine();
+        invalidateOptionsMenu();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.book_listing, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        int sortItemId;
+        switch (mRefinement.getSort()) {
+            case BookIndex.SORT_PUBLISHED_DATE:
+                sortItemId = mRefinement.isDescending() ? R.id.sort_newest : R.id.sort_oldest;
+                break;
+            case BookIndex.SORT_PAGE_COUNT:
+                sortItemId = mRefinement.isDescending()
+                        ? R.id.sort_most_pages : R.id.sort_fewest_pages;
+                break;
+            case BookIndex.SORT_TITLE:
+                sortItemId = R.id.sort_title;
+                break;
+            default:
+                sortItemId = R.id.sort_relevance;
+        }
+        menu.findItem(sortItemId).setChecked(true);
+
+        prepareFilterMenu(menu.findItem(R.id.filter_language), BookIndex.FACET_LANGUAGE);
+        prepareFilterMenu(menu.findItem(R.id.filter_publisher), BookIndex.FACET_PUBLISHER);
+        prepareFilterMenu(menu.findItem(R.id.filter_identifier_type),
+                BookIndex.FACET_IDENTIFIER_TYPE);
+        return true;
+    }
+
+    /**
+     * List the most frequent values of a facet in its filter menu, with their counts.
+     * The menu is hidden while there are none.
+     */
+    private void prepareFilterMenu(MenuItem item, final int facet) {
+        List<BookIndex.FacetValue> values = mRefined == null ? null : mRefined.getFacet(facet);
+        String selected = mRefinement.getFilter(facet);
+        item.setVisible(selected != null || (values != null && !values.isEmpty()));
+        SubMenu subMenu = item.getSubMenu();
+        subMenu.clear();
+
+        MenuItem all = subMenu.add(FILTER_GROUP, Menu.NONE, Menu.NONE,
+                getString(R.string.filter_all));
+        all.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem menuItem) {
+                setRefinement(mRefinement.withFilter(facet, null));
+                return true;
+            }
+        });
+        all.setChecked(selected == null);
+
+        if (values != null) {
+            for (int i = 0; i < values.size(); i++) {
+                final BookIndex.FacetValue value = values.get(i);
+                boolean checked = value.value.equals(selected);
+                // The selected value is listed even if it isn't among the most frequent
+                if (i >= MAX_FILTER_VALUES && !checked) {
+                    continue;
+                }
+                String label = facet == BookIndex.FACET_LANGUAGE
+                        ? new Locale(value.value).getDisplayLanguage() : value.value;
+                MenuItem valueItem = subMenu.add(FILTER_GROUP, Menu.NONE, Menu.NONE,
+                        getString(R.string.filter_value, label, value.count));
+                valueItem.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+                    @Override
+                    public boolean onMenuItemClick(MenuItem menuItem) {
+                        setRefinement(mRefinement.withFilter(facet, value.value));
+                        return true;
+                    }
+                });
+                valueItem.setChecked(checked);
+            }
+        }
+        subMenu.setGroupCheckable(FILTER_GROUP, true, true);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.sort_relevance:
+                setRefinement(mRefinement.withSort(BookIndex.SORT_RELEVANCE, false));
+                return true;
+            case R.id.sort_newest:
+                setRefinement(mRefinement.withSort(BookIndex.SORT_PUBLISHED_DATE, true));
+                return true;
+            case R.id.sort_oldest:
+                setRefinement(mRefinement.withSort(BookIndex.SORT_PUBLISHED_DATE, false));
+                return true;
+            case R.id.sort_fewest_pages:
+                setRefinement(mRefinement.withSort(BookIndex.SORT_PAGE_COUNT, false));
+                return true;
+            case R.id.sort_most_pages:
+                setRefinement(mRefinement.withSort(BookIndex.SORT_PAGE_COUNT, true));
+                return true;
+            case R.id.sort_title:
+                setRefinement(mRefinement.withSort(BookIndex.SORT_TITLE, false));
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    /**
+     * Record the time it took to show the first results, if these are.
+     */
+    private void recordTimeToResults(List<Book> books) {
+        if (mCreateNanos != 0 && books != null && !books.isEmpty()) {
+            sTimeToResults.recordSince(mCreateNanos);
+            mCreateNanos = 0;
+        }
+    }
+
+    /**
+     * Show the empty state view when there are no books and nothing is loading.
+     */
+    private void updateEmptyView() {
+        boolean loading = findViewById(R.id.loading_indicator).getVisibility() == View.VISIBLE;
+        mEmptyStateTextView.setVisibility(
+                mAdapter.getItemCount() == 0 && !loading ? View.VISIBLE : View.GONE);
     }
 
 }
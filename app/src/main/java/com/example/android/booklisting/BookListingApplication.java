@@ -0,0 +1,80 @@
+package com.example.android.booklisting;
+
+import android.app.Application;
+import android.net.http.HttpResponseCache;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Application class, used to set up process-wide state before any activity is created,
+ * so it is also in place when the process is restored directly into a child activity.
+ */
+public class BookListingApplication extends Application {
+
+    /**
+     * Tag for log messages
+     */
+    private static final String LOG_TAG = BookListingApplication.class.getSimpleName();
+
+    /**
+     * Name of the directory, inside the cache dir, for the HTTP response cache
+     */
+    private static final String HTTP_CACHE_DIR = "http";
+
+    /**
+     * Maximum size of the HTTP response cache. Least recently used entries are
+     * evicted when it is exceeded.
+     */
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024; // 10 MiB
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        installHttpCache();
+        // Created here, so the results parsed by any screen feed the suggestions.
+        // The history itself is only read from disk when first needed.
+        QueryHistory.getInstance(this);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        // Parsed results and decoded covers can be loaded again, release them
+        BookCache.getInstance().evictAll();
+        BookRepository.getInstance(this).evictAll();
+        ImageLoader.getInstance(this).evictMemory();
+    }
+
+    /**
+     * Install a disk-backed response cache for HttpURLConnection.
+     * <p>
+     * The cache honors Cache-Control and Expires, sends If-None-Match and
+     * If-Modified-Since when an entry has to be revalidated, and serves the
+     * cached body when the server answers 304 Not Modified.
+     */
+    private void installHttpCache() {
+        if (HttpResponseCache.getInstalled() != null) {
+            return;
+        }
+        try {
+            File httpCacheDir = new File(getCacheDir(), HTTP_CACHE_DIR);
+            HttpResponseCache.install(httpCacheDir, HTTP_CACHE_SIZE);
+        } catch (IOException e) {
+            // Not fatal, requests just won't be cached
+            Log.e(LOG_TAG, "HTTP response cache installation failed", e);
+        }
+    }
+
+    /**
+     * Write pending HTTP cache changes to disk. To be called when the app goes
+     * to the background, as the process may be killed afterwards.
+     */
+    static void flushHttpCache() {
+        HttpResponseCache cache = HttpResponseCache.getInstalled();
+        if (cache != null) {
+            cache.flush();
+        }
+    }
+}
@@ -1,49 +1,335 @@
 package com.example.android.booklisting;
 
-import android.content.AsyncTaskLoader;
 import android.content.Context;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Loads a list of books by using an AsyncTask to perform the
- * network request to the given URL.
+ * Loads a list of books by performing the network request to the given URL in the
+ * {@link RequestScheduler}: the first page, and its revalidation, in the interactive lane,
+ * and the following pages, requested ahead of the scroll position, in the prefetch lane.
+ * <p>
+ * Results are loaded one page at a time: the first page when the loader starts, and
+ * the following ones when {@link #loadNextPage()} is called. Each delivered list contains
+ * all the books loaded so far, the new page appended to the previous ones.
+ * <p>
+ * Pages are shared through the process-wide {@link BookCache}, so a page that has already
+ * been loaded is delivered right away, without a new request. Downloaded pages are also
+ * saved to the offline {@link BookCatalog}.
+ * <p>
+ * Stale while revalidate: when the first page isn't cached but its cache entry has expired,
+ * the expired page is delivered right away, with {@link #isStale()} true. The first page is
+ * then requested, and delivered only if it differs from the stale one, compared with
+ * {@link BookDiff#isSame(List, List)}. The {@link SnapshotStore} snapshot of the query is
+ * not read here, {@link CatalogLoader} shows it until the first page is delivered.
  */
-public class BookLoader extends AsyncTaskLoader<List<Book>> {
+public class BookLoader extends ScheduledLoader<BookLoader.Page, List<Book>> {
 
     /** Tag for log messages */
     private static final String LOG_TAG = BookLoader.class.getName();
 
-    /** Query URL */
+    /** Page size when the page request failed */
+    private static final int FAILED_PAGE = -1;
+
+    // Kinds of page loaded
+    /** The next page, appended to the previous ones */
+    private static final int RESULT_PAGE = 0;
+    /** Stale first page, held on the device, to be revalidated */
+    private static final int RESULT_STALE = 1;
+    /** First page from the network, replacing the stale one */
+    private static final int RESULT_REVALIDATED = 2;
+
+    /** Time to load a page, from the cache or the network, see {@link Metrics} */
+    private static final Metrics.Histogram sPageTime = Metrics.timer("loader.page");
+
+    /** Time to save a downloaded page to the offline catalog */
+    private static final Metrics.Histogram sCatalogSaveTime = Metrics.timer("catalog.save");
+
+    /** Query URL, without paging parameters */
     private String mUrl;
 
+    /** Number of books requested per page */
+    private int mPageSize;
+
+    /** All the books loaded so far, null until the first page is loaded */
+    private List<Book> mBooks;
+
+    /** startIndex of the next page to load */
+    private int mNextStartIndex;
+
+    /** Whether a page is being loaded */
+    private boolean mLoading;
+
+    /** Whether the last page has been loaded, or a page failed */
+    private boolean mExhausted;
+
+    /** Whether the delivered books are stale, held on the device and not confirmed yet */
+    private boolean mStale;
+
+    /** Whether the next background load revalidates the stale first page */
+    private volatile boolean mRevalidate;
+
     /**
      * Constructs a new {@link BookLoader}.
      *
-     * @param context of the activity
-     * @param url to load data from
+     * @param context  of the activity
+     * @param url      to load data from, without startIndex and maxResults parameters
+     * @param pageSize number of books per page, up to {@link QueryUtils#MAX_PAGE_SIZE}
      */
-    public BookLoader(Context context, String url) {
+    public BookLoader(Context context, String url, int pageSize) {
         super(context);
         mUrl = url;
+        mPageSize = Math.max(1, Math.min(pageSize, QueryUtils.MAX_PAGE_SIZE));
     }
 
     @Override
     protected void onStartLoading() {
+        // Already loaded by this loader
+        if (mBooks != null) {
+            deliverResult(mBooks);
+            // Stopped while revalidating
+            if (mRevalidate && !mLoading) {
+                mLoading = true;
+                forceLoad();
+            }
+            return;
+        }
+
+        // First page loaded before by any other loader in this process. An expired one
+        // is shown while it is revalidated.
+        String firstPageUrl = pageUrl(0);
+        List<Book> staleBooks = BookCache.getInstance().getStale(firstPageUrl);
+        List<Book> cachedBooks = BookCache.getInstance().get(firstPageUrl);
+        if (cachedBooks != null) {
+            onLoaded(new Page(RESULT_PAGE, cachedBooks.size(), cachedBooks));
+            return;
+        }
+        if (staleBooks != null) {
+            onLoaded(new Page(RESULT_STALE, staleBooks.size(), staleBooks));
+            return;
+        }
+
+        // Load the first page
+        mLoading = true;
+        forceLoad();
+    }
+
+    /**
+     * Start loading the next page in the background, unless a page is already being loaded
+     * or there are no more pages. The result will be delivered as usual.
+     */
+    public void loadNextPage() {
+        if (mLoading || mExhausted || mBooks == null || mUrl == null) {
+            return;
+        }
+        mLoading = true;
         forceLoad();
     }
 
+    /**
+     * Whether there may be more pages to load.
+     */
+    public boolean hasMorePages() {
+        return !mExhausted;
+    }
+
+    /**
+     * Whether the delivered books are results held on the device, which are being
+     * revalidated or couldn't be.
+     */
+    public boolean isStale() {
+        return mStale;
+    }
+
+    @Override
+    protected int getLane() {
+        return mBooks == null || mRevalidate
+                ? RequestScheduler.LANE_INTERACTIVE : RequestScheduler.LANE_PREFETCH;
+    }
+
     /**
      * This is on a background thread.
      */
     @Override
-    public List<Book> loadInBackground() {
+    public Page loadInBackground() {
         if (mUrl == null) {
             return null;
         }
+        if (mRevalidate) {
+            return revalidate();
+        }
+
+        long start = System.nanoTime();
+        List<Book> previousBooks = mBooks;
+        String pageUrl = pageUrl(mNextStartIndex);
 
         // Perform the network request, parse the response, and extract a list of books.
-        List<Book> books = QueryUtils.fetchBookData(mUrl);
-        return books;
+        List<Book> page = BookCache.getInstance().get(pageUrl);
+        if (page == null) {
+            page = QueryUtils.fetchBookData(pageUrl);
+
+            // Keep them for the next loader asking for the same page
+            BookCache.getInstance().put(pageUrl, page);
+
+            // And in the offline catalog, one transaction per page
+            long saveStart = System.nanoTime();
+            BookCatalog.getInstance(getContext()).saveBooks(page);
+            sCatalogSaveTime.recordSince(saveStart);
+        }
+        sPageTime.recordSince(start);
+
+        if (page == null) {
+            return new Page(RESULT_PAGE, FAILED_PAGE, previousBooks);
+        }
+        if (previousBooks == null) {
+            return new Page(RESULT_PAGE, page.size(), page);
+        }
+        List<Book> books = new ArrayList<Book>(previousBooks.size() + page.size());
+        books.addAll(previousBooks);
+        books.addAll(page);
+        return new Page(RESULT_PAGE, page.size(), books);
+    }
+
+    /**
+     * Request the first page again, to replace the stale one. This is on a background thread.
+     *
+     * @return the stale books if the first page is the same or the request failed,
+     * otherwise the new first page
+     */
+    private Page revalidate() {
+        List<Book> staleBooks = mBooks;
+        String pageUrl = pageUrl(0);
+        List<Book> page = QueryUtils.fetchBookData(pageUrl);
+        if (page == null) {
+            return new Page(RESULT_REVALIDATED, FAILED_PAGE, staleBooks);
+        }
+        BookCache.getInstance().put(pageUrl, page);
+        BookCatalog.getInstance(getContext()).saveBooks(page);
+
+        return new Page(RESULT_REVALIDATED, page.size(),
+                BookDiff.isSame(staleBooks, page) ? staleBooks : page);
+    }
+
+    /**
+     * Account for the page just loaded, then deliver the books. A failed load, null, keeps
+     * the books already delivered.
+     */
+    @Override
+    protected void onLoaded(Page page) {
+        mLoading = false;
+        if (page == null) {
+            // Don't keep retrying while the user scrolls
+            mExhausted = true;
+            mRevalidate = false;
+            deliverResult(mBooks);
+            return;
+        }
+        if (page.kind == RESULT_REVALIDATED) {
+            onRevalidated(page);
+            return;
+        }
+
+        if (page.size == FAILED_PAGE) {
+            // Don't keep retrying while the user scrolls
+            mExhausted = true;
+        } else {
+            mNextStartIndex += page.size;
+            // A short page means there are no more results
+            if (page.size < mPageSize) {
+                mExhausted = true;
+            }
+        }
+        if (page.kind == RESULT_STALE) {
+            mStale = true;
+            mRevalidate = true;
+        }
+        deliverResult(page.books);
+
+        // Show the stale books first, then check them
+        if (page.kind == RESULT_STALE && isStarted()) {
+            mLoading = true;
+            forceLoad();
+        }
+    }
+
+    /**
+     * Deliver the result of a revalidation, only if the first page changed.
+     */
+    private void onRevalidated(Page page) {
+        mRevalidate = false;
+        if (page.size == FAILED_PAGE) {
+            // Keep showing the stale books, and paging from them
+            return;
+        }
+        mStale = false;
+        if (page.books == mBooks) {
+            // Confirmed, nothing to deliver
+            return;
+        }
+
+        // The new first page replaces whatever was shown
+        mNextStartIndex = page.size;
+        mExhausted = page.size < mPageSize;
+        deliverResult(page.books);
+    }
+
+    @Override
+    public void deliverResult(List<Book> books) {
+        mBooks = books;
+        if (isStarted()) {
+            super.deliverResult(books);
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Page page) {
+        super.onCanceled(page);
+        mLoading = false;
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mBooks = null;
+        mNextStartIndex = 0;
+        mLoading = false;
+        mExhausted = false;
+        mStale = false;
+        mRevalidate = false;
+    }
+
+    /**
+     * URL of the page starting at the given index
+     */
+    private String pageUrl(int startIndex) {
+        return QueryUtils.buildPageUrl(mUrl, startIndex, mPageSize);
+    }
+
+    /**
+     * What a load gives: the books to deliver, with the kind and size of the page loaded.
+     */
+    static final class Page {
+
+        /** RESULT_PAGE, RESULT_STALE or RESULT_REVALIDATED */
+        final int kind;
+
+        /** Number of books in the page, or FAILED_PAGE */
+        final int size;
+
+        /** All the books loaded so far, the page included */
+        final List<Book> books;
+
+        Page(int kind, int size, List<Book> books) {
+            this.kind = kind;
+            this.size = size;
+            this.books = books;
+        }
     }
 }
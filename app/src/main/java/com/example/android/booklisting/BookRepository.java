@@ -0,0 +1,110 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-process repository of books, keyed by Google Books volume ID.
+ * <p>
+ * A book is added when the user opens it, so {@link DetailsActivity} only needs the ID to
+ * show it right away from memory. The fields that search results lack, such as the
+ * description, are loaded on demand from the volume resource, and kept with the book.
+ * If the process has been restarted, the book is read back from the {@link BookCatalog}.
+ */
+public final class BookRepository {
+
+    /** Maximum number of books kept in memory, the least recently used are evicted */
+    private static final int MAX_BOOKS = 200;
+
+    private static BookRepository sInstance;
+
+    private final Context mContext;
+
+    /** Books by volume ID, in access order */
+    private final Map<String, Book> mBooks;
+
+    private BookRepository(Context context) {
+        mContext = context;
+        mBooks = new LinkedHashMap<String, Book>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Book> eldest) {
+                return size() > MAX_BOOKS;
+            }
+        };
+    }
+
+    /**
+     * Returns the repository shared by the whole process.
+     */
+    public static synchronized BookRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the book in memory, which may lack the details.
+     *
+     * @param volumeId the Google Books volume ID
+     * @return the book, or null if it is not in memory
+     */
+    public synchronized Book get(String volumeId) {
+        if (volumeId == null) {
+            return null;
+        }
+        return mBooks.get(volumeId);
+    }
+
+    /**
+     * Add a book, replacing the version in memory. The details already loaded are kept
+     * if the new version lacks them.
+     */
+    public synchronized void put(Book book) {
+        if (book == null || book.getId() == null) {
+            return;
+        }
+        Book previous = mBooks.get(book.getId());
+        if (previous != null && previous.hasDetails() && !book.hasDetails()) {
+            book = book.withDescription(previous.getDescription());
+        }
+        mBooks.put(book.getId(), book);
+    }
+
+    /**
+     * Returns the book with its details, loading them if needed. This does disk and
+     * network I/O and must be called from a background thread.
+     *
+     * @param volumeId the Google Books volume ID
+     * @return the book with details, the book without them if they couldn't be loaded,
+     * or null if the book is not known and couldn't be loaded
+     */
+    public Book getDetails(String volumeId) {
+        Book book = get(volumeId);
+        if (book != null && book.hasDetails()) {
+            return book;
+        }
+
+        Book volume = QueryUtils.fetchVolume(volumeId);
+        if (volume != null) {
+            put(volume);
+            return volume;
+        }
+
+        // No connection, fall back to what we have
+        if (book == null) {
+            book = BookCatalog.getInstance(mContext).getBook(volumeId);
+            put(book);
+        }
+        return book;
+    }
+
+    /**
+     * Remove all the books from memory.
+     */
+    public synchronized void evictAll() {
+        mBooks.clear();
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.android.booklisting;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, versioned binary format for a list of books, used to restore the last results
+ * of a query on a cold start without going to the network.
+ * <p>
+ * Layout: magic, version, key (the query URL), book count, then each book. Integers are
+ * unsigned varints (7 bits per byte, low bits first) and Strings are UTF-8, prefixed with
+ * their byte length plus one, zero meaning null. Low-cardinality Strings (identifier types,
+ * language and publisher) are written once per snapshot and then referenced by index.
+ * <p>
+ * Any change to the layout must increase {@link #VERSION}. Snapshots of other versions
+ * are not read.
+ */
+final class BookSnapshot {
+
+    /** "BKSN" */
+    static final int MAGIC = 0x424b534e;
+
+    /** Version of the layout */
+    static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Tags of pooled Strings, followed by the index or by the inline String
+    private static final int POOLED_NULL = 0;
+    private static final int POOLED_REFERENCE = 1;
+    private static final int POOLED_INLINE = 2;
+
+    private BookSnapshot() {
+    }
+
+    /**
+     * Write the books to the given stream. The stream is not closed.
+     *
+     * @param key   what the books are for, checked when reading
+     * @param books the books, null elements are skipped
+     */
+    static void write(OutputStream out, String key, List<Book> books) throws IOException {
+        writeInt(out, MAGIC);
+        writeVarint(out, VERSION);
+        writeString(out, key);
+
+        int count = 0;
+        for (Book book : books) {
+            if (book != null) {
+                count++;
+            }
+        }
+        writeVarint(out, count);
+
+        Map<String, Integer> pool = new HashMap<String, Integer>();
+        for (Book book : books) {
+            if (book == null) {
+                continue;
+            }
+            writeString(out, book.getId());
+            writeString(out, book.getTitle());
+            writeVarint(out, book.getAuthorCount());
+            for (int i = 0; i < book.getAuthorCount(); i++) {
+                writeString(out, book.getAuthor(i));
+            }
+            writePooled(out, book.getPublisher(), pool);
+            writeString(out, book.getPublishedDate());
+            writeVarint(out, book.getIdentifierCount());
+            for (int i = 0; i < book.getIdentifierCount(); i++) {
+                writePooled(out, book.getIdentifierType(i), pool);
+                writeString(out, book.getIdentifier(i));
+            }
+            writeVarint(out, Math.max(0, book.getPageCount()));
+            writeString(out, book.getSmallThumbnail());
+            writeString(out, book.getThumbnail());
+            writePooled(out, book.getLanguage(), pool);
+            writeString(out, book.getInfoLink());
+            writeString(out, book.getDescription());
+        }
+    }
+
+    /**
+     * Read books from the given stream. The stream is not closed.
+     * <p>
+     * Counts and lengths are checked against the size of the snapshot, so a corrupt one
+     * fails with an IOException instead of allocating whatever it says.
+     *
+     * @param length size of the snapshot, in bytes
+     * @param key    what the books must be for
+     * @return the books, or null if the snapshot is for another key
+     * @throws IOException if the stream can't be read, is not a snapshot,
+     *                     or is of another version
+     */
+    static List<Book> read(InputStream in, long length, String key) throws IOException {
+        BoundedInputStream bounded = new BoundedInputStream(in, length);
+        DataInputStream input = new DataInputStream(bounded);
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a book snapshot");
+        }
+        int version = readVarint(input);
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        String snapshotKey = readString(input, bounded);
+        if (snapshotKey == null || !snapshotKey.equals(key)) {
+            return null;
+        }
+
+        int count = readCount(input, bounded);
+        List<Book> books = new ArrayList<Book>(count);
+        List<String> pool = new ArrayList<String>();
+        for (int n = 0; n < count; n++) {
+            String id = readString(input, bounded);
+            String title = readString(input, bounded);
+            String[] authors = new String[readCount(input, bounded)];
+            for (int i = 0; i < authors.length; i++) {
+                authors[i] = readString(input, bounded);
+            }
+            String publisher = readPooled(input, bounded, pool);
+            String publishedDate = readString(input, bounded);
+            int identifierCount = readCount(input, bounded);
+            String[] identifierTypes = new String[identifierCount];
+            String[] identifiers = new String[identifierCount];
+            for (int i = 0; i < identifierCount; i++) {
+                identifierTypes[i] = readPooled(input, bounded, pool);
+                identifiers[i] = readString(input, bounded);
+            }
+            int pageCount = readVarint(input);
+            String smallThumbnail = readString(input, bounded);
+            String thumbnail = readString(input, bounded);
+            String language = readPooled(input, bounded, pool);
+            String infoLink = readString(input, bounded);
+            String description = readString(input, bounded);
+
+            books.add(new Book(id, title, authors, publisher, publishedDate, identifierTypes,
+                    identifiers, pageCount, smallThumbnail, thumbnail, language, infoLink,
+                    description));
+        }
+        return books;
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a count of items, each taking at least one byte.
+     *
+     * @throws IOException if the rest of the snapshot can't hold them
+     */
+    private static int readCount(DataInputStream in, BoundedInputStream bounded)
+            throws IOException {
+        int count = readVarint(in);
+        if (count < 0 || count > bounded.getRemaining()) {
+            throw new IOException("Malformed snapshot, count " + count);
+        }
+        return count;
+    }
+
+    private static String readString(DataInputStream in, BoundedInputStream bounded)
+            throws IOException {
+        int length = readVarint(in);
+        if (length == 0) {
+            return null;
+        }
+        if (length < 0 || length - 1 > bounded.getRemaining()) {
+            throw new IOException("Malformed snapshot, string length " + length);
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writePooled(OutputStream out, String value, Map<String, Integer> pool)
+            throws IOException {
+        if (value == null) {
+            writeVarint(out, POOLED_NULL);
+            return;
+        }
+        Integer index = pool.get(value);
+        if (index != null) {
+            writeVarint(out, POOLED_REFERENCE);
+            writeVarint(out, index);
+        } else {
+            writeVarint(out, POOLED_INLINE);
+            writeString(out, value);
+            pool.put(value, pool.size());
+        }
+    }
+
+    private static String readPooled(DataInputStream in, BoundedInputStream bounded,
+                                     List<String> pool) throws IOException {
+        int tag = readVarint(in);
+        if (tag == POOLED_NULL) {
+            return null;
+        }
+        if (tag == POOLED_REFERENCE) {
+            int index = readVarint(in);
+            if (index < 0 || index >= pool.size()) {
+                throw new IOException("Malformed snapshot");
+            }
+            return pool.get(index);
+        }
+        if (tag != POOLED_INLINE) {
+            throw new IOException("Malformed snapshot");
+        }
+        String value = readString(in, bounded);
+        pool.add(value);
+        return value;
+    }
+
+    /**
+     * Counts the bytes read, to tell how many are left of a snapshot of known size.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private long mRemaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            mRemaining = length;
+        }
+
+        long getRemaining() {
+            return mRemaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mRemaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n > 0) {
+                mRemaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mRemaining -= skipped;
+            return skipped;
+        }
+    }
+}
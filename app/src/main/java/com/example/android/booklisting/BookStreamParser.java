@@ -0,0 +1,331 @@
+package com.example.android.booklisting;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming (pull) parser for Google Books volume list responses.
+ * <p>
+ * Reads tokens straight from the response {@link InputStream} and builds
+ * {@link Book}, {@link IndustryIdentifier} and {@link ImageLink} objects as it goes,
+ * so the response is never held as a whole String or as a JSONObject tree.
+ * Subtrees the app doesn't use (saleInfo, accessInfo, searchInfo...) are skipped
+ * without being materialized.
+ * <p>
+ * The results are the same as the ones from BookJsonParser, the JSONObject parser it
+ * replaced, now in the benchmark module, which checks it: a book that lacks a required
+ * field (id, title, pageCount, language, infoLink or an identifier code) is returned as
+ * null, and optional fields default to an empty String.
+ */
+public final class BookStreamParser {
+
+    // Constants for JSON objects
+    private static final String JSON_ITEMS = "items";
+    private static final String JSON_ID = "id";
+    private static final String JSON_TYPE = "type";
+    private static final String JSON_VOLUME_INFO = "volumeInfo";
+    private static final String JSON_TITLE = "title";
+    private static final String JSON_IDENTIFIER = "identifier";
+    private static final String JSON_INDUSTRY_IDENTIFIERS = "industryIdentifiers";
+    private static final String JSON_AUTHORS = "authors";
+    private static final String JSON_PUBLISHER = "publisher";
+    private static final String JSON_PUBLISHED_DATE = "publishedDate";
+    private static final String JSON_PAGE_COUNT = "pageCount";
+    private static final String JSON_IMAGE_LINKS = "imageLinks";
+    private static final String JSON_LANGUAGE = "language";
+    private static final String JSON_INFO_LINK = "infoLink";
+    private static final String JSON_SMALL_THUMBNAIL = "smallThumbnail";
+    private static final String JSON_THUMBNAIL = "thumbnail";
+    private static final String JSON_DESCRIPTION = "description";
+
+    private static final String PROBLEM_PARSING_JSON = "Problem parsing the book JSON results.";
+
+    /**
+     * Tag for log messages
+     */
+    private static final String LOG_TAG = BookStreamParser.class.getSimpleName();
+
+    private BookStreamParser() {
+    }
+
+    /**
+     * Parse a volume list response from the given stream.
+     * The stream is not closed, the caller owns it.
+     *
+     * @param inputStream the response body
+     * @return the list of books, empty if the response has no items
+     * @throws IOException if the stream can't be read or is not valid JSON
+     */
+    public static List<Book> readBooks(InputStream inputStream) throws IOException {
+        List<Book> books = new ArrayList<Book>();
+
+        JsonReader reader = new JsonReader(
+                new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (JSON_ITEMS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    books.add(readBook(reader, false));
+                }
+                reader.endArray();
+            } else {
+                // kind, totalItems...
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return books;
+    }
+
+    /**
+     * Parse a single volume resource, volumes/{id}, from the given stream, including
+     * the details that are not kept from search results, such as the description.
+     * The stream is not closed, the caller owns it.
+     *
+     * @param inputStream the response body
+     * @return the book, with details, or null if a required field is missing
+     * @throws IOException if the stream can't be read or is not valid JSON
+     */
+    public static Book readVolume(InputStream inputStream) throws IOException {
+        JsonReader reader = new JsonReader(
+                new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        return readBook(reader, true);
+    }
+
+    /**
+     * Read a single volume. Always consumes the whole object, so a malformed book
+     * doesn't prevent the following ones from being read.
+     *
+     * @param withDetails whether to read the description, which search results don't keep
+     * @return the book, or null if a required field is missing
+     */
+    private static Book readBook(JsonReader reader, boolean withDetails) throws IOException {
+        String id = null;
+        VolumeInfo volumeInfo = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (JSON_ID.equals(name)) {
+                id = readString(reader);
+            } else if (JSON_VOLUME_INFO.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                volumeInfo = readVolumeInfo(reader, withDetails);
+            } else {
+                // kind, etag, selfLink, saleInfo, accessInfo, searchInfo...
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (id == null || volumeInfo == null || !volumeInfo.isComplete()) {
+            Log.e(LOG_TAG, PROBLEM_PARSING_JSON);
+            return null;
+        }
+
+        // Create a new {@link Book} object with the parsed data from the JSON response.
+        return new Book(id, volumeInfo.title, volumeInfo.authors, volumeInfo.publisher,
+                volumeInfo.publishedDate, volumeInfo.industryIdentifiers, volumeInfo.pageCount,
+                volumeInfo.imageLinks, volumeInfo.language, volumeInfo.infoLink,
+                withDetails ? volumeInfo.description : null);
+    }
+
+    /**
+     * Read the volumeInfo object.
+     */
+    private static VolumeInfo readVolumeInfo(JsonReader reader, boolean withDetails)
+            throws IOException {
+        VolumeInfo info = new VolumeInfo();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (JSON_TITLE.equals(name)) {
+                info.title = readString(reader);
+            } else if (JSON_AUTHORS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String author = readString(reader);
+                    if (author != null) {
+                        info.authors.add(author);
+                    }
+                }
+                reader.endArray();
+            } else if (JSON_PUBLISHER.equals(name)) {
+                info.publisher = optString(reader);
+            } else if (JSON_PUBLISHED_DATE.equals(name)) {
+                info.publishedDate = optString(reader);
+            } else if (JSON_INDUSTRY_IDENTIFIERS.equals(name)
+                    && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                info.validIdentifiers = readIndustryIdentifiers(reader, info.industryIdentifiers);
+            } else if (JSON_PAGE_COUNT.equals(name)) {
+                info.pageCount = readInt(reader);
+            } else if (JSON_IMAGE_LINKS.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readImageLinks(reader, info.imageLinks);
+            } else if (JSON_LANGUAGE.equals(name)) {
+                info.language = readString(reader);
+            } else if (JSON_INFO_LINK.equals(name)) {
+                info.infoLink = readString(reader);
+            } else if (withDetails && JSON_DESCRIPTION.equals(name)) {
+                info.description = optString(reader);
+            } else {
+                // subtitle, categories, previewLink..., and description unless withDetails
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return info;
+    }
+
+    /**
+     * Read the industryIdentifiers array into the given list.
+     *
+     * @return false if an identifier has no code, which invalidates the whole book
+     */
+    private static boolean readIndustryIdentifiers(JsonReader reader,
+                                                   ArrayList<IndustryIdentifier> industryIdentifiers)
+            throws IOException {
+        boolean valid = true;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                valid = false;
+                continue;
+            }
+            String type = "";
+            String identifier = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (JSON_TYPE.equals(name)) {
+                    type = optString(reader);
+                } else if (JSON_IDENTIFIER.equals(name)) {
+                    identifier = readString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (identifier == null) {
+                valid = false;
+            } else {
+                industryIdentifiers.add(new IndustryIdentifier(type, identifier));
+            }
+        }
+        reader.endArray();
+
+        return valid;
+    }
+
+    /**
+     * Read the imageLinks object into the given list. As in the JSONObject parser,
+     * both thumbnails are always added, small one first, with an empty URL if missing.
+     */
+    private static void readImageLinks(JsonReader reader, ArrayList<ImageLink> imageLinks)
+            throws IOException {
+        String smallThumbnail = "";
+        String thumbnail = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (JSON_SMALL_THUMBNAIL.equals(name)) {
+                smallThumbnail = optString(reader);
+            } else if (JSON_THUMBNAIL.equals(name)) {
+                thumbnail = optString(reader);
+            } else {
+                // small, medium, large, extraLarge
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        imageLinks.add(new ImageLink(JSON_SMALL_THUMBNAIL, smallThumbnail));
+        imageLinks.add(new ImageLink(JSON_THUMBNAIL, thumbnail));
+    }
+
+    /**
+     * Read a scalar value as a String.
+     *
+     * @return the value, or null if it is JSON null or not a scalar
+     */
+    private static String readString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    /**
+     * Read an optional scalar value as a String, defaulting to an empty String.
+     */
+    private static String optString(JsonReader reader) throws IOException {
+        String value = readString(reader);
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Read an int value, which may also come quoted, as JSONObject.getInt() does.
+     *
+     * @return the value, or null if it is missing or not a number
+     */
+    private static Integer readInt(JsonReader reader) throws IOException {
+        // Read it as a String, JsonReader.nextInt() doesn't consume invalid numbers
+        String value = readString(reader);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            try {
+                return (int) Double.parseDouble(value);
+            } catch (NumberFormatException e2) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Fields of a volumeInfo object, collected until the enclosing item is complete,
+     * as the id may come before or after it.
+     */
+    private static final class VolumeInfo {
+        String title;
+        ArrayList<String> authors = new ArrayList<String>();
+        String publisher = "";
+        String publishedDate = "";
+        ArrayList<IndustryIdentifier> industryIdentifiers = new ArrayList<IndustryIdentifier>();
+        boolean validIdentifiers = true;
+        Integer pageCount;
+        ArrayList<ImageLink> imageLinks = new ArrayList<ImageLink>();
+        String language;
+        String infoLink;
+        String description = "";
+
+        boolean isComplete() {
+            return title != null && validIdentifiers && pageCount != null
+                    && language != null && infoLink != null;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.android.booklisting;
+
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP client for the Books API.
+ * <p>
+ * Connections are kept alive and reused: a response is released by reading its body to the
+ * end and closing it, instead of disconnecting, so HttpURLConnection returns the socket to its
+ * pool and the next request to the same host skips the TCP and TLS handshakes.
+ * <p>
+ * Responses are requested gzip-compressed and decompressed as a stream while they are read,
+ * counting both the bytes received and the decoded bytes.
+ * <p>
+ * Each response also has the time spent connecting, waiting for the response headers and
+ * reading the body, so a slow request can be told apart from a slow parse.
+ * <p>
+ * Requests are carried by an {@link HttpTransport}. By default, HttpURLConnection wrapped
+ * in a {@link ResilientTransport}, which retries failed requests and stops sending them to
+ * a host that is down; hedging slow requests is left off, as it costs extra threads and
+ * requests. Another one can be set, for instance a
+ * {@link ShapingTransport} to simulate a slow network.
+ */
+public final class BooksHttpClient {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = BooksHttpClient.class.getName();
+
+    /** Maximum number of idle connections kept per host */
+    private static final String MAX_CONNECTIONS = "5";
+
+    private static final String ENCODING_GZIP = "gzip";
+
+    /** Size of the buffer used to drain unread response bodies */
+    private static final int DRAIN_BUFFER_SIZE = 4096;
+
+    private static BooksHttpClient sInstance;
+
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mDecodedBytes = new AtomicLong();
+
+    private volatile HttpTransport mTransport = createDefaultTransport();
+
+    private BooksHttpClient() {
+        // These are HttpURLConnection defaults, set them anyway as the pooling depends on them
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", MAX_CONNECTIONS);
+    }
+
+    /**
+     * Returns the client shared by the whole process.
+     */
+    public static synchronized BooksHttpClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new BooksHttpClient();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Set the transport for the following requests, or null to go back to the default one.
+     */
+    void setTransport(HttpTransport transport) {
+        mTransport = transport == null ? createDefaultTransport() : transport;
+    }
+
+    private static HttpTransport createDefaultTransport() {
+        ResilientTransport transport =
+                new ResilientTransport(new UrlConnectionTransport(), RetryPolicy.getDefault());
+        transport.setRetryListener(new ResilientTransport.RetryListener() {
+            @Override
+            public void onRetry(URL url, int responseCode, IOException failure,
+                                long delayMillis) {
+                if (failure != null) {
+                    Log.w(LOG_TAG, "Request failed, retrying in " + delayMillis + " ms",
+                            failure);
+                } else {
+                    Log.w(LOG_TAG, "Response code " + responseCode + ", retrying in "
+                            + delayMillis + " ms");
+                }
+            }
+        });
+        return transport;
+    }
+
+    /**
+     * Perform a GET request. The returned response must be closed.
+     *
+     * @param url the URL to request
+     * @return the response, with its body ready to be read
+     * @throws IOException if the request can't be performed
+     */
+    public Response get(URL url) throws IOException {
+        HttpTransport.Exchange exchange = mTransport.execute(url);
+        return new Response(exchange.responseCode, exchange.contentEncoding, exchange.body,
+                exchange.connectNanos, exchange.firstByteNanos);
+    }
+
+    /**
+     * Total bytes received by all the responses, as sent on the wire (compressed).
+     */
+    public long getWireBytes() {
+        return mWireBytes.get();
+    }
+
+    /**
+     * Total bytes of all the response bodies, once decompressed.
+     */
+    public long getDecodedBytes() {
+        return mDecodedBytes.get();
+    }
+
+    /**
+     * A response to a request. Closing it releases the connection for reuse.
+     */
+    public final class Response {
+
+        private final int mResponseCode;
+        private final long mConnectNanos;
+        private final long mFirstByteNanos;
+        private final CountingInputStream mWireStream;
+        private final CountingInputStream mBody;
+        private boolean mClosed;
+
+        private Response(int responseCode, String contentEncoding, InputStream rawStream,
+                         long connectNanos, long firstByteNanos) throws IOException {
+            mResponseCode = responseCode;
+            mConnectNanos = connectNanos;
+            mFirstByteNanos = firstByteNanos;
+            mWireStream = rawStream == null ? null : new CountingInputStream(rawStream);
+            if (mWireStream == null) {
+                mBody = null;
+            } else if (ENCODING_GZIP.equalsIgnoreCase(contentEncoding)) {
+                mBody = new CountingInputStream(new GZIPInputStream(mWireStream));
+            } else {
+                mBody = mWireStream;
+            }
+        }
+
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        /**
+         * Time spent in connect(), as measured around it. HttpURLConnection doesn't tell
+         * whether a pooled connection was reused, this is then only the time it took to get
+         * it from the pool, usually well under a millisecond.
+         */
+        public long getConnectNanos() {
+            return mConnectNanos;
+        }
+
+        /**
+         * Time from the connection being open to the response headers being received.
+         */
+        public long getFirstByteNanos() {
+            return mFirstByteNanos;
+        }
+
+        /**
+         * Time spent so far reading the body, waiting for the network and decompressing.
+         */
+        public long getBodyReadNanos() {
+            return mBody == null ? 0 : mBody.getReadNanos();
+        }
+
+        /**
+         * The decoded response body, or null if there is none.
+         */
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        /**
+         * Bytes of this response received so far, as sent on the wire.
+         */
+        public long getWireBytes() {
+            return mWireStream == null ? 0 : mWireStream.getCount();
+        }
+
+        /**
+         * Bytes of this response body decoded so far.
+         */
+        public long getDecodedBytes() {
+            return mBody == null ? 0 : mBody.getCount();
+        }
+
+        /**
+         * Read whatever is left of the body, so the connection can be reused, and close it.
+         */
+        public void close() throws IOException {
+            if (mClosed || mWireStream == null) {
+                return;
+            }
+            mClosed = true;
+            try {
+                byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                while (mWireStream.read(buffer) != -1) {
+                    // Discard, usually only trailing whitespace or the gzip trailer
+                }
+            } finally {
+                mBody.close();
+                mWireBytes.addAndGet(getWireBytes());
+                mDecodedBytes.addAndGet(getDecodedBytes());
+            }
+        }
+    }
+
+    /**
+     * An InputStream that counts the bytes read through it, and the time spent reading them.
+     */
+    static final class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+        private long mReadNanos;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getReadNanos() {
+            return mReadNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            int n = super.read(buffer, offset, length);
+            mReadNanos += System.nanoTime() - start;
+            if (n > 0) {
+                mCount += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.android.booklisting;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Locale;
+
+/**
+ * Builds the URL of a Google Books volume search.
+ * <p>
+ * The search terms and the intitle:, inauthor: and isbn: qualifiers make up the q parameter,
+ * and the filters and paging are their own parameters. All values are URL-encoded.
+ * <p>
+ * Unless told otherwise with {@link #fields(String)}, the query asks for a partial response
+ * with only the fields the parsers read, {@link #LIST_FIELDS}, which leaves out the sale,
+ * access and search info of every volume, and most of its volume info.
+ * <pre>
+ * String url = new BooksQuery("android").inAuthor("Smith").orderBy(BooksQuery.ORDER_NEWEST)
+ *         .toUrl();
+ * </pre>
+ */
+final class BooksQuery {
+
+    /** URL of the volume search */
+    static final String VOLUMES_URL = "https://www.googleapis.com/books/v1/volumes";
+
+    // Values of orderBy
+    static final String ORDER_RELEVANCE = "relevance";
+    static final String ORDER_NEWEST = "newest";
+
+    // Values of printType
+    static final String PRINT_TYPE_ALL = "all";
+    static final String PRINT_TYPE_BOOKS = "books";
+    static final String PRINT_TYPE_MAGAZINES = "magazines";
+
+    /** Fields of a volume, as read by {@link BookStreamParser} */
+    private static final String VOLUME_INFO_FIELDS = "title,authors,publisher,publishedDate,"
+            + "industryIdentifiers,pageCount,imageLinks(smallThumbnail,thumbnail),language,"
+            + "infoLink";
+
+    /** Partial response of a volume search, with the fields the parsers read */
+    static final String LIST_FIELDS = "items(id,volumeInfo(" + VOLUME_INFO_FIELDS + "))";
+
+    /** Partial response of a single volume, with its details */
+    static final String VOLUME_FIELDS = "id,volumeInfo(" + VOLUME_INFO_FIELDS + ",description)";
+
+    // Query parameters
+    private static final String PARAM_QUERY = "q";
+    private static final String PARAM_LANG_RESTRICT = "langRestrict";
+    private static final String PARAM_ORDER_BY = "orderBy";
+    private static final String PARAM_PRINT_TYPE = "printType";
+    private static final String PARAM_START_INDEX = "startIndex";
+    private static final String PARAM_MAX_RESULTS = "maxResults";
+    private static final String PARAM_FIELDS = "fields";
+
+    // Qualifiers of the q parameter
+    private static final String IN_TITLE = "intitle:";
+    private static final String IN_AUTHOR = "inauthor:";
+    private static final String ISBN = "isbn:";
+
+    private final String mTerms;
+    private String mEndpoint = VOLUMES_URL;
+    private String mInTitle;
+    private String mInAuthor;
+    private String mIsbn;
+    private String mLangRestrict;
+    private String mOrderBy;
+    private String mPrintType;
+    private int mStartIndex = -1;
+    private int mMaxResults = -1;
+    private String mFields = LIST_FIELDS;
+
+    /**
+     * @param terms the search terms, as typed by the user, may be null if there are qualifiers
+     */
+    BooksQuery(String terms) {
+        mTerms = terms == null ? null : terms.trim();
+    }
+
+    /**
+     * Search another endpoint than Google Books, for tests.
+     */
+    BooksQuery endpoint(String url) {
+        mEndpoint = url;
+        return this;
+    }
+
+    /**
+     * Only volumes with these words in the title.
+     */
+    BooksQuery inTitle(String title) {
+        mInTitle = trimToNull(title);
+        return this;
+    }
+
+    /**
+     * Only volumes with these words in the author names.
+     */
+    BooksQuery inAuthor(String author) {
+        mInAuthor = trimToNull(author);
+        return this;
+    }
+
+    /**
+     * Only the volume with this ISBN, hyphens and spaces are ignored.
+     */
+    BooksQuery isbn(String isbn) {
+        mIsbn = isbn == null ? null : trimToNull(isbn.replaceAll("[\\s-]", ""));
+        return this;
+    }
+
+    /**
+     * Only volumes in this language.
+     *
+     * @param language a two-letter ISO 639-1 code, such as "en"
+     */
+    BooksQuery langRestrict(String language) {
+        if (language != null && !language.matches("[a-zA-Z]{2}")) {
+            throw new IllegalArgumentException("Not an ISO 639-1 language code: " + language);
+        }
+        mLangRestrict = language == null ? null : language.toLowerCase(Locale.US);
+        return this;
+    }
+
+    /**
+     * @param orderBy {@link #ORDER_RELEVANCE}, the default, or {@link #ORDER_NEWEST}
+     */
+    BooksQuery orderBy(String orderBy) {
+        if (orderBy != null && !ORDER_RELEVANCE.equals(orderBy) && !ORDER_NEWEST.equals(orderBy)) {
+            throw new IllegalArgumentException("Unknown order: " + orderBy);
+        }
+        mOrderBy = orderBy;
+        return this;
+    }
+
+    /**
+     * @param printType {@link #PRINT_TYPE_ALL}, the default, {@link #PRINT_TYPE_BOOKS}
+     *                  or {@link #PRINT_TYPE_MAGAZINES}
+     */
+    BooksQuery printType(String printType) {
+        if (printType != null && !PRINT_TYPE_ALL.equals(printType)
+                && !PRINT_TYPE_BOOKS.equals(printType) && !PRINT_TYPE_MAGAZINES.equals(printType)) {
+            throw new IllegalArgumentException("Unknown print type: " + printType);
+        }
+        mPrintType = printType;
+        return this;
+    }
+
+    /**
+     * Position of the first result, starting at 0. Leave it unset for queries loaded by
+     * {@link BookLoader}, which adds the paging parameters itself.
+     */
+    BooksQuery startIndex(int startIndex) {
+        if (startIndex < 0) {
+            throw new IllegalArgumentException("Negative start index: " + startIndex);
+        }
+        mStartIndex = startIndex;
+        return this;
+    }
+
+    /**
+     * Number of results, up to {@link QueryUtils#MAX_PAGE_SIZE}. Leave it unset for queries
+     * loaded by {@link BookLoader}, which adds the paging parameters itself.
+     */
+    BooksQuery maxResults(int maxResults) {
+        if (maxResults < 1 || maxResults > QueryUtils.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("maxResults out of range: " + maxResults);
+        }
+        mMaxResults = maxResults;
+        return this;
+    }
+
+    /**
+     * Fields of the partial response, in the syntax of the fields parameter of the API,
+     * or null for the full volume resources.
+     */
+    BooksQuery fields(String fields) {
+        mFields = fields;
+        return this;
+    }
+
+    /**
+     * Returns the URL of the query.
+     *
+     * @throws IllegalStateException if there are neither search terms nor qualifiers
+     */
+    String toUrl() {
+        StringBuilder q = new StringBuilder();
+        if (mTerms != null && !mTerms.isEmpty()) {
+            q.append(mTerms);
+        }
+        appendQualifier(q, IN_TITLE, mInTitle);
+        appendQualifier(q, IN_AUTHOR, mInAuthor);
+        appendQualifier(q, ISBN, mIsbn);
+        if (q.length() == 0) {
+            throw new IllegalStateException("A query needs search terms or a qualifier");
+        }
+
+        StringBuilder url = new StringBuilder(mEndpoint);
+        url.append('?').append(PARAM_QUERY).append('=').append(encode(q.toString()));
+        appendParameter(url, PARAM_LANG_RESTRICT, mLangRestrict);
+        appendParameter(url, PARAM_ORDER_BY, mOrderBy);
+        appendParameter(url, PARAM_PRINT_TYPE, mPrintType);
+        if (mStartIndex >= 0) {
+            appendParameter(url, PARAM_START_INDEX, String.valueOf(mStartIndex));
+        }
+        if (mMaxResults > 0) {
+            appendParameter(url, PARAM_MAX_RESULTS, String.valueOf(mMaxResults));
+        }
+        appendParameter(url, PARAM_FIELDS, mFields);
+        return url.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toUrl();
+    }
+
+    /**
+     * Append a qualifier to the q parameter, quoting its value if it has several words.
+     */
+    private static void appendQualifier(StringBuilder q, String qualifier, String value) {
+        if (value == null) {
+            return;
+        }
+        if (q.length() > 0) {
+            q.append(' ');
+        }
+        q.append(qualifier);
+        if (value.indexOf(' ') >= 0) {
+            q.append('"').append(value.replace("\"", "")).append('"');
+        } else {
+            q.append(value);
+        }
+    }
+
+    private static void appendParameter(StringBuilder url, String name, String value) {
+        if (value != null) {
+            url.append('&').append(name).append('=').append(encode(value));
+        }
+    }
+
+    /**
+     * URL-encode a parameter value.
+     */
+    static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String trimToNull(String value) {
+        if (value == null) {
+            return null;
+        }
+        value = value.trim().replaceAll("\\s+", " ");
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * Loads a list of books stored on the device for the given query URL. Used when there is
+ * no connectivity, and to show something while the network request is in flight.
+ * <p>
+ * The last results of the same query are restored from their {@link SnapshotStore}
+ * snapshot if there is one, otherwise the offline {@link BookCatalog} is searched with the
+ * search terms of the query.
+ */
+public class CatalogLoader extends ScheduledLoader<List<Book>, List<Book>> {
+
+    /** Query URL */
+    private String mUrl;
+
+    /** Last delivered result */
+    private List<Book> mBooks;
+
+    /**
+     * Constructs a new {@link CatalogLoader}.
+     *
+     * @param context of the activity
+     * @param url     query URL, the search terms are taken from its q parameter
+     */
+    public CatalogLoader(Context context, String url) {
+        super(context);
+        mUrl = url;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mBooks != null) {
+            deliverResult(mBooks);
+        } else {
+            forceLoad();
+        }
+    }
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public List<Book> loadInBackground() {
+        // The same results as last time, in the same order
+        List<Book> snapshot = SnapshotStore.getInstance(getContext()).load(mUrl);
+        if (snapshot != null && !snapshot.isEmpty()) {
+            return snapshot;
+        }
+
+        String searchTerms = QueryUtils.getSearchTerms(mUrl);
+        if (searchTerms == null) {
+            return null;
+        }
+        return BookCatalog.getInstance(getContext())
+                .search(searchTerms, BookCatalog.DEFAULT_SEARCH_LIMIT);
+    }
+
+    @Override
+    protected void onLoaded(List<Book> books) {
+        deliverResult(books);
+    }
+
+    @Override
+    public void deliverResult(List<Book> books) {
+        mBooks = books;
+        if (isStarted()) {
+            super.deliverResult(books);
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mBooks = null;
+    }
+}
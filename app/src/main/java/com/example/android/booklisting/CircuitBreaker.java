@@ -0,0 +1,81 @@
+package com.example.android.booklisting;
+
+/**
+ * Stops sending requests to a host that keeps failing, so during an outage they fail
+ * right away instead of each waiting for its timeouts and retries.
+ * <ul>
+ * <li>Closed: requests go through. After a number of failures in a row, it opens.</li>
+ * <li>Open: requests are refused. After a while, it lets one through to probe the host.</li>
+ * <li>Half-open: the probe is in flight, other requests are refused. If it succeeds the
+ * breaker closes, otherwise it opens again.</li>
+ * </ul>
+ * Times are passed in, from {@link System#nanoTime()}, so it can be tested without waiting.
+ */
+final class CircuitBreaker {
+
+    static final int STATE_CLOSED = 0;
+    static final int STATE_OPEN = 1;
+    static final int STATE_HALF_OPEN = 2;
+
+    private final int mFailureThreshold;
+    private final long mOpenNanos;
+
+    // Guarded by this
+    private int mState = STATE_CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAt;
+
+    /**
+     * @param failureThreshold failures in a row that open the breaker
+     * @param openNanos        time requests are refused before a probe is let through
+     */
+    CircuitBreaker(int failureThreshold, long openNanos) {
+        mFailureThreshold = failureThreshold;
+        mOpenNanos = openNanos;
+    }
+
+    /**
+     * Whether a request can be sent now. If it returns true, the outcome of the request
+     * must be reported with {@link #onSuccess()} or {@link #onFailure(long)}.
+     */
+    synchronized boolean allowRequest(long nowNanos) {
+        switch (mState) {
+            case STATE_CLOSED:
+                return true;
+            case STATE_OPEN:
+            default:
+                // In half-open, a probe is already in flight, unless its outcome was never
+                // reported for so long that it is as good as lost
+                if (nowNanos - mOpenedAt >= mOpenNanos) {
+                    // Let this one probe the host
+                    mState = STATE_HALF_OPEN;
+                    mOpenedAt = nowNanos;
+                    return true;
+                }
+                return false;
+        }
+    }
+
+    /**
+     * The host answered.
+     */
+    synchronized void onSuccess() {
+        mState = STATE_CLOSED;
+        mConsecutiveFailures = 0;
+    }
+
+    /**
+     * The host failed to answer, or answered with a server error.
+     */
+    synchronized void onFailure(long nowNanos) {
+        mConsecutiveFailures++;
+        if (mState == STATE_HALF_OPEN || mConsecutiveFailures >= mFailureThreshold) {
+            mState = STATE_OPEN;
+            mOpenedAt = nowNanos;
+        }
+    }
+
+    synchronized int getState() {
+        return mState;
+    }
+}
@@ -1,47 +1,141 @@
 package com.example.android.booklisting;
 
+import android.app.LoaderManager.LoaderCallbacks;
+import android.content.Context;
 import android.content.Intent;
+import android.content.Loader;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.text.Html;
+import android.text.TextUtils;
 import android.view.View;
 import android.widget.Button;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 /**
  * Show detailed info about a book, and provide a button
  * to navigate to the info web page for the book.
+ * <p>
+ * The book is read from the {@link BookRepository} by its volume ID, so it is shown
+ * right away, and the details that search results lack are filled in when loaded.
  */
-public class DetailsActivity extends AppCompatActivity {
+public class DetailsActivity extends AppCompatActivity implements LoaderCallbacks<Book> {
+
+    static final String EXTRA_VOLUME_ID = "com.example.android.booklisting.EXTRA_VOLUME_ID";
+
+    /**
+     * Constant value for the details loader ID.
+     */
+    private static final int DETAILS_LOADER_ID = 1;
+
+    /**
+     * Volume ID of the book shown
+     */
+    private String mVolumeId;
+
+    /**
+     * Returns an intent to show the details of the given book. The book is added to the
+     * {@link BookRepository}, only its ID goes in the intent.
+     *
+     * @param context the context starting the activity
+     * @param book    the book to show
+     */
+    static Intent createIntent(Context context, Book book) {
+        BookRepository.getInstance(context).put(book);
+
+        Intent intent = new Intent(context, DetailsActivity.class);
+        intent.putExtra(EXTRA_VOLUME_ID, book.getId());
+        return intent;
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_details);
 
-        Bundle extras = getIntent().getExtras();
-        String title = extras.getString("title");
-        String printableAuthors = extras.getString("printableAuthors");
-        String publisher = extras.getString("publisher");
-        String publishedDate = extras.getString("publishedDate");
-        String printableIdentifiers = extras.getString("printableIdentifiers");
-        final String infoLink = extras.getString("infoLink");
+        mVolumeId = getIntent().getStringExtra(EXTRA_VOLUME_ID);
+
+        // Show what we have in memory right away
+        Book book = BookRepository.getInstance(this).get(mVolumeId);
+        if (book != null) {
+            showBook(book);
+        }
+
+        // Load the details, or the whole book if the process has been restarted
+        if (book == null || !book.hasDetails()) {
+            getLoaderManager().initLoader(DETAILS_LOADER_ID, null, this);
+        } else {
+            findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Stop downloading the cover
+        RequestScheduler.getInstance().cancelAll(this);
+    }
 
+    @Override
+    public Loader<Book> onCreateLoader(int id, Bundle args) {
+        return new DetailsLoader(this, mVolumeId);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Book> loader, Book book) {
+        findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+        if (book != null) {
+            showBook(book);
+        } else if (BookRepository.getInstance(this).get(mVolumeId) == null) {
+            // Nothing to show
+            TextView titleView = (TextView) findViewById(R.id.title_detail);
+            titleView.setText(R.string.book_not_available);
+        }
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Book> loader) {
+        // The views keep showing the book
+    }
+
+    /**
+     * Show the given book. Called again when the details have been loaded.
+     */
+    private void showBook(Book book) {
         // Find Views
+        ImageView coverView = (ImageView) findViewById(R.id.cover);
         TextView titleView = (TextView) findViewById(R.id.title_detail);
         TextView authorsLabelView = (TextView) findViewById(R.id.authors_label);
         TextView authorsView = (TextView) findViewById(R.id.authors);
         TextView publisherLabelView = (TextView) findViewById(R.id.publisher_label);
         TextView publisherView = (TextView) findViewById(R.id.publisher);
         TextView publishedDateView = (TextView) findViewById(R.id.published_date);
+        TextView pageCountView = (TextView) findViewById(R.id.page_count);
+        TextView languageView = (TextView) findViewById(R.id.language);
         TextView identifiersView = (TextView) findViewById(R.id.identifiers);
+        TextView descriptionLabelView = (TextView) findViewById(R.id.description_label);
+        TextView descriptionView = (TextView) findViewById(R.id.description);
+
+        // Show the cover, if any
+        String thumbnailUrl = book.getThumbnailUrl();
+        if (thumbnailUrl != null) {
+            coverView.setVisibility(View.VISIBLE);
+            ImageLoader.getInstance(this).load(this, thumbnailUrl, coverView,
+                    getResources().getDimensionPixelSize(R.dimen.cover_width),
+                    getResources().getDimensionPixelSize(R.dimen.cover_height));
+        } else {
+            coverView.setVisibility(View.GONE);
+        }
 
         // Set texts
-        titleView.setText(title);
+        titleView.setText(book.getTitle());
 
         // If there are no authors, hide this views
+        String printableAuthors = book.getPrintableAuthors();
         authorsView.setText(printableAuthors);
-        if (printableAuthors != null && !printableAuthors.equals("")) {
+        if (!printableAuthors.equals("")) {
             authorsLabelView.setVisibility(View.VISIBLE);
             authorsView.setVisibility(View.VISIBLE);
         } else {
@@ -50,8 +144,8 @@ public class DetailsActivity extends AppCompatActivity {
         }
 
         // If there is no publisher, hide this views
-        publisherView.setText(publisher);
-        if (publisher != null && !publisher.equals("")) {
+        publisherView.setText(book.getPublisher());
+        if (book.hasPublisher()) {
             publisherLabelView.setVisibility(View.VISIBLE);
             publisherView.setVisibility(View.VISIBLE);
         } else {
@@ -59,12 +153,25 @@ public class DetailsActivity extends AppCompatActivity {
             publisherView.setVisibility(View.GONE);
         }
 
-        publishedDateView.setText(publishedDate);
-        identifiersView.setText(printableIdentifiers);
+        publishedDateView.setText(book.getPublishedDate());
+        pageCountView.setText(String.valueOf(book.getPageCount()));
+        languageView.setText(book.getLanguage());
+        identifiersView.setText(book.getPrintableIdentifiers());
+
+        // The description comes as HTML, and only with the details
+        if (!TextUtils.isEmpty(book.getDescription())) {
+            descriptionView.setText(Html.fromHtml(book.getDescription()));
+            descriptionLabelView.setVisibility(View.VISIBLE);
+            descriptionView.setVisibility(View.VISIBLE);
+        } else {
+            descriptionLabelView.setVisibility(View.GONE);
+            descriptionView.setVisibility(View.GONE);
+        }
 
         // Find the button and set a click listener on it,
         // to open the web page specified in infoLink
         Button button = (Button) findViewById(R.id.more_info);
+        final String infoLink = book.getInfoLink();
 
         button.setOnClickListener(new View.OnClickListener() {
             @Override
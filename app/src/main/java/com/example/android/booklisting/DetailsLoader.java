@@ -0,0 +1,68 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+
+/**
+ * Loads a book, with its details, through the {@link BookRepository}.
+ */
+public class DetailsLoader extends ScheduledLoader<Book, Book> {
+
+    /** Google Books volume ID */
+    private String mVolumeId;
+
+    /** Last delivered result */
+    private Book mBook;
+
+    /**
+     * Constructs a new {@link DetailsLoader}.
+     *
+     * @param context  of the activity
+     * @param volumeId Google Books volume ID of the book to load
+     */
+    public DetailsLoader(Context context, String volumeId) {
+        super(context);
+        mVolumeId = volumeId;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mBook != null) {
+            deliverResult(mBook);
+        } else {
+            forceLoad();
+        }
+    }
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public Book loadInBackground() {
+        return BookRepository.getInstance(getContext()).getDetails(mVolumeId);
+    }
+
+    @Override
+    protected void onLoaded(Book book) {
+        deliverResult(book);
+    }
+
+    @Override
+    public void deliverResult(Book book) {
+        mBook = book;
+        if (isStarted()) {
+            super.deliverResult(book);
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mBook = null;
+    }
+}
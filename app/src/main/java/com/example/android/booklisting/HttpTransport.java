@@ -0,0 +1,74 @@
+package com.example.android.booklisting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Carries the requests of {@link BooksHttpClient} to the server and back.
+ * <p>
+ * {@link UrlConnectionTransport} is the one used in production; {@link ShapingTransport}
+ * wraps another transport to reproduce a slow or unreliable network in tests and benchmarks,
+ * and {@link ResilientTransport} wraps another one to retry and hedge its requests.
+ */
+interface HttpTransport {
+
+    /**
+     * Perform a GET request, asking for a gzip-compressed body.
+     *
+     * @param url the URL to request
+     * @return the response, with its body ready to be read
+     * @throws IOException if the request can't be performed
+     */
+    Exchange execute(URL url) throws IOException;
+
+    /**
+     * A response as received from the transport, before the body is counted and decoded.
+     */
+    final class Exchange {
+
+        /** HTTP response code */
+        final int responseCode;
+
+        /** Content-Encoding of the body, or null if it isn't encoded */
+        final String contentEncoding;
+
+        /** The body as received, or null if there is none */
+        final InputStream body;
+
+        /** Time spent in connect(), also measured when a pooled connection is reused */
+        final long connectNanos;
+
+        /** Time from the connection being open to the response headers being received */
+        final long firstByteNanos;
+
+        /** Retry-After of the response, or null if it has none */
+        final String retryAfter;
+
+        /** Whether the response was served by the response cache, without a request */
+        final boolean fromCache;
+
+        Exchange(int responseCode, String contentEncoding, InputStream body,
+                 long connectNanos, long firstByteNanos) {
+            this(responseCode, contentEncoding, body, connectNanos, firstByteNanos, null);
+        }
+
+        Exchange(int responseCode, String contentEncoding, InputStream body,
+                 long connectNanos, long firstByteNanos, String retryAfter) {
+            this(responseCode, contentEncoding, body, connectNanos, firstByteNanos, retryAfter,
+                    false);
+        }
+
+        Exchange(int responseCode, String contentEncoding, InputStream body,
+                 long connectNanos, long firstByteNanos, String retryAfter,
+                 boolean fromCache) {
+            this.responseCode = responseCode;
+            this.contentEncoding = contentEncoding;
+            this.body = body;
+            this.connectNanos = connectNanos;
+            this.firstByteNanos = firstByteNanos;
+            this.retryAfter = retryAfter;
+            this.fromCache = fromCache;
+        }
+    }
+}
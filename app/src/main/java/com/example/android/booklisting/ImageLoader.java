@@ -0,0 +1,386 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Future;
+
+/**
+ * Loads book covers into ImageViews, off the UI thread.
+ * <p>
+ * Images are looked up in a memory cache of decoded bitmaps, bounded in bytes, then in a disk
+ * cache of downloaded files, and only then downloaded. They are decoded downsampled to the
+ * size they will be shown at, so a list of covers doesn't hold full size bitmaps.
+ * <p>
+ * Views recycled by a RecyclerView are handled: binding a view to a new URL cancels the
+ * pending load for the previous one, and a load that finishes after its view has been
+ * rebound is not shown.
+ * <p>
+ * Showing a cover from the memory cache allocates nothing, so binding list rows while
+ * scrolling through loaded covers doesn't either. Only a cover that isn't there allocates,
+ * to load it.
+ */
+public final class ImageLoader {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = ImageLoader.class.getSimpleName();
+
+    /** Fraction of the heap used by the memory cache */
+    private static final int MEMORY_CACHE_HEAP_FRACTION = 8;
+
+    /** Name of the directory, inside the cache dir, for the downloaded images */
+    private static final String DISK_CACHE_DIR = "thumbnails";
+
+    /** Maximum size of the disk cache */
+    private static final long DISK_CACHE_SIZE = 20 * 1024 * 1024; // 20 MiB
+
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static ImageLoader sInstance;
+
+    private final LruCache<ImageKey, Bitmap> mMemoryCache;
+    private final File mDiskCacheDir;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Pending load for each view, only accessed from the UI thread */
+    private final Map<ImageView, Future<?>> mPendingLoads = new WeakHashMap<ImageView, Future<?>>();
+
+    /** Key reused for the memory cache lookups of the UI thread, so they don't allocate */
+    private final ImageKey mLookupKey = new ImageKey();
+
+    private ImageLoader(Context context) {
+        this(new File(context.getCacheDir(), DISK_CACHE_DIR));
+    }
+
+    /**
+     * Constructs an image loader keeping the downloaded images in the given directory.
+     * Tests create their own, the app shares one through {@link #getInstance(Context)}.
+     */
+    ImageLoader(File diskCacheDir) {
+        int memoryCacheSize = (int) Math.min(
+                Runtime.getRuntime().maxMemory() / MEMORY_CACHE_HEAP_FRACTION, Integer.MAX_VALUE);
+        mMemoryCache = new LruCache<ImageKey, Bitmap>(memoryCacheSize) {
+            @Override
+            protected int sizeOf(ImageKey key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        mDiskCacheDir = diskCacheDir;
+    }
+
+    /**
+     * Returns the image loader shared by the whole process.
+     */
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Show the image at the given URL in the view, downsampled to about the given size.
+     * Must be called from the UI thread.
+     *
+     * @param owner        owner of the load, usually the activity showing the view, which
+     *                     cancels it with {@link RequestScheduler#cancelAll(Object)}
+     * @param url          the image URL, or null / empty to just clear the view
+     * @param imageView    the view to show the image in
+     * @param targetWidth  width the image is shown at, in pixels
+     * @param targetHeight height the image is shown at, in pixels
+     */
+    public void load(Object owner, final String url, final ImageView imageView,
+                     final int targetWidth, final int targetHeight) {
+        // The view may have been recycled, forget the image it was waiting for
+        cancel(imageView);
+        imageView.setTag(R.id.thumbnail, url);
+
+        if (url == null || url.isEmpty()) {
+            imageView.setImageBitmap(null);
+            return;
+        }
+
+        // Memory cache hit, show it right away
+        Bitmap bitmap = mMemoryCache.get(mLookupKey.set(url, targetWidth, targetHeight));
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+
+        imageView.setImageBitmap(null);
+        Runnable load = new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = loadBitmap(url, targetWidth, targetHeight);
+                if (bitmap == null || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Only show it if the view hasn't been bound to another image since
+                        if (url.equals(imageView.getTag(R.id.thumbnail))) {
+                            mPendingLoads.remove(imageView);
+                            imageView.setImageBitmap(bitmap);
+                        }
+                    }
+                });
+            }
+        };
+        // Downloaded and decoded in the visible lane, tagged with its owner, which cancels
+        // it when it is destroyed
+        Future<?> future = RequestScheduler.getInstance().submit(RequestScheduler.LANE_VISIBLE,
+                owner, load);
+        mPendingLoads.put(imageView, future);
+    }
+
+    /**
+     * Cancel the pending load for the given view, if any. Must be called from the UI thread.
+     */
+    public void cancel(ImageView imageView) {
+        Future<?> future = mPendingLoads.remove(imageView);
+        if (future != null) {
+            future.cancel(true);
+        }
+        imageView.setTag(R.id.thumbnail, null);
+    }
+
+    /**
+     * Release the decoded bitmaps. Called when the system is low on memory.
+     */
+    public void evictMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * Keep a decoded bitmap in the memory cache. May be called from any thread.
+     */
+    void putInMemory(String url, int targetWidth, int targetHeight, Bitmap bitmap) {
+        mMemoryCache.put(new ImageKey().set(url, targetWidth, targetHeight), bitmap);
+    }
+
+    /**
+     * Get the bitmap from the disk cache, or the network. This is on a background thread.
+     */
+    private Bitmap loadBitmap(String url, int targetWidth, int targetHeight) {
+        try {
+            byte[] data = readFromDisk(url);
+            if (data == null) {
+                data = download(url);
+                if (data == null) {
+                    return null;
+                }
+                writeToDisk(url, data);
+            }
+
+            Bitmap bitmap = decodeSampled(data, targetWidth, targetHeight);
+            if (bitmap != null) {
+                putInMemory(url, targetWidth, targetHeight, bitmap);
+            }
+            return bitmap;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem loading image " + url, e);
+            return null;
+        }
+    }
+
+    /**
+     * Decode the image data with the biggest power of two sample size that keeps the
+     * image at least as big as the target size.
+     */
+    private static Bitmap decodeSampled(byte[] data, int targetWidth, int targetHeight) {
+        // First decode only the bounds, to get the image size
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        int sampleSize = 1;
+        if (targetWidth > 0 && targetHeight > 0) {
+            while (options.outWidth / (sampleSize * 2) >= targetWidth
+                    && options.outHeight / (sampleSize * 2) >= targetHeight) {
+                sampleSize *= 2;
+            }
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        // Covers don't need transparency, take half the memory
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    private static byte[] download(String url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        // Images are kept in the disk cache of this loader, not in the HTTP response cache
+        // as well
+        urlConnection.setUseCaches(false);
+        InputStream inputStream = null;
+        try {
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                return null;
+            }
+            inputStream = urlConnection.getInputStream();
+            return readFully(inputStream);
+        } finally {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+    }
+
+    private byte[] readFromDisk(String url) throws IOException {
+        File file = diskFile(url);
+        if (!file.exists()) {
+            return null;
+        }
+        // Mark it as recently used
+        file.setLastModified(System.currentTimeMillis());
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return readFully(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void writeToDisk(String url, byte[] data) {
+        synchronized (mDiskCacheDir) {
+            if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+                return;
+            }
+            File file = diskFile(url);
+            File tempFile = new File(file.getPath() + ".tmp");
+            try {
+                OutputStream outputStream = new FileOutputStream(tempFile);
+                try {
+                    outputStream.write(data);
+                } finally {
+                    outputStream.close();
+                }
+                if (!tempFile.renameTo(file)) {
+                    tempFile.delete();
+                }
+            } catch (IOException e) {
+                // Not fatal, it will just be downloaded again
+                Log.e(LOG_TAG, "Problem writing image cache", e);
+                tempFile.delete();
+            }
+            trimDiskCache();
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the disk cache fits its size.
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= DISK_CACHE_SIZE) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && size > DISK_CACHE_SIZE; i++) {
+            size -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    private File diskFile(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(mDiskCacheDir, name.toString());
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            output.write(buffer, 0, n);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Key of a decoded image in the memory cache: its URL and the size it was decoded for.
+     * Mutable, so that the UI thread looks images up with a single instance rather than
+     * building a key on each bind. A key put in the cache is never modified.
+     */
+    private static final class ImageKey {
+
+        private String mUrl;
+        private int mWidth;
+        private int mHeight;
+
+        ImageKey set(String url, int width, int height) {
+            mUrl = url;
+            mWidth = width;
+            mHeight = height;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ImageKey)) {
+                return false;
+            }
+            ImageKey other = (ImageKey) o;
+            return mWidth == other.mWidth && mHeight == other.mHeight && mUrl.equals(other.mUrl);
+        }
+
+        @Override
+        public int hashCode() {
+            // String caches its hash code, so this doesn't go through the URL each time
+            return (mUrl.hashCode() * 31 + mWidth) * 31 + mHeight;
+        }
+    }
+}
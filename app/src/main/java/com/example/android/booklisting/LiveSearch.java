@@ -0,0 +1,289 @@
+package com.example.android.booklisting;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+
+/**
+ * Search-as-you-type controller.
+ * <p>
+ * Each change of the query text is debounced, and searches are rate limited to
+ * {@link #MAX_REQUESTS_PER_SECOND}, however fast the user types. A new query cancels
+ * the request in flight for the previous one, and results for a query that is no longer
+ * the current one are never delivered.
+ * <p>
+ * The API matches whole words, so only two kinds of query can be answered from the loaded
+ * results: the same words again, which need no request, and the same words followed by
+ * more complete words, when the loaded results were complete (a single, short page).
+ * The latter are shown filtered right away, and the request is still sent, because the
+ * API also matches fields a search result doesn't have, like the description.
+ * Anything else, like "jav" becoming "java", is a new request.
+ * <p>
+ * All the public methods must be called from the UI thread, and the listener is called
+ * on the UI thread.
+ */
+public final class LiveSearch {
+
+    /**
+     * Receives the results of the live search.
+     */
+    public interface Listener {
+        /**
+         * Called with the results for the current query.
+         *
+         * @param query the query the results are for
+         * @param books the books found, or null if the request failed
+         */
+        void onResults(String query, List<Book> books);
+    }
+
+    /** Time the text must be stable before a search starts */
+    private static final long DEBOUNCE_MILLIS = 300;
+
+    /** Maximum number of requests started in any one second window */
+    private static final int MAX_REQUESTS_PER_SECOND = 2;
+    private static final long RATE_WINDOW_MILLIS = 1000;
+
+    /** Shorter queries are not searched */
+    private static final int MIN_QUERY_LENGTH = 2;
+
+    /** Number of results fetched for a live search */
+    static final int PAGE_SIZE = 20;
+
+    /** The query needs a request */
+    static final int ANSWER_REQUEST = 0;
+    /** The query has the words of the loaded query, its results are the answer */
+    static final int ANSWER_LOADED = 1;
+    /** The query adds complete words to complete loaded results, filtering them previews the answer */
+    static final int ANSWER_FILTERED = 2;
+
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Start times of the recent requests, for rate limiting */
+    private final ArrayDeque<Long> mRequestTimes = new ArrayDeque<Long>();
+
+    /** Current query, as typed */
+    private String mQuery = "";
+
+    /** Incremented on each query change, results for older generations are dropped */
+    private int mGeneration;
+
+    /** Request in flight, if any */
+    private Future<?> mInFlight;
+
+    /** Last query answered from the network, and its results */
+    private String mLoadedQuery;
+    private List<Book> mLoadedBooks;
+
+    /** Whether the current query has been answered by filtering the loaded results */
+    private boolean mFiltered;
+
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            search();
+        }
+    };
+
+    /**
+     * Constructs a new {@link LiveSearch}.
+     *
+     * @param listener receives the results
+     */
+    public LiveSearch(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Called when the query text changes.
+     */
+    public void setQuery(String text) {
+        text = text == null ? "" : text;
+        String query = text.trim();
+        int answer = localAnswer(mLoadedQuery, mLoadedBooks, text);
+
+        if (query.equals(mQuery)) {
+            // A space more or less doesn't change the request, but it may complete the
+            // last word, and the loaded results can then be filtered meanwhile
+            if (answer == ANSWER_FILTERED && !mFiltered) {
+                mFiltered = true;
+                mListener.onResults(query, filter(mLoadedBooks, query));
+            }
+            return;
+        }
+        mQuery = query;
+        mGeneration++;
+        mFiltered = false;
+
+        // The request in flight is for an old query
+        cancelInFlight();
+        mHandler.removeCallbacks(mSearchRunnable);
+
+        if (query.length() < MIN_QUERY_LENGTH) {
+            mListener.onResults(query, new ArrayList<Book>());
+            return;
+        }
+
+        if (answer == ANSWER_LOADED) {
+            mListener.onResults(query, mLoadedBooks);
+            return;
+        }
+        if (answer == ANSWER_FILTERED) {
+            mFiltered = true;
+            mListener.onResults(query, filter(mLoadedBooks, query));
+        }
+
+        mHandler.postDelayed(mSearchRunnable, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Stop searching. To be called when the owner is destroyed.
+     */
+    public void shutdown() {
+        mGeneration++;
+        mHandler.removeCallbacks(mSearchRunnable);
+        RequestScheduler.getInstance().cancelAll(this);
+        mInFlight = null;
+    }
+
+    /**
+     * Start the request for the current query, unless it would exceed the rate limit,
+     * in which case it is delayed until it doesn't.
+     */
+    private void search() {
+        long now = SystemClock.uptimeMillis();
+        while (!mRequestTimes.isEmpty() && now - mRequestTimes.peekFirst() >= RATE_WINDOW_MILLIS) {
+            mRequestTimes.pollFirst();
+        }
+        if (mRequestTimes.size() >= MAX_REQUESTS_PER_SECOND) {
+            mHandler.postDelayed(mSearchRunnable,
+                    mRequestTimes.peekFirst() + RATE_WINDOW_MILLIS - now);
+            return;
+        }
+        mRequestTimes.addLast(now);
+
+        final String query = mQuery;
+        final int generation = mGeneration;
+        final String url = QueryUtils.buildPageUrl(new BooksQuery(query).toUrl(), 0, PAGE_SIZE);
+
+        mInFlight = RequestScheduler.getInstance().submit(RequestScheduler.LANE_INTERACTIVE, this,
+                new Runnable() {
+            @Override
+            public void run() {
+                List<Book> books = BookCache.getInstance().get(url);
+                if (books == null) {
+                    books = QueryUtils.fetchBookData(url);
+                    BookCache.getInstance().put(url, books);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                final List<Book> result = books;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Drop results for a query that is no longer the current one
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mInFlight = null;
+                        if (result != null) {
+                            mLoadedQuery = query;
+                            mLoadedBooks = result;
+                        }
+                        mListener.onResults(query, result);
+                    }
+                });
+            }
+        });
+    }
+
+    private void cancelInFlight() {
+        if (mInFlight != null) {
+            mInFlight.cancel(true);
+            mInFlight = null;
+        }
+    }
+
+    /**
+     * Returns how the query text can be answered from the results loaded for a query.
+     *
+     * @param loadedQuery the query the results were loaded for, or null
+     * @param loadedBooks the loaded results, or null
+     * @param text        the query text, as typed. Its last word is complete only when
+     *                    followed by whitespace.
+     * @return one of {@link #ANSWER_REQUEST}, {@link #ANSWER_LOADED} or
+     * {@link #ANSWER_FILTERED}
+     */
+    static int localAnswer(String loadedQuery, List<Book> loadedBooks, String text) {
+        if (loadedQuery == null || loadedBooks == null) {
+            return ANSWER_REQUEST;
+        }
+        String[] loadedWords = words(loadedQuery);
+        String[] words = words(text);
+        if (words.length < loadedWords.length) {
+            return ANSWER_REQUEST;
+        }
+        for (int i = 0; i < loadedWords.length; i++) {
+            if (!loadedWords[i].equals(words[i])) {
+                return ANSWER_REQUEST;
+            }
+        }
+        if (words.length == loadedWords.length) {
+            return ANSWER_LOADED;
+        }
+        // The API doesn't match a word by its prefix, so the words added must be complete,
+        // and a page that was full may have left out books matching them
+        boolean lastWordComplete = Character.isWhitespace(text.charAt(text.length() - 1));
+        if (lastWordComplete && loadedBooks.size() < PAGE_SIZE) {
+            return ANSWER_FILTERED;
+        }
+        return ANSWER_REQUEST;
+    }
+
+    /**
+     * Keep the books having every word of the query as a whole word of their title,
+     * authors, publisher or description, if loaded.
+     */
+    static List<Book> filter(List<Book> books, String query) {
+        String[] words = words(query);
+        List<Book> filtered = new ArrayList<Book>();
+        for (Book book : books) {
+            if (book == null) {
+                continue;
+            }
+            StringBuilder text = new StringBuilder(book.getTitle());
+            for (int i = 0; i < book.getAuthorCount(); i++) {
+                text.append(' ').append(book.getAuthor(i));
+            }
+            if (book.getPublisher() != null) {
+                text.append(' ').append(book.getPublisher());
+            }
+            if (book.getDescription() != null) {
+                text.append(' ').append(book.getDescription());
+            }
+            List<String> bookWords = Arrays.asList(words(text.toString()));
+            if (bookWords.containsAll(Arrays.asList(words))) {
+                filtered.add(book);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Splits text into its lower case words, leaving out punctuation.
+     */
+    private static String[] words(String text) {
+        String normalized = text.toLowerCase(Locale.getDefault())
+                .replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+        return normalized.isEmpty() ? new String[0] : normalized.split(" ");
+    }
+}
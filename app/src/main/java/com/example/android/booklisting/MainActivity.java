@@ -3,19 +3,31 @@ package com.example.android.booklisting;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
+import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
 import android.widget.TextView;
 
-public class MainActivity extends AppCompatActivity {
+import java.util.List;
 
-    // Original query URL:
-    // https://www.googleapis.com/books/v1/volumes?q=android&maxResults=1
-    static final String queryUrlString1 = "https://www.googleapis.com/books/v1/volumes?q=";
-    static final String queryUrlString2 = "&maxResults=10";
+public class MainActivity extends AppCompatActivity {
 
     static final String EXTRA_QUERY_URL = "com.example.android.booklisting.EXTRA_QUERY_URL";
 
+    /**
+     * Searches as the user types
+     */
+    private LiveSearch mLiveSearch;
+
+    /**
+     * Adapter for the live search results
+     */
+    private BookAdapter mAdapter;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -30,10 +42,60 @@ public class MainActivity extends AppCompatActivity {
             public void onClick(View v) {
                 Intent intent = new Intent(MainActivity.this, BookListingActivity.class);
                 EditText editText = (EditText) findViewById(R.id.queryText);
-                String query = queryUrlString1 + editText.getText().toString() + queryUrlString2;
+                String terms = editText.getText().toString().trim();
+                if (terms.isEmpty()) {
+                    return;
+                }
+                // Suggested the next time
+                QueryHistory.getInstance(MainActivity.this).recordQueryAsync(terms);
+                // startIndex and maxResults are added by BookLoader, one page at a time.
+                String query = new BooksQuery(terms).toUrl();
                 intent.putExtra(EXTRA_QUERY_URL, query);
                 startActivity(intent);
             }
         });
+
+        // Show results as the user types, below the search button
+        RecyclerView liveResultsView = (RecyclerView) findViewById(R.id.live_results);
+        liveResultsView.setLayoutManager(new LinearLayoutManager(this));
+        mAdapter = new BookAdapter(this, new BookAdapter.OnBookClickListener() {
+            @Override
+            public void onBookClick(Book currentBook) {
+                startActivity(DetailsActivity.createIntent(getApplicationContext(), currentBook));
+            }
+        });
+        liveResultsView.setAdapter(mAdapter);
+
+        mLiveSearch = new LiveSearch(new LiveSearch.Listener() {
+            @Override
+            public void onResults(String query, List<Book> books) {
+                mAdapter.submitList(books);
+            }
+        });
+
+        AutoCompleteTextView queryText = (AutoCompleteTextView) findViewById(R.id.queryText);
+        queryText.setAdapter(new SuggestionAdapter(this));
+        queryText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mLiveSearch.setQuery(s.toString());
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mLiveSearch.shutdown();
+        // Stop downloading thumbnails nobody will see
+        RequestScheduler.getInstance().cancelAll(this);
     }
 }
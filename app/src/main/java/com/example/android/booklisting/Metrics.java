@@ -0,0 +1,290 @@
+package com.example.android.booklisting;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide registry of counters and histograms, for the time spent in each stage of
+ * the search pipeline and the sizes it handles.
+ * <p>
+ * Metrics are registered once, usually in a static field of the class that records them,
+ * and recording a value is a few atomic operations on preallocated buckets: it doesn't
+ * lock or allocate, so metrics are left enabled in release builds.
+ * {@link #dump()} writes all of them as text, with their percentiles.
+ * <p>
+ * A span is timed with {@link System#nanoTime()} and recorded in a timer, a histogram of
+ * nanoseconds that is dumped in milliseconds.
+ */
+final class Metrics {
+
+    /**
+     * Tag for log messages, and for the dump:
+     * {@code adb shell setprop log.tag.Metrics DEBUG} to have it logged
+     */
+    static final String LOG_TAG = "Metrics";
+
+    private static final ConcurrentMap<String, Histogram> sHistograms =
+            new ConcurrentHashMap<String, Histogram>();
+
+    private static final ConcurrentMap<String, Counter> sCounters =
+            new ConcurrentHashMap<String, Counter>();
+
+    private static volatile boolean sEnabled = true;
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the timer with the given name, registering it if needed.
+     */
+    static Histogram timer(String name) {
+        return histogram(name, Histogram.UNIT_NANOS);
+    }
+
+    /**
+     * Returns the histogram with the given name, registering it if needed.
+     *
+     * @param unit name of the unit of the values, for the dump
+     */
+    static Histogram histogram(String name, String unit) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram(unit);
+            histogram = sHistograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the counter with the given name, registering it if needed.
+     */
+    static Counter counter(String name) {
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = sCounters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Enable or disable recording. Metrics are enabled by default.
+     */
+    static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Clear the values of all the metrics, which stay registered.
+     */
+    static void reset() {
+        for (Histogram histogram : sHistograms.values()) {
+            histogram.reset();
+        }
+        for (Counter counter : sCounters.values()) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Returns all the metrics as text, one per line, sorted by name.
+     * Metrics with no values are left out.
+     */
+    static String dump() {
+        StringBuilder dump = new StringBuilder();
+        for (Map.Entry<String, Counter> entry
+                : new TreeMap<String, Counter>(sCounters).entrySet()) {
+            long value = entry.getValue().get();
+            if (value != 0) {
+                dump.append(String.format(Locale.US, "%-24s %d%n", entry.getKey(), value));
+            }
+        }
+        for (Map.Entry<String, Histogram> entry
+                : new TreeMap<String, Histogram>(sHistograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (histogram.getCount() != 0) {
+                dump.append(String.format(Locale.US, "%-24s %s%n", entry.getKey(), histogram));
+            }
+        }
+        return dump.toString();
+    }
+
+    /**
+     * A value that only goes up, such as a number of requests.
+     */
+    static final class Counter {
+
+        private final AtomicLong mValue = new AtomicLong();
+
+        void increment() {
+            if (sEnabled) {
+                mValue.incrementAndGet();
+            }
+        }
+
+        void add(long delta) {
+            if (sEnabled) {
+                mValue.addAndGet(delta);
+            }
+        }
+
+        long get() {
+            return mValue.get();
+        }
+
+        void reset() {
+            mValue.set(0);
+        }
+    }
+
+    /**
+     * Distribution of non-negative values, with a relative error of at most 1/8.
+     * <p>
+     * Values up to 15 have a bucket each; above that, each power of two range is split into
+     * 8 linear buckets, so the whole long range fits in 488 buckets.
+     */
+    static final class Histogram {
+
+        /** Unit of timers, which are dumped in milliseconds */
+        static final String UNIT_NANOS = "ns";
+
+        private static final int EXACT_BUCKETS = 16;
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int FIRST_EXPONENT = 4;
+        private static final int BUCKET_COUNT = EXACT_BUCKETS + (63 - FIRST_EXPONENT) * SUB_BUCKETS;
+
+        private final String mUnit;
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        private Histogram(String unit) {
+            mUnit = unit;
+        }
+
+        /**
+         * Record a value. Negative values are recorded as zero.
+         */
+        void record(long value) {
+            if (!sEnabled) {
+                return;
+            }
+            if (value < 0) {
+                value = 0;
+            }
+            mBuckets.incrementAndGet(bucketIndex(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        /**
+         * Record the time elapsed since the given start of a span.
+         *
+         * @param startNanos the start of the span, from {@link System#nanoTime()}
+         */
+        void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getSum() {
+            return mSum.get();
+        }
+
+        long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * Returns an estimate of the given percentile: the upper bound of the bucket it falls
+         * in, but no more than the maximum value recorded.
+         *
+         * @param percentile between 0 and 100
+         * @return the estimate, or 0 if there are no values
+         */
+        long getPercentile(double percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        static int bucketIndex(long value) {
+            if (value < EXACT_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return EXACT_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+        }
+
+        static long bucketUpperBound(int index) {
+            if (index < EXACT_BUCKETS) {
+                return index;
+            }
+            int exponent = (index - EXACT_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+            int subBucket = (index - EXACT_BUCKETS) % SUB_BUCKETS;
+            long next = (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+            // The last bucket ends at Long.MAX_VALUE, next overflows
+            return next < 0 ? Long.MAX_VALUE : next - 1;
+        }
+
+        @Override
+        public String toString() {
+            long count = mCount.get();
+            if (UNIT_NANOS.equals(mUnit)) {
+                return String.format(Locale.US,
+                        "count %d  mean %.1f  p50 %.1f  p95 %.1f  p99 %.1f  max %.1f ms",
+                        count, count == 0 ? 0 : mSum.get() / 1e6 / count,
+                        getPercentile(50) / 1e6, getPercentile(95) / 1e6,
+                        getPercentile(99) / 1e6, mMax.get() / 1e6);
+            }
+            return String.format(Locale.US,
+                    "count %d  mean %.1f  p50 %d  p95 %d  p99 %d  max %d %s",
+                    count, count == 0 ? 0 : (double) mSum.get() / count,
+                    getPercentile(50), getPercentile(95), getPercentile(99), mMax.get(), mUnit);
+        }
+    }
+}
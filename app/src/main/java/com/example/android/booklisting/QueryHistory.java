@@ -0,0 +1,263 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Suggestions for the search box: the searches made by the user, and the titles and
+ * authors of the results parsed by {@link QueryUtils}, in a {@link SuggestionTrie}.
+ * <p>
+ * The trie is read from disk the first time it is needed, on a background thread, and
+ * written back in the background after it changes, to a temporary file renamed when
+ * complete. Searches weigh more than the vocabulary of the results, and both fade with time.
+ */
+public final class QueryHistory {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = QueryHistory.class.getSimpleName();
+
+    /** File in the files dir, the history is not a cache */
+    private static final String FILE_NAME = "query_history";
+
+    /** Version of the file format, a file of another version is ignored */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Memory the trie is kept within */
+    private static final long MEMORY_BUDGET_BYTES = 256 * 1024;
+
+    /** Weight of a search made by the user */
+    private static final double QUERY_WEIGHT = 1;
+
+    /** Weight of a title or author seen in the results, which the user didn't type */
+    private static final double VOCABULARY_WEIGHT = 0.2;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Metrics.Histogram sLookupTime = Metrics.timer("suggest.lookup");
+    private static final Metrics.Histogram sLoadTime = Metrics.timer("suggest.load");
+
+    private static QueryHistory sInstance;
+
+    private final File mFile;
+
+    /** Single thread, so the file is written by one thread at a time */
+    private final ExecutorService mExecutor;
+
+    /** The trie, null until it is read from disk. Guarded by this. */
+    private SuggestionTrie mTrie;
+
+    /** Whether a write is queued, so changes in the meantime are written with it */
+    private boolean mSavePending;
+
+    private QueryHistory(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "QueryHistory");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the history shared by the whole process.
+     */
+    public static synchronized QueryHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new QueryHistory(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the history shared by the whole process, or null if it hasn't been created,
+     * for the code that has no Context.
+     */
+    static synchronized QueryHistory peekInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Record a search made by the user, in the background.
+     *
+     * @param terms the search terms, as typed
+     */
+    public void recordQueryAsync(final String terms) {
+        final long now = System.currentTimeMillis();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (QueryHistory.this) {
+                    getTrie().add(terms, QUERY_WEIGHT, now);
+                }
+                save();
+            }
+        });
+    }
+
+    /**
+     * Add the titles and authors of parsed results to the suggestions, in the background.
+     *
+     * @param books the results, which must not be modified afterwards, null for incomplete
+     *              volumes
+     */
+    public void addVocabularyAsync(final List<Book> books) {
+        if (books == null || books.isEmpty()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (QueryHistory.this) {
+                    addVocabulary(getTrie(), books, now);
+                }
+                scheduleSave();
+            }
+        });
+    }
+
+    /**
+     * Add the titles and authors of the books to the trie. The parser leaves null in place
+     * of incomplete volumes, which are skipped.
+     */
+    static void addVocabulary(SuggestionTrie trie, List<Book> books, long nowMillis) {
+        for (Book book : books) {
+            if (book == null) {
+                continue;
+            }
+            trie.add(book.getTitle(), VOCABULARY_WEIGHT, nowMillis);
+            for (int i = 0; i < book.getAuthorCount(); i++) {
+                trie.add(book.getAuthor(i), VOCABULARY_WEIGHT, nowMillis);
+            }
+        }
+    }
+
+    /**
+     * Returns the best suggestions for what the user has typed so far, best first.
+     * The first call reads the history from disk, so this must be called from a
+     * background thread; the next ones are answered from memory.
+     *
+     * @param prefix the text typed so far
+     * @param count  maximum number of suggestions
+     */
+    public List<String> suggest(String prefix, int count) {
+        if (prefix == null || prefix.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        synchronized (this) {
+            SuggestionTrie trie = getTrie();
+            long start = System.nanoTime();
+            List<String> suggestions = trie.suggest(prefix, count);
+            sLookupTime.recordSince(start);
+            return suggestions;
+        }
+    }
+
+    /**
+     * Returns the trie, reading it from disk the first time.
+     */
+    private synchronized SuggestionTrie getTrie() {
+        if (mTrie == null) {
+            mTrie = new SuggestionTrie(MEMORY_BUDGET_BYTES);
+            long start = System.nanoTime();
+            load(mTrie);
+            sLoadTime.recordSince(start);
+        }
+        return mTrie;
+    }
+
+    private void load(SuggestionTrie trie) {
+        if (!mFile.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mFile), BUFFER_SIZE));
+            try {
+                if (in.readInt() != FORMAT_VERSION) {
+                    return;
+                }
+                trie.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Corrupt, start over
+            Log.e(LOG_TAG, "Problem reading the query history", e);
+            mFile.delete();
+        }
+    }
+
+    /**
+     * Queue a write of the history, unless one is already queued.
+     */
+    private void scheduleSave() {
+        synchronized (this) {
+            if (mSavePending) {
+                return;
+            }
+            mSavePending = true;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        });
+    }
+
+    /**
+     * Write the history. Only called from the executor.
+     */
+    private void save() {
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        try {
+            // Serialized in memory, so suggestions don't wait for the disk
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(FORMAT_VERSION);
+            synchronized (this) {
+                mSavePending = false;
+                getTrie().write(data);
+            }
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                bytes.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(mFile)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            // Not fatal, the history of this session is lost
+            Log.e(LOG_TAG, "Problem writing the query history", e);
+            tempFile.delete();
+        }
+    }
+}
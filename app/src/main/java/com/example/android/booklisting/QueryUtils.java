@@ -3,20 +3,18 @@ package com.example.android.booklisting;
 import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Helper methods
@@ -24,22 +22,20 @@ import java.util.List;
 
 public class QueryUtils {
 
-    // Constants for JSON objects
-    private static final String JSON_ITEMS = "items";
-    private static final String JSON_ID = "id";
-    private static final String JSON_TYPE = "type";
-    private static final String JSON_VOLUME_INFO = "volumeInfo";
-    private static final String JSON_TITLE = "title";
-    private static final String JSON_IDENTIFIER = "identifier";
-    private static final String JSON_AUTHORS = "authors";
-    private static final String JSON_PUBLISHER = "publisher";
-    private static final String JSON_PUBLISHED_DATE = "publishedDate";
-    private static final String JSON_PAGE_COUNT = "pageCount";
-    private static final String JSON_IMAGE_LINKS = "imageLinks";
-    private static final String JSON_LANGUAGE = "language";
-    private static final String JSON_INFO_LINK = "infoLink";
-    private static final String JSON_SMALL_THUMBNAIL = "smallThumbnail";
-    private static final String JSON_THUMBNAIL = "thumbnail";
+    /**
+     * Base URL of the volume resources, the volume ID is appended to it
+     */
+    private static final String VOLUMES_URL = "https://www.googleapis.com/books/v1/volumes/";
+
+    // Constants for query parameters
+    private static final String PARAM_QUERY = "q";
+    private static final String PARAM_START_INDEX = "startIndex";
+    private static final String PARAM_MAX_RESULTS = "maxResults";
+
+    /**
+     * Maximum number of results the Books API returns per request
+     */
+    static final int MAX_PAGE_SIZE = 40;
 
     // Constans for error messages
     // They should go in strings.xml for transation, but didn't find a way
@@ -55,6 +51,31 @@ public class QueryUtils {
      */
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /**
+     * Requests in flight, so identical concurrent requests are only made once
+     */
+    private static final SingleFlight<List<Book>> sInFlightRequests = new SingleFlight<List<Book>>();
+
+    /**
+     * Notified of the timing of every request, if set
+     */
+    private static volatile RequestListener sRequestListener;
+
+    // Metrics of the stages of a search request, see {@link Metrics}
+    private static final Metrics.Histogram sFetchTime = Metrics.timer("fetch.total");
+    private static final Metrics.Histogram sFetchBooks = Metrics.histogram("fetch.books", "books");
+    private static final Metrics.Counter sFetchFailures = Metrics.counter("fetch.failures");
+    private static final Metrics.Counter sRequests = Metrics.counter("http.requests");
+    private static final Metrics.Counter sRequestFailures = Metrics.counter("http.failures");
+    private static final Metrics.Histogram sConnectTime = Metrics.timer("http.connect");
+    private static final Metrics.Histogram sFirstByteTime = Metrics.timer("http.ttfb");
+    private static final Metrics.Histogram sBodyReadTime = Metrics.timer("http.body_read");
+    private static final Metrics.Histogram sParseTime = Metrics.timer("http.parse");
+    private static final Metrics.Histogram sRequestTime = Metrics.timer("http.total");
+    private static final Metrics.Histogram sWireBytes = Metrics.histogram("http.wire_bytes", "B");
+    private static final Metrics.Histogram sDecodedBytes =
+            Metrics.histogram("http.decoded_bytes", "B");
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -65,245 +86,348 @@ public class QueryUtils {
 
     /**
      * Query Google Books and return a list of {@link Book} objects.
+     * <p>
+     * If the same request is already in flight, for instance from a loader restarted by a
+     * rotation, this waits for it and returns the same list, which must not be modified.
      */
     public static List<Book> fetchBookData(String requestUrl) {
+        // Includes the wait for an identical request in flight
+        long start = System.nanoTime();
+        List<Book> books = fetchBookDataShared(requestUrl);
+        sFetchTime.recordSince(start);
+        if (books == null) {
+            sFetchFailures.increment();
+        }
+        return books;
+    }
+
+    private static List<Book> fetchBookDataShared(String requestUrl) {
+        // Requests are identified by their normalized URL
+        final String canonicalUrl = normalizeUrl(requestUrl);
+        if (canonicalUrl == null) {
+            return fetchBookDataOnce(null);
+        }
 
-        // Simluates a slow internet connection
         try {
-            Thread.sleep(20);
+            return sInFlightRequests.execute(canonicalUrl, new Callable<List<Book>>() {
+                @Override
+                public List<Book> call() {
+                    return fetchBookDataOnce(canonicalUrl);
+                }
+            });
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            // The caller has been cancelled, keep the flag for it to see
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, PROBLEM_HTTP, e.getCause());
+            return null;
         }
+    }
+
+    /**
+     * Notified of every request made to the Books API, on the thread that made it
+     */
+    interface RequestListener {
+        void onRequestFinished(RequestTiming timing);
+    }
+
+    /**
+     * Set the listener notified of every request, or null to remove it.
+     */
+    static void setRequestListener(RequestListener listener) {
+        sRequestListener = listener;
+    }
+
+    /**
+     * Number of {@link #fetchBookData(String)} calls that shared a request already in flight,
+     * instead of making their own.
+     */
+    static long getCollapsedRequestCount() {
+        return sInFlightRequests.getCollapsedCount();
+    }
 
-        // Create URL object
+    /**
+     * Query Google Books and return a list of {@link Book} objects, without checking for
+     * the same request in flight.
+     */
+    private static List<Book> fetchBookDataOnce(String requestUrl) {
+        // Create URL object. The URL is already normalized, so equivalent queries share
+        // the same HTTP cache entry.
         URL url = createUrl(requestUrl);
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+        // Perform HTTP request to the URL and parse the JSON response as it arrives,
+        // creating a list of {@link Book}s
+        List<Book> books = null;
         try {
-            jsonResponse = makeHttpRequest(url);
+            books = makeHttpRequest(url, new ResponseParser<List<Book>>() {
+                @Override
+                public List<Book> parse(InputStream body) throws IOException {
+                    return BookStreamParser.readBooks(body);
+                }
+            });
         } catch (IOException e) {
             Log.e(LOG_TAG, PROBLEM_HTTP, e);
         }
+        if (books != null) {
+            sFetchBooks.record(books.size());
 
-        // Extract relevant fields from the JSON response and create a list of {@link Book}s
-        List<Book> books = extractBookFromJson(jsonResponse);
+            // Their titles and authors are suggested for the next searches
+            QueryHistory history = QueryHistory.peekInstance();
+            if (history != null) {
+                history.addVocabularyAsync(books);
+            }
+        }
 
         // Return the list of {@link Book}s
         return books;
     }
 
     /**
-     * Returns new URL object from the given string URL.
+     * Query Google Books for the resource of a volume, which has details, such as the
+     * description, that search results lack. Only the fields shown are requested.
+     *
+     * @param volumeId the Google Books volume ID
+     * @return the book, with details, or null if the request failed
      */
-    private static URL createUrl(String stringUrl) {
-        URL url = null;
+    public static Book fetchVolume(String volumeId) {
+        if (TextUtils.isEmpty(volumeId)) {
+            return null;
+        }
+        URL url;
         try {
-            url = new URL(stringUrl);
-        } catch (MalformedURLException e) {
+            url = createUrl(VOLUMES_URL + URLEncoder.encode(volumeId, "UTF-8")
+                    + "?fields=" + URLEncoder.encode(BooksQuery.VOLUME_FIELDS, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
             Log.e(LOG_TAG, PROBLEM_URL, e);
+            return null;
+        }
+
+        try {
+            return makeHttpRequest(url, new ResponseParser<Book>() {
+                @Override
+                public Book parse(InputStream body) throws IOException {
+                    return BookStreamParser.readVolume(body);
+                }
+            });
+        } catch (IOException e) {
+            Log.e(LOG_TAG, PROBLEM_HTTP, e);
+            return null;
         }
-        return url;
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Normalize a request URL, so that equivalent requests have the same String
+     * representation, which is what the HTTP response cache is keyed by.
+     * <p>
+     * The scheme and host are lower-cased, blank spaces are encoded,
+     * empty query parameters are dropped and the rest are sorted.
+     *
+     * @param stringUrl the URL to normalize
+     * @return the normalized URL, or null if stringUrl is null
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    static String normalizeUrl(String stringUrl) {
+        if (stringUrl == null) {
+            return null;
+        }
+        String url = stringUrl.trim();
+
+        // Split the URL into base (scheme, host and path) and query
+        String base = url;
+        String query = null;
+        int queryStart = url.indexOf('?');
+        if (queryStart >= 0) {
+            base = url.substring(0, queryStart);
+            query = url.substring(queryStart + 1);
+        }
 
-        // If the URL is null, then return early.
-        if (url == null) {
-            return jsonResponse;
+        // Scheme and host are case insensitive, the path is not
+        int hostStart = base.indexOf("://");
+        if (hostStart >= 0) {
+            int pathStart = base.indexOf('/', hostStart + 3);
+            if (pathStart < 0) {
+                pathStart = base.length();
+            }
+            base = base.substring(0, pathStart).toLowerCase(Locale.US) + base.substring(pathStart);
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
-        try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+        if (query == null) {
+            return base;
+        }
 
-            // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
-            } else {
-                Log.e(LOG_TAG, ERROR_RESPONSE_CODE + urlConnection.getResponseCode());
-            }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, PROBLEM_WEB_SERVICE, e);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why
-                // the makeHttpRequest(URL url) method signature specifies than an IOException
-                // could be thrown.
-                inputStream.close();
+        // Sort the query parameters, skipping empty ones
+        String[] parameters = query.split("&");
+        Arrays.sort(parameters);
+        StringBuilder normalized = new StringBuilder(url.length());
+        normalized.append(base);
+        char separator = '?';
+        for (String parameter : parameters) {
+            parameter = parameter.trim();
+            if (parameter.isEmpty()) {
+                continue;
             }
+            normalized.append(separator).append(parameter.replace(' ', '+'));
+            separator = '&';
         }
-        return jsonResponse;
+        return normalized.toString();
     }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
+     * Returns the URL for a page of results of the given query.
+     *
+     * @param queryUrl   query URL, without startIndex and maxResults parameters
+     * @param startIndex position of the first result of the page, starting at 0
+     * @param pageSize   number of results of the page, up to {@link #MAX_PAGE_SIZE}
+     * @return the URL of the page, or null if queryUrl is null
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
-            }
+    static String buildPageUrl(String queryUrl, int startIndex, int pageSize) {
+        if (queryUrl == null) {
+            return null;
         }
-        return output.toString();
+        char separator = queryUrl.indexOf('?') < 0 ? '?' : '&';
+        return queryUrl + separator + PARAM_START_INDEX + "=" + startIndex
+                + "&" + PARAM_MAX_RESULTS + "=" + Math.min(pageSize, MAX_PAGE_SIZE);
     }
 
     /**
-     * Return a list of {@link Book} objects that has been built up from
-     * parsing the given JSON response.
+     * Returns the search terms of a query URL, that is, its decoded q parameter.
+     *
+     * @return the search terms, or null if there are none
      */
-    private static List<Book> extractBookFromJson(String bookJSON) {
-        // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(bookJSON)) {
+    static String getSearchTerms(String queryUrl) {
+        if (queryUrl == null) {
             return null;
         }
+        int queryStart = queryUrl.indexOf('?');
+        if (queryStart < 0) {
+            return null;
+        }
+        for (String parameter : queryUrl.substring(queryStart + 1).split("&")) {
+            if (parameter.startsWith(PARAM_QUERY + "=")) {
+                String value = parameter.substring(PARAM_QUERY.length() + 1);
+                try {
+                    value = URLDecoder.decode(value, "UTF-8");
+                } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    // Not encoded, as typed by the user
+                }
+                return value.trim().isEmpty() ? null : value;
+            }
+        }
+        return null;
+    }
 
-        // Create an empty ArrayList that we can start adding books to
-        List<Book> books = new ArrayList<Book>();
-
-        // Try to parse the JSON response string. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        // Catch the exception so the app doesn't crash, and print the error message to the logs.
+    /**
+     * Returns new URL object from the given string URL.
+     */
+    private static URL createUrl(String stringUrl) {
+        URL url = null;
         try {
-
-            // Create a JSONObject from the JSON response string
-            JSONObject baseJsonResponse = new JSONObject(bookJSON);
-
-            // Extract the JSONArray associated with the key called "items",
-            // which represents a list of books.
-            JSONArray bookArray = baseJsonResponse.getJSONArray(JSON_ITEMS);
-
-            // For each book in the bookArray, create an {@link Book} object
-            for (int i = 0; i < bookArray.length(); i++) {
-
-                // Get a single book at position i within the list of books
-                JSONObject currentBookJSON = bookArray.getJSONObject(i);
-
-                Book book = JSONtoBook(currentBookJSON);
-
-                // Add the new {@link Book} to the list of books.
-                books.add(book);
-            }
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e(LOG_TAG, PROBLEM_PARSING_JSON, e);
+            url = new URL(stringUrl);
+        } catch (MalformedURLException e) {
+            Log.e(LOG_TAG, PROBLEM_URL, e);
         }
+        return url;
+    }
 
-        // Return the list of books
-        return books;
+    /**
+     * Parses a response body, for {@link #makeHttpRequest(URL, ResponseParser)}
+     */
+    private interface ResponseParser<T> {
+        T parse(InputStream body) throws IOException;
     }
 
     /**
-     * Return a Book object from a JSONObject that represents a book in JSON format
+     * Make an HTTP request to the given URL and return what the parser reads from the
+     * response. The body is parsed straight from the connection stream, decompressed
+     * on the fly if needed.
      *
-     * @param currentBookJSON a JSON Object containing info about a book
-     * @return the Book object
+     * @return the parsed response, or null if the request or the parsing failed
      */
-    private static Book JSONtoBook(JSONObject currentBookJSON) {
+    private static <T> T makeHttpRequest(URL url, ResponseParser<T> parser) throws IOException {
+        T result = null;
 
-        Book book = null;
+        // If the URL is null, then return early.
+        if (url == null) {
+            return result;
+        }
 
-        // For a given book, extract its data
+        long start = System.nanoTime();
+        long parseNanos = 0;
+        BooksHttpClient.Response response = null;
         try {
-            // ID
-            String id = currentBookJSON.getString(JSON_ID);
-
-            // Volume Info
-            JSONObject volumeInfoJSON = currentBookJSON.getJSONObject(JSON_VOLUME_INFO);
+            response = BooksHttpClient.getInstance().get(url);
 
-            // Title
-            String title = volumeInfoJSON.getString(JSON_TITLE);
-
-            // Authors
-            ArrayList<String> authors = new ArrayList<String>();
-            JSONArray authorJSONArray = volumeInfoJSON.optJSONArray(JSON_AUTHORS);
-            if (authorJSONArray != null) {
-                for (int j = 0; j < authorJSONArray.length(); j++) {
-                    authors.add(authorJSONArray.getString(j));
+            // If the request was successful (response code 200),
+            // then parse the response while reading the input stream.
+            if (response.getResponseCode() == 200) {
+                long parseStart = System.nanoTime();
+                try {
+                    result = parser.parse(response.getBody());
+                } finally {
+                    parseNanos = System.nanoTime() - parseStart;
                 }
+            } else {
+                Log.e(LOG_TAG, ERROR_RESPONSE_CODE + response.getResponseCode());
             }
-            // Publisher
-            String publisher = volumeInfoJSON.optString(JSON_PUBLISHER);
-
-            // Published Date
-            String publishedDate = volumeInfoJSON.optString(JSON_PUBLISHED_DATE);
-
-            // Industry identifiers
-            ArrayList<IndustryIdentifier> industryIdentifiers = new ArrayList<IndustryIdentifier>();
-            JSONArray industryIdentifierJSONArray = volumeInfoJSON.optJSONArray("industryIdentifiers");
-            if (industryIdentifierJSONArray != null) {
-                for (int j = 0; j < industryIdentifierJSONArray.length(); j++) {
-                    JSONObject industryIdentifierJSON = industryIdentifierJSONArray.getJSONObject(j);
-                    String type = industryIdentifierJSON.optString(JSON_TYPE);
-                    String identifier = industryIdentifierJSON.getString(JSON_IDENTIFIER);
-                    IndustryIdentifier industryIdentifier = new IndustryIdentifier(type, identifier);
-                    industryIdentifiers.add(industryIdentifier);
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected tokens this way
+            Log.e(LOG_TAG, PROBLEM_PARSING_JSON, e);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, PROBLEM_WEB_SERVICE, e);
+        } finally {
+            try {
+                if (response != null) {
+                    // Closing the response could throw an IOException, which is why
+                    // the makeHttpRequest(URL url) method signature specifies than an
+                    // IOException could be thrown. The connection is not disconnected,
+                    // so it can be reused.
+                    response.close();
                 }
+            } finally {
+                // Even if closing failed, so every request is counted
+                reportTiming(url, response, result != null, parseNanos,
+                        System.nanoTime() - start);
             }
+        }
+        return result;
+    }
 
-            // Page count
-            int pageCount = volumeInfoJSON.getInt(JSON_PAGE_COUNT);
-
-            // Image Links
-            ArrayList<ImageLink> imageLinks = new ArrayList<ImageLink>();
-            String type;
-            String url;
-            ImageLink imageLink;
-
-            JSONObject imagelinkJSONObject = volumeInfoJSON.optJSONObject(JSON_IMAGE_LINKS);
-            if (imagelinkJSONObject != null) {
-                type = JSON_SMALL_THUMBNAIL;
-                url = imagelinkJSONObject.optString(type);
-                imageLink = new ImageLink(type, url);
-                imageLinks.add(imageLink);
-
-                type = JSON_THUMBNAIL;
-                url = imagelinkJSONObject.optString(type);
-                imageLink = new ImageLink(type, url);
-                imageLinks.add(imageLink);
-            }
-
-            // Language
-            String language = volumeInfoJSON.getString(JSON_LANGUAGE);
-
-            // Info Link
-            String infoLink = volumeInfoJSON.getString(JSON_INFO_LINK);
-
-
-            // Create a new {@link Book} object with the parsed data from the JSON response.
-            book = new Book(id, title, authors, publisher, publishedDate,
-                    industryIdentifiers, pageCount, imageLinks, language, infoLink);
-
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e(LOG_TAG, "Problem parsing the book JSON results", e);
+    /**
+     * Record the stages of a request in the {@link Metrics}, and report them to the
+     * {@link RequestListener}, if any.
+     */
+    private static void reportTiming(URL url, BooksHttpClient.Response response,
+                                     boolean success, long parseNanos, long totalNanos) {
+        sRequests.increment();
+        sRequestTime.record(totalNanos);
+        if (!success) {
+            sRequestFailures.increment();
         }
 
-        return book;
+        RequestListener listener = sRequestListener;
+        if (response == null) {
+            if (listener != null) {
+                listener.onRequestFinished(new RequestTiming(url.toString(), -1, false,
+                        0, 0, 0, 0, totalNanos, 0));
+            }
+            return;
+        }
 
+        // The body is read while parsing, leave the reads out of the parse time
+        long bodyReadNanos = response.getBodyReadNanos();
+        parseNanos = Math.max(0, parseNanos - bodyReadNanos);
+        sConnectTime.record(response.getConnectNanos());
+        sFirstByteTime.record(response.getFirstByteNanos());
+        sBodyReadTime.record(bodyReadNanos);
+        sParseTime.record(parseNanos);
+        sWireBytes.record(response.getWireBytes());
+        sDecodedBytes.record(response.getDecodedBytes());
+
+        if (listener != null) {
+            listener.onRequestFinished(new RequestTiming(url.toString(),
+                    response.getResponseCode(), success, response.getConnectNanos(),
+                    response.getFirstByteNanos(), bodyReadNanos, parseNanos, totalNanos,
+                    response.getWireBytes()));
+        }
     }
 }
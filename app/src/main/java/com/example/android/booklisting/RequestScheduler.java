@@ -0,0 +1,262 @@
+package com.example.android.booklisting;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the background network and parse work of the app in priority lanes.
+ * <p>
+ * Each lane has its own bounded pool of threads, so work in one lane never waits for work
+ * in another: a backlog of prefetches doesn't delay the search the user is waiting for.
+ * <ul>
+ * <li>{@link #LANE_INTERACTIVE}: what the user is waiting for, such as search results
+ * and details,</li>
+ * <li>{@link #LANE_VISIBLE}: what is on screen but not essential, such as thumbnails,</li>
+ * <li>{@link #LANE_PREFETCH}: speculative work, such as the next page of results.</li>
+ * </ul>
+ * All lanes run below the priority of the UI thread, so they don't slow down rendering,
+ * and lower lanes run lower still, so they yield the CPU to higher ones.
+ * <p>
+ * Work can be tagged with its owner, an activity or a loader, and all the work of an owner
+ * is cancelled with {@link #cancelAll(Object)}: queued work is dropped, and running work is
+ * interrupted.
+ * <p>
+ * A runnable that throws is logged, as nobody reads the future of a runnable to see it.
+ */
+public final class RequestScheduler {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = RequestScheduler.class.getName();
+
+    // Lanes, by decreasing priority
+    static final int LANE_INTERACTIVE = 0;
+    static final int LANE_VISIBLE = 1;
+    static final int LANE_PREFETCH = 2;
+
+    private static final String[] LANE_NAMES = {"interactive", "visible", "prefetch"};
+
+    /**
+     * Java priorities of the lane threads, all below the UI thread. On Android they map to
+     * nice values 10 (THREAD_PRIORITY_BACKGROUND), 13 and 19 (THREAD_PRIORITY_LOWEST).
+     */
+    private static final int[] LANE_THREAD_PRIORITIES =
+            {Thread.NORM_PRIORITY - 1, Thread.NORM_PRIORITY - 2, Thread.MIN_PRIORITY};
+
+    // Default number of threads of each lane
+    private static final int DEFAULT_INTERACTIVE_THREADS = 2;
+    private static final int DEFAULT_VISIBLE_THREADS = 3;
+    private static final int DEFAULT_PREFETCH_THREADS = 2;
+
+    /** Time an idle lane thread is kept */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static RequestScheduler sInstance;
+
+    private final ThreadPoolExecutor[] mLanes;
+    private final Metrics.Histogram[] mWaitTimes;
+    private final Metrics.Counter mCancelled = Metrics.counter("scheduler.cancelled");
+
+    /** Queued and running tasks, by tag. Guarded by itself. */
+    private final Map<Object, Set<Task<?>>> mTasksByTag = new HashMap<Object, Set<Task<?>>>();
+
+    /**
+     * Constructs a new {@link RequestScheduler}.
+     *
+     * @param interactiveThreads maximum number of interactive tasks running at once
+     * @param visibleThreads     maximum number of visible-item tasks running at once
+     * @param prefetchThreads    maximum number of prefetch tasks running at once
+     */
+    public RequestScheduler(int interactiveThreads, int visibleThreads, int prefetchThreads) {
+        int[] threads = {interactiveThreads, visibleThreads, prefetchThreads};
+        mLanes = new ThreadPoolExecutor[threads.length];
+        mWaitTimes = new Metrics.Histogram[threads.length];
+        for (int lane = 0; lane < threads.length; lane++) {
+            mLanes[lane] = new ThreadPoolExecutor(threads[lane], threads[lane],
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new LaneThreadFactory(LANE_NAMES[lane], LANE_THREAD_PRIORITIES[lane]));
+            mLanes[lane].allowCoreThreadTimeOut(true);
+            mWaitTimes[lane] = Metrics.timer("scheduler." + LANE_NAMES[lane] + ".wait");
+        }
+    }
+
+    /**
+     * Returns the scheduler shared by the whole process, with the default lane sizes.
+     */
+    public static synchronized RequestScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new RequestScheduler(DEFAULT_INTERACTIVE_THREADS,
+                    DEFAULT_VISIBLE_THREADS, DEFAULT_PREFETCH_THREADS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue a task in the given lane.
+     *
+     * @param lane     {@link #LANE_INTERACTIVE}, {@link #LANE_VISIBLE} or {@link #LANE_PREFETCH}
+     * @param tag      owner of the task, for {@link #cancelAll(Object)}, or null
+     * @param callable the task
+     * @return the future of the task, cancelling it interrupts the task if it is running
+     */
+    public <T> Future<T> submit(int lane, Object tag, Callable<T> callable) {
+        return execute(new Task<T>(callable, lane, tag, false));
+    }
+
+    /**
+     * Queue a task in the given lane.
+     *
+     * @see #submit(int, Object, Callable)
+     */
+    public Future<?> submit(int lane, Object tag, Runnable runnable) {
+        return execute(new Task<Object>(Executors.callable(runnable), lane, tag, true));
+    }
+
+    /**
+     * Cancel all the queued and running tasks with the given tag.
+     *
+     * @return the number of tasks cancelled
+     */
+    public int cancelAll(Object tag) {
+        if (tag == null) {
+            return 0;
+        }
+        List<Task<?>> tasks;
+        synchronized (mTasksByTag) {
+            Set<Task<?>> tagged = mTasksByTag.remove(tag);
+            if (tagged == null) {
+                return 0;
+            }
+            tasks = new ArrayList<Task<?>>(tagged);
+        }
+        int cancelled = 0;
+        for (Task<?> task : tasks) {
+            if (task.cancel(true)) {
+                cancelled++;
+            }
+            // Don't leave it in the queue until a thread gets to it
+            mLanes[task.mLane].remove(task);
+        }
+        mCancelled.add(cancelled);
+        return cancelled;
+    }
+
+    /**
+     * Number of tasks waiting in the given lane.
+     */
+    int getQueuedCount(int lane) {
+        return mLanes[lane].getQueue().size();
+    }
+
+    private <T> Future<T> execute(Task<T> task) {
+        track(task);
+        mLanes[task.mLane].execute(task);
+        return task;
+    }
+
+    private void track(Task<?> task) {
+        if (task.mTag == null) {
+            return;
+        }
+        synchronized (mTasksByTag) {
+            Set<Task<?>> tagged = mTasksByTag.get(task.mTag);
+            if (tagged == null) {
+                tagged = new HashSet<Task<?>>();
+                mTasksByTag.put(task.mTag, tagged);
+            }
+            tagged.add(task);
+        }
+    }
+
+    private void untrack(Task<?> task) {
+        if (task.mTag == null) {
+            return;
+        }
+        synchronized (mTasksByTag) {
+            Set<Task<?>> tagged = mTasksByTag.get(task.mTag);
+            if (tagged != null && tagged.remove(task) && tagged.isEmpty()) {
+                mTasksByTag.remove(task.mTag);
+            }
+        }
+    }
+
+    /**
+     * A queued task, which records how long it waited and forgets its tag when done.
+     */
+    private final class Task<T> extends FutureTask<T> {
+
+        private final int mLane;
+        private final Object mTag;
+        private final long mQueuedAt = System.nanoTime();
+
+        /** Whether to log the exception the task throws, if nobody gets it from the future */
+        private final boolean mLogFailure;
+
+        Task(Callable<T> callable, int lane, Object tag, boolean logFailure) {
+            super(callable);
+            mLane = lane;
+            mTag = tag;
+            mLogFailure = logFailure;
+        }
+
+        @Override
+        public void run() {
+            if (!isDone()) {
+                mWaitTimes[mLane].recordSince(mQueuedAt);
+            }
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            untrack(this);
+            if (mLogFailure && !isCancelled()) {
+                try {
+                    get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Task failed in the " + LANE_NAMES[mLane] + " lane",
+                            e.getCause());
+                } catch (InterruptedException e) {
+                    // Not waiting, it is done
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static final class LaneThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private final int mPriority;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        LaneThreadFactory(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    "RequestScheduler " + mName + " #" + mCount.incrementAndGet());
+            thread.setPriority(mPriority);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.android.booklisting;
+
+/**
+ * Where the time of a Books API request went, reported by {@link QueryUtils} to its
+ * {@link QueryUtils.RequestListener}.
+ * <p>
+ * The body is parsed while it is read, so the body read time is the time spent waiting for
+ * and decompressing the body, and the parse time is the rest of the parsing.
+ */
+final class RequestTiming {
+
+    /** The request URL */
+    final String url;
+
+    /** HTTP response code, or -1 if no response was received */
+    final int responseCode;
+
+    /** Whether the response was received and parsed */
+    final boolean success;
+
+    /** Time spent in connect(), including taking a pooled connection, which isn't told apart */
+    final long connectNanos;
+
+    /** Time from the connection being open to the response headers being received */
+    final long firstByteNanos;
+
+    /** Time spent reading the body */
+    final long bodyReadNanos;
+
+    /** Time spent parsing, not counting the body reads */
+    final long parseNanos;
+
+    /** Time of the whole request */
+    final long totalNanos;
+
+    /** Bytes received, as sent on the wire */
+    final long wireBytes;
+
+    RequestTiming(String url, int responseCode, boolean success, long connectNanos,
+                  long firstByteNanos, long bodyReadNanos, long parseNanos, long totalNanos,
+                  long wireBytes) {
+        this.url = url;
+        this.responseCode = responseCode;
+        this.success = success;
+        this.connectNanos = connectNanos;
+        this.firstByteNanos = firstByteNanos;
+        this.bodyReadNanos = bodyReadNanos;
+        this.parseNanos = parseNanos;
+        this.totalNanos = totalNanos;
+        this.wireBytes = wireBytes;
+    }
+}
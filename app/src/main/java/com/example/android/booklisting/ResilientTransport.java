@@ -0,0 +1,482 @@
+package com.example.android.booklisting;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link HttpTransport} that makes the requests of another one hold up against an unreliable
+ * network and server:
+ * <ul>
+ * <li>A request that fails, or gets a response worth retrying (see
+ * {@link RetryPolicy#isRetryable(int)}), is retried after a jittered exponential backoff,
+ * or after the delay asked by the server with Retry-After. Requests are GETs, which are
+ * idempotent, so they can always be retried.</li>
+ * <li>With {@link #setHedging(boolean)}, a request that hasn't got its response headers
+ * by the 95th percentile of the recent ones is sent a second time, and whichever answers
+ * first is used. Hedges are kept to a fraction of the requests, so a slow server doesn't
+ * get twice the load, and to a few background threads; only the responses from the
+ * network are timed, a cache hit would make the percentile meaningless.</li>
+ * <li>A circuit breaker per host fails requests right away, with a
+ * {@link CircuitOpenException}, once the host has failed several times in a row, and
+ * until a probe request gets through.</li>
+ * </ul>
+ * Only the exchange up to the response headers is covered: a body that fails while it is
+ * read fails the request. Retries are reported to a {@link RetryListener}, if one is set.
+ */
+class ResilientTransport implements HttpTransport {
+
+    /**
+     * Told about the retries, for instance to log them.
+     */
+    interface RetryListener {
+        /**
+         * Called before waiting to retry a request.
+         *
+         * @param url          of the request
+         * @param responseCode the response code worth retrying, or -1 if the request failed
+         * @param failure      why the request failed, or null if it got a response
+         * @param delayMillis  time before the request is retried
+         */
+        void onRetry(URL url, int responseCode, IOException failure, long delayMillis);
+    }
+
+    /** Failures in a row that open the circuit breaker of a host */
+    private static final int FAILURE_THRESHOLD = 5;
+
+    /** Time the requests to a failing host are refused before one probes it */
+    private static final long OPEN_MILLIS = 30000;
+
+    /** Percentile of the time to the response headers after which a request is hedged */
+    private static final int HEDGE_PERCENTILE = 95;
+
+    /** Number of recent requests the hedging delay is computed from */
+    private static final int LATENCY_WINDOW_SIZE = 100;
+
+    /** No hedging until this many requests have been timed */
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    /** Hedges are kept under this fraction of the attempts */
+    private static final double MAX_HEDGE_RATIO = 0.1;
+
+    /** Maximum number of attempts run in the background at once, for hedging */
+    private static final int MAX_HEDGING_THREADS = 4;
+
+    /**
+     * Java priority of a hedge, THREAD_PRIORITY_BACKGROUND on Android. The first attempt
+     * runs at the priority of the caller.
+     */
+    private static final int HEDGE_THREAD_PRIORITY = Thread.NORM_PRIORITY - 1;
+
+    /** Time an idle hedging thread is kept */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final Metrics.Counter sRetries = Metrics.counter("http.retries");
+    private static final Metrics.Counter sHedges = Metrics.counter("http.hedges");
+    private static final Metrics.Counter sHedgeWins = Metrics.counter("http.hedge_wins");
+    private static final Metrics.Counter sCircuitRejections =
+            Metrics.counter("http.circuit_rejections");
+
+    private final HttpTransport mDelegate;
+    private final RetryPolicy mPolicy;
+    private final Random mRandom = new Random();
+
+    /** Circuit breakers, by host. Guarded by itself. */
+    private final Map<String, CircuitBreaker> mBreakers = new HashMap<String, CircuitBreaker>();
+
+    private final LatencyWindow mHeaderTimes = new LatencyWindow(LATENCY_WINDOW_SIZE);
+    private final AtomicLong mAttempts = new AtomicLong();
+    private final AtomicLong mHedges = new AtomicLong();
+
+    /**
+     * Runs the attempts that may be hedged, so the caller can wait for either. When all
+     * its threads are busy, requests are not hedged.
+     */
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(MAX_HEDGING_THREADS,
+            MAX_HEDGING_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new AttemptThreadFactory());
+
+    private volatile boolean mHedging;
+
+    private volatile RetryListener mRetryListener;
+
+    /**
+     * @param delegate the transport that actually performs the requests
+     * @param policy   when to retry them
+     */
+    ResilientTransport(HttpTransport delegate, RetryPolicy policy) {
+        mDelegate = delegate;
+        mPolicy = policy;
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Send a second request when the first is slower than most, off by default.
+     */
+    void setHedging(boolean hedging) {
+        mHedging = hedging;
+    }
+
+    /**
+     * Set the listener told about the retries, or null for none, the default.
+     */
+    void setRetryListener(RetryListener listener) {
+        mRetryListener = listener;
+    }
+
+    @Override
+    public Exchange execute(URL url) throws IOException {
+        CircuitBreaker breaker = getBreaker(url.getHost());
+        IOException failure = null;
+        for (int attempt = 1; ; attempt++) {
+            if (!breaker.allowRequest(nanoTime())) {
+                sCircuitRejections.increment();
+                CircuitOpenException rejection = new CircuitOpenException(url.getHost());
+                if (failure != null) {
+                    rejection.initCause(failure);
+                }
+                throw rejection;
+            }
+
+            Exchange exchange = null;
+            long retryAfterMillis = -1;
+            try {
+                exchange = attempt(url);
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // Cancelled, not the host's fault, and not worth retrying
+                    throw e;
+                }
+                breaker.onFailure(nanoTime());
+                failure = e;
+            }
+            if (exchange != null) {
+                if (!RetryPolicy.isRetryable(exchange.responseCode)) {
+                    breaker.onSuccess();
+                    return exchange;
+                }
+                breaker.onFailure(nanoTime());
+                retryAfterMillis = RetryPolicy.parseRetryAfter(exchange.retryAfter,
+                        System.currentTimeMillis());
+            }
+
+            long delayMillis = attempt < mPolicy.getMaxAttempts()
+                    ? mPolicy.getDelayMillis(attempt, retryAfterMillis, mRandom) : -1;
+            if (delayMillis < 0) {
+                // Out of attempts: the caller gets the error response, or the failure
+                if (exchange != null) {
+                    return exchange;
+                }
+                throw failure;
+            }
+            RetryListener listener = mRetryListener;
+            if (listener != null) {
+                listener.onRetry(url, exchange != null ? exchange.responseCode : -1,
+                        exchange != null ? null : failure, delayMillis);
+            }
+            if (exchange != null) {
+                discard(exchange);
+            }
+            sRetries.increment();
+            sleep(delayMillis);
+        }
+    }
+
+    /**
+     * Wait for the given time. Tests override it to count the time instead.
+     *
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Returns the current time, for the circuit breakers. Tests override it to move it
+     * forward without waiting.
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Returns the circuit breaker of the given host, creating it if needed.
+     */
+    CircuitBreaker getBreaker(String host) {
+        synchronized (mBreakers) {
+            CircuitBreaker breaker = mBreakers.get(host);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(FAILURE_THRESHOLD,
+                        TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS));
+                mBreakers.put(host, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * Make one attempt at the request, hedged if it is enabled and the recent requests
+     * have been timed.
+     */
+    private Exchange attempt(URL url) throws IOException {
+        mAttempts.incrementAndGet();
+        long hedgeDelayNanos = mHedging
+                ? mHeaderTimes.getPercentile(HEDGE_PERCENTILE, MIN_LATENCY_SAMPLES) : -1;
+        if (hedgeDelayNanos < 0) {
+            return executeTimed(url);
+        }
+        return executeHedged(url, hedgeDelayNanos);
+    }
+
+    /**
+     * Make the request, timing its response headers if they come from the network.
+     */
+    private Exchange executeTimed(URL url) throws IOException {
+        long start = System.nanoTime();
+        Exchange exchange = mDelegate.execute(url);
+        if (!exchange.fromCache) {
+            mHeaderTimes.add(System.nanoTime() - start);
+        }
+        return exchange;
+    }
+
+    /**
+     * Make the request in the background, and again if it hasn't answered by the given
+     * delay, returning the first response. The other one is cancelled, and its response
+     * discarded if it comes anyway. Without a thread to spare, the request is just made.
+     */
+    private Exchange executeHedged(URL url, long hedgeDelayNanos) throws IOException {
+        HedgedCall call = new HedgedCall();
+        Future<?> primary = call.submit(url, false, Thread.currentThread().getPriority());
+        if (primary == null) {
+            return executeTimed(url);
+        }
+        Future<?> hedge = null;
+        try {
+            Exchange exchange = call.await(hedgeDelayNanos);
+            if (exchange == null) {
+                if (mHedges.get() < mAttempts.get() * MAX_HEDGE_RATIO) {
+                    hedge = call.submit(url, true, HEDGE_THREAD_PRIORITY);
+                    if (hedge != null) {
+                        mHedges.incrementAndGet();
+                        sHedges.increment();
+                    }
+                }
+                exchange = call.await(-1);
+            }
+            if (call.isHedgeWinner()) {
+                sHedgeWins.increment();
+            }
+            return exchange;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            call.abandon();
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Release the connection of a response that won't be used.
+     */
+    private static void discard(Exchange exchange) {
+        if (exchange.body == null) {
+            return;
+        }
+        try {
+            exchange.body.close();
+        } catch (IOException e) {
+            // Nothing to do, it's not used
+        }
+    }
+
+    /**
+     * The attempts of a hedged request: the first response wins, the other is discarded.
+     */
+    private final class HedgedCall {
+
+        // Guarded by this
+        private Exchange mWinner;
+        private boolean mHedgeWinner;
+        private IOException mFailure;
+        private int mRunning;
+        private boolean mAbandoned;
+
+        /**
+         * Start an attempt at the given thread priority.
+         *
+         * @return its future, or null if there is no thread to run it
+         */
+        Future<?> submit(final URL url, final boolean hedge, final int priority) {
+            synchronized (this) {
+                mRunning++;
+            }
+            try {
+                return mExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        Thread.currentThread().setPriority(priority);
+                        Exchange exchange;
+                        try {
+                            exchange = executeTimed(url);
+                        } catch (IOException e) {
+                            onFailure(e);
+                            return;
+                        } catch (RuntimeException e) {
+                            onFailure(new IOException(e));
+                            return;
+                        }
+                        onExchange(exchange, hedge);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    mRunning--;
+                }
+                return null;
+            }
+        }
+
+        private synchronized void onExchange(Exchange exchange, boolean hedge) {
+            mRunning--;
+            if (mWinner != null || mAbandoned) {
+                discard(exchange);
+                return;
+            }
+            mWinner = exchange;
+            mHedgeWinner = hedge;
+            notifyAll();
+        }
+
+        private synchronized void onFailure(IOException e) {
+            mRunning--;
+            if (mFailure == null) {
+                mFailure = e;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Wait for the first response, or for all the attempts to fail.
+         *
+         * @param timeoutNanos time to wait at most, or -1 to wait as long as it takes
+         * @return the first response, or null if there is none yet after the timeout
+         * @throws IOException if all the attempts have failed
+         */
+        synchronized Exchange await(long timeoutNanos)
+                throws IOException, InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (mWinner == null && mRunning > 0) {
+                if (timeoutNanos < 0) {
+                    wait();
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+            if (mWinner != null) {
+                return mWinner;
+            }
+            throw mFailure;
+        }
+
+        synchronized boolean isHedgeWinner() {
+            return mHedgeWinner;
+        }
+
+        /**
+         * The caller is done: responses still to come are discarded.
+         */
+        synchronized void abandon() {
+            mAbandoned = true;
+        }
+    }
+
+    /**
+     * The time to the response headers of the most recent requests.
+     */
+    private static final class LatencyWindow {
+
+        // Guarded by this
+        private final long[] mSamples;
+        private int mCount;
+        private int mNext;
+
+        LatencyWindow(int size) {
+            mSamples = new long[size];
+        }
+
+        synchronized void add(long nanos) {
+            mSamples[mNext] = nanos;
+            mNext = (mNext + 1) % mSamples.length;
+            mCount = Math.min(mCount + 1, mSamples.length);
+        }
+
+        /**
+         * Returns the given percentile of the samples, or -1 if there are fewer than
+         * minSamples of them.
+         */
+        long getPercentile(int percentile, int minSamples) {
+            long[] sorted;
+            synchronized (this) {
+                if (mCount < minSamples) {
+                    return -1;
+                }
+                sorted = Arrays.copyOf(mSamples, mCount);
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, index)];
+        }
+    }
+
+    /**
+     * Thrown instead of making a request to a host whose circuit breaker is open.
+     */
+    static final class CircuitOpenException extends IOException {
+        CircuitOpenException(String host) {
+            super("Circuit breaker open for " + host + ", not sending the request");
+        }
+    }
+
+    private static final class AttemptThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    "ResilientTransport #" + mCount.incrementAndGet());
+            thread.setPriority(HEDGE_THREAD_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
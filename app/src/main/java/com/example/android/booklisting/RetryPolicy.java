@@ -0,0 +1,130 @@
+package com.example.android.booklisting;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * When and how long to wait before retrying a failed request.
+ * <p>
+ * Delays grow exponentially with the number of the retry, up to a cap, and are drawn at
+ * random below that bound ("full jitter"), so clients that failed together don't all come
+ * back at the same time. A delay asked by the server with Retry-After is used instead, as
+ * long as it is within the cap.
+ */
+final class RetryPolicy {
+
+    /** No more than this many attempts in all, the first one included */
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private static final long DEFAULT_BASE_DELAY_MILLIS = 200;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+
+    /** Format of Retry-After when it is a date, as in RFC 7231 */
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+
+    /**
+     * @param maxAttempts     number of attempts in all, 1 for no retries
+     * @param baseDelayMillis bound of the delay before the first retry, doubled for each
+     *                        of the following ones
+     * @param maxDelayMillis  longest delay, whether drawn or asked by the server
+     */
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is needed: " + maxAttempts);
+        }
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Returns the policy used for the requests to the Books API.
+     */
+    static RetryPolicy getDefault() {
+        return new RetryPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS,
+                DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * Whether a response with the given code is worth retrying: the server is overloaded
+     * or had a transient failure. Other errors would fail the same way again.
+     */
+    static boolean isRetryable(int responseCode) {
+        switch (responseCode) {
+            case 408: // Request Timeout
+            case 429: // Too Many Requests
+            case 500: // Internal Server Error
+            case 502: // Bad Gateway
+            case 503: // Service Unavailable
+            case 504: // Gateway Timeout
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns how long to wait before the given retry.
+     *
+     * @param retry             number of the retry, starting at 1
+     * @param retryAfterMillis  delay asked by the server, or -1 if it didn't ask for one
+     * @param random            source of the jitter
+     * @return the delay, or -1 if the server asked for more than the longest delay, in which
+     * case the request shouldn't be retried
+     */
+    long getDelayMillis(int retry, long retryAfterMillis, Random random) {
+        if (retryAfterMillis >= 0) {
+            return retryAfterMillis <= mMaxDelayMillis ? retryAfterMillis : -1;
+        }
+        // Shifting by more than this could overflow, and the cap is reached long before
+        long bound = mBaseDelayMillis << Math.min(retry - 1, 30);
+        if (bound <= 0 || bound > mMaxDelayMillis) {
+            bound = mMaxDelayMillis;
+        }
+        return (long) (random.nextDouble() * bound);
+    }
+
+    /**
+     * Parse the value of a Retry-After header, either a number of seconds or a date.
+     *
+     * @param value       the header value, may be null
+     * @param nowMillis   current time, to turn a date into a delay
+     * @return the delay in milliseconds, or -1 if there is none or it can't be parsed
+     */
+    static long parseRetryAfter(String value, long nowMillis) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        if (value.isEmpty()) {
+            return -1;
+        }
+        if (Character.isDigit(value.charAt(0))) {
+            try {
+                return Long.parseLong(value) * 1000;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - nowMillis);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.content.Loader;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link Loader} that runs {@link #loadInBackground()} in a lane of the
+ * {@link RequestScheduler}, instead of the shared executor of AsyncTaskLoader.
+ * <p>
+ * It works as an AsyncTaskLoader does: {@link #forceLoad()} starts a load, cancelling
+ * the one in progress, whose result is passed to {@link #onCanceled(Object)} instead of
+ * being delivered. Cancelling a load also interrupts it, and resetting the loader cancels
+ * its work, so nothing keeps running for an activity that has been destroyed.
+ * <p>
+ * What is loaded in the background is handed to {@link #onLoaded(Object)} on the main
+ * thread, which delivers it, so a load can carry more than the delivered data. A load that
+ * throws is logged and handed over as null, as AsyncTaskLoader would deliver a null result.
+ *
+ * @param <R> the type of what is loaded in the background
+ * @param <D> the type of the delivered result
+ */
+public abstract class ScheduledLoader<R, D> extends Loader<D> {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = ScheduledLoader.class.getName();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Current load, queued or running, only accessed from the UI thread */
+    private LoadTask mTask;
+
+    /**
+     * Load cancelled while running, whose result is still to come. As in AsyncTaskLoader,
+     * the next load waits for it, so two loads never run at the same time.
+     */
+    private LoadTask mCancellingTask;
+
+    /**
+     * @param context of the activity
+     */
+    public ScheduledLoader(Context context) {
+        super(context);
+    }
+
+    /**
+     * Load the result. This is on a background thread, which is interrupted if the load
+     * is cancelled.
+     */
+    public abstract R loadInBackground();
+
+    /**
+     * Called on the main thread with the result of a load that wasn't cancelled, or null if
+     * it failed, to deliver it with {@link #deliverResult(Object)}.
+     */
+    protected abstract void onLoaded(R result);
+
+    /**
+     * Lane of the {@link RequestScheduler} the next load runs in. Interactive by default.
+     */
+    protected int getLane() {
+        return RequestScheduler.LANE_INTERACTIVE;
+    }
+
+    @Override
+    protected void onForceLoad() {
+        super.onForceLoad();
+        cancelLoad();
+        mTask = new LoadTask();
+        executePendingTask();
+    }
+
+    /**
+     * Cancel the current load, if any. A queued load is dropped, a running one is
+     * interrupted and its result handed to {@link #onCanceled(Object)} when it is done.
+     *
+     * @return true if there was a load to cancel
+     */
+    public boolean cancelLoad() {
+        LoadTask task = mTask;
+        if (task == null) {
+            return false;
+        }
+        mTask = null;
+        if (task.mFuture == null) {
+            // Still waiting for the cancelling task, never queued
+            return false;
+        }
+        if (task.mState.compareAndSet(LoadTask.QUEUED, LoadTask.CANCELLED)) {
+            // It never ran, there is no result to hand over
+            task.mFuture.cancel(false);
+            onCanceled(null);
+            return true;
+        }
+        mCancellingTask = task;
+        task.mFuture.cancel(true);
+        return true;
+    }
+
+    /**
+     * Called with the result of a load that was cancelled, or null if it never ran,
+     * so it can be released.
+     */
+    public void onCanceled(R result) {
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        // Drop whatever is queued for this loader
+        RequestScheduler.getInstance().cancelAll(this);
+    }
+
+    private void executePendingTask() {
+        if (mCancellingTask == null && mTask != null && mTask.mFuture == null) {
+            mTask.mFuture = RequestScheduler.getInstance().submit(getLane(), this, mTask);
+        }
+    }
+
+    private void dispatchResult(LoadTask task, R result) {
+        if (task == mCancellingTask) {
+            mCancellingTask = null;
+            onCanceled(result);
+            executePendingTask();
+        } else if (task != mTask || isAbandoned()) {
+            onCanceled(result);
+        } else {
+            mTask = null;
+            onLoaded(result);
+        }
+    }
+
+    /**
+     * A load, run in the scheduler.
+     */
+    private final class LoadTask implements Runnable {
+
+        static final int QUEUED = 0;
+        static final int RUNNING = 1;
+        static final int CANCELLED = 2;
+
+        final AtomicInteger mState = new AtomicInteger(QUEUED);
+        Future<?> mFuture;
+
+        @Override
+        public void run() {
+            if (!mState.compareAndSet(QUEUED, RUNNING)) {
+                return;
+            }
+            R result;
+            try {
+                result = loadInBackground();
+            } catch (RuntimeException e) {
+                // Hand it over as a failed load, instead of losing it in the future
+                Log.e(LOG_TAG, "An error occurred while executing loadInBackground()", e);
+                result = null;
+            }
+            final R loaded = result;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    dispatchResult(LoadTask.this, loaded);
+                }
+            });
+        }
+    }
+}
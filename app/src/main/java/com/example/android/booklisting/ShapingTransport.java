@@ -0,0 +1,222 @@
+package com.example.android.booklisting;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link HttpTransport} that makes the requests of another one look like they went through
+ * a slow or unreliable network, to reproduce that behavior in tests and benchmarks.
+ * <p>
+ * Each request can be given:
+ * <ul>
+ * <li>a latency, before the response headers: a base time plus an exponentially
+ * distributed jitter, which gives the long tail of a mobile network,</li>
+ * <li>a bandwidth cap on the body,</li>
+ * <li>stalls, pauses while the body is read, as when packets are lost and retransmitted,</li>
+ * <li>a failure before the response, or a body cut short.</li>
+ * </ul>
+ * All of them are drawn from a random generator seeded with the seed and the number of the
+ * request, so the n-th request is shaped the same way on every run, whatever the threads.
+ * Nothing is shaped until it is configured.
+ */
+class ShapingTransport implements HttpTransport {
+
+    /** Bytes read at most at once, so bandwidth and stalls apply along the whole body */
+    private static final int CHUNK_SIZE = 1024;
+
+    /** Bodies are cut short within this many bytes of their start */
+    private static final int MAX_TRUNCATE_OFFSET = 16 * 1024;
+
+    /** Spreads the seeds of consecutive requests */
+    private static final long SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+
+    private final HttpTransport mDelegate;
+    private final long mSeed;
+    private final AtomicLong mRequestCount = new AtomicLong();
+
+    private volatile long mBaseLatencyMillis;
+    private volatile long mMeanJitterMillis;
+    private volatile long mBytesPerSecond;
+    private volatile double mStallProbability;
+    private volatile long mStallMillis;
+    private volatile double mFailureRate;
+    private volatile double mTruncateRate;
+
+    /**
+     * @param delegate the transport that actually performs the requests
+     * @param seed     seed of the shaping, equal seeds shape requests equally
+     */
+    ShapingTransport(HttpTransport delegate, long seed) {
+        mDelegate = delegate;
+        mSeed = seed;
+    }
+
+    /**
+     * Delay the response headers by the base latency plus an exponentially distributed jitter.
+     *
+     * @param baseMillis       latency of every request
+     * @param meanJitterMillis mean of the extra latency, 0 for none
+     */
+    void setLatency(long baseMillis, long meanJitterMillis) {
+        mBaseLatencyMillis = baseMillis;
+        mMeanJitterMillis = meanJitterMillis;
+    }
+
+    /**
+     * Limit the rate at which the body is read, 0 for no limit.
+     */
+    void setBandwidth(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Pause for the given time, with the given probability, every time a chunk of the body
+     * is read.
+     */
+    void setStalls(double probabilityPerChunk, long stallMillis) {
+        mStallProbability = probabilityPerChunk;
+        mStallMillis = stallMillis;
+    }
+
+    /**
+     * Fail this fraction of the requests with an IOException, after the latency.
+     */
+    void setFailureRate(double failureRate) {
+        mFailureRate = failureRate;
+    }
+
+    /**
+     * Cut short the body of this fraction of the requests, with an IOException when read.
+     */
+    void setTruncateRate(double truncateRate) {
+        mTruncateRate = truncateRate;
+    }
+
+    @Override
+    public Exchange execute(URL url) throws IOException {
+        Random random = new Random(mSeed + mRequestCount.getAndIncrement() * SEED_INCREMENT);
+
+        // Draw everything up front, so a request is shaped the same way whatever the
+        // delegate and the body do
+        long latencyMillis = mBaseLatencyMillis + exponential(random, mMeanJitterMillis);
+        boolean fail = random.nextDouble() < mFailureRate;
+        long truncateAt = random.nextDouble() < mTruncateRate
+                ? random.nextInt(MAX_TRUNCATE_OFFSET) : -1;
+        long streamSeed = random.nextLong();
+
+        long start = System.nanoTime();
+        sleep(latencyMillis);
+        long latencyNanos = System.nanoTime() - start;
+        if (fail) {
+            throw new IOException("Request to " + url + " failed by the shaping transport");
+        }
+
+        Exchange exchange = mDelegate.execute(url);
+        InputStream body = exchange.body == null ? null
+                : new ShapedInputStream(exchange.body, new Random(streamSeed), truncateAt);
+        return new Exchange(exchange.responseCode, exchange.contentEncoding, body,
+                exchange.connectNanos, exchange.firstByteNanos + latencyNanos,
+                exchange.retryAfter, exchange.fromCache);
+    }
+
+    /**
+     * Wait for the given time. Tests override it to count the time instead.
+     *
+     * @throws InterruptedIOException if the thread is interrupted, as a blocked read would be
+     */
+    void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static long exponential(Random random, long mean) {
+        if (mean <= 0) {
+            return 0;
+        }
+        return Math.round(-Math.log(1 - random.nextDouble()) * mean);
+    }
+
+    /**
+     * The body of a shaped response.
+     */
+    private final class ShapedInputStream extends FilterInputStream {
+
+        private final Random mRandom;
+        private final long mTruncateAt;
+        private long mPosition;
+
+        /** Time owed to the bandwidth cap and not slept yet */
+        private long mOwedNanos;
+
+        ShapedInputStream(InputStream in, Random random, long truncateAt) {
+            super(in);
+            mRandom = random;
+            mTruncateAt = truncateAt;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mTruncateAt >= 0 && mPosition >= mTruncateAt) {
+                throw new IOException("Body cut short by the shaping transport");
+            }
+            int limit = Math.min(length, CHUNK_SIZE);
+            if (mTruncateAt >= 0) {
+                limit = (int) Math.min(limit, mTruncateAt - mPosition);
+            }
+            int n = super.read(buffer, offset, limit);
+            if (n <= 0) {
+                return n;
+            }
+            mPosition += n;
+
+            if (mRandom.nextDouble() < mStallProbability) {
+                sleep(mStallMillis);
+            }
+            long bytesPerSecond = mBytesPerSecond;
+            if (bytesPerSecond > 0) {
+                mOwedNanos += n * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+                long owedMillis = TimeUnit.NANOSECONDS.toMillis(mOwedNanos);
+                if (owedMillis > 0) {
+                    sleep(owedMillis);
+                    mOwedNanos -= TimeUnit.MILLISECONDS.toNanos(owedMillis);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Read through skips, so they are shaped too
+            byte[] buffer = new byte[(int) Math.min(n, CHUNK_SIZE)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.android.booklisting;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses identical concurrent calls into one.
+ * <p>
+ * The first caller for a key starts the call, and callers arriving with the same key while
+ * it is in flight wait for it and share its result, instead of running it again. The call
+ * runs on its own thread, so it isn't tied to any one caller: a caller that is interrupted
+ * just stops waiting, and the call is only cancelled when no caller is waiting for it anymore.
+ * <p>
+ * The call runs at the thread priority of the caller that started it, so a call started
+ * from a prefetch lane of the {@link RequestScheduler} stays in the background. There are
+ * a few threads for the calls; when they are all busy, calls wait for one in a queue.
+ *
+ * @param <T> the type of the result
+ */
+public final class SingleFlight<T> {
+
+    /** Default number of calls run at once */
+    private static final int DEFAULT_MAX_THREADS = 4;
+
+    /** Time an idle thread is kept */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /** Calls in flight, by key. Guarded by this. */
+    private final Map<String, Flight<T>> mFlights = new HashMap<String, Flight<T>>();
+
+    private final AtomicLong mCalls = new AtomicLong();
+    private final AtomicLong mCollapsed = new AtomicLong();
+
+    public SingleFlight() {
+        this(DEFAULT_MAX_THREADS);
+    }
+
+    /**
+     * @param maxThreads maximum number of calls run at once
+     */
+    public SingleFlight(int maxThreads) {
+        mExecutor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new FlightThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run the call for the given key, or wait for the one already in flight.
+     *
+     * @param key      identifies the call, callers with equal keys share the result
+     * @param callable the call, only run if there is none in flight for the key
+     * @return the result of the call
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     * @throws ExecutionException   if the call threw an exception
+     */
+    public T execute(String key, Callable<T> callable)
+            throws InterruptedException, ExecutionException {
+        mCalls.incrementAndGet();
+
+        final Flight<T> flight;
+        synchronized (this) {
+            Flight<T> existing = mFlights.get(key);
+            if (existing != null) {
+                mCollapsed.incrementAndGet();
+                flight = existing;
+            } else {
+                flight = new Flight<T>();
+                mFlights.put(key, flight);
+                flight.future = mExecutor.submit(new FlightCall(key, flight, callable,
+                        Thread.currentThread().getPriority()));
+            }
+            flight.waiters++;
+        }
+
+        try {
+            return flight.future.get();
+        } catch (CancellationException e) {
+            // Only cancelled when all the waiters left, which includes this one
+            throw new InterruptedException();
+        } finally {
+            leave(key, flight);
+        }
+    }
+
+    /**
+     * Number of calls made to {@link #execute(String, Callable)}.
+     */
+    public long getCallCount() {
+        return mCalls.get();
+    }
+
+    /**
+     * Number of calls that shared the result of a call already in flight.
+     */
+    public long getCollapsedCount() {
+        return mCollapsed.get();
+    }
+
+    /**
+     * Stop waiting for a flight, cancelling it if this was the last waiter.
+     */
+    private synchronized void leave(String key, Flight<T> flight) {
+        flight.waiters--;
+        if (flight.waiters == 0 && !flight.future.isDone()) {
+            flight.future.cancel(true);
+            removeFlight(key, flight);
+        }
+    }
+
+    private synchronized void removeFlight(String key, Flight<T> flight) {
+        // A new flight may have been started for the key already
+        if (mFlights.get(key) == flight) {
+            mFlights.remove(key);
+        }
+    }
+
+    /**
+     * Runs the call and forgets the flight once done, so later callers start a new one.
+     */
+    private final class FlightCall implements Callable<T> {
+        private final String mKey;
+        private final Flight<T> mFlight;
+        private final Callable<T> mCallable;
+        private final int mPriority;
+
+        FlightCall(String key, Flight<T> flight, Callable<T> callable, int priority) {
+            mKey = key;
+            mFlight = flight;
+            mCallable = callable;
+            mPriority = priority;
+        }
+
+        @Override
+        public T call() throws Exception {
+            Thread thread = Thread.currentThread();
+            int priority = thread.getPriority();
+            thread.setPriority(mPriority);
+            try {
+                return mCallable.call();
+            } finally {
+                thread.setPriority(priority);
+                removeFlight(mKey, mFlight);
+            }
+        }
+    }
+
+    /**
+     * A call in flight and the number of callers waiting for it. Guarded by the SingleFlight.
+     */
+    private static final class Flight<T> {
+        Future<T> future;
+        int waiters;
+    }
+
+    private static final class FlightThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SingleFlight #" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
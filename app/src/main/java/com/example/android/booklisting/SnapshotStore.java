@@ -0,0 +1,193 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps the last results of the most recent queries on disk, as {@link BookSnapshot}s,
+ * so they can be shown on a cold start while the network request is in flight.
+ * <p>
+ * Snapshots are written in the background, to a temporary file renamed when complete,
+ * so a killed process never leaves a partial snapshot behind. At most {@link #MAX_FILES}
+ * are kept, the least recently used are deleted.
+ */
+public final class SnapshotStore {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = SnapshotStore.class.getSimpleName();
+
+    /** Time to restore a snapshot, see {@link Metrics} */
+    private static final Metrics.Histogram sRestoreTime = Metrics.timer("snapshot.restore");
+
+    /** Directory in the cache dir */
+    private static final String SNAPSHOT_DIR = "snapshots";
+
+    /** Maximum number of snapshots kept */
+    private static final int MAX_FILES = 10;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static SnapshotStore sInstance;
+
+    private final File mDir;
+
+    /** Single thread, so the writes of a query are done in order */
+    private final ExecutorService mExecutor;
+
+    private SnapshotStore(Context context) {
+        mDir = new File(context.getCacheDir(), SNAPSHOT_DIR);
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "SnapshotStore");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the store shared by the whole process.
+     */
+    public static synchronized SnapshotStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SnapshotStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Write the results of a query in the background, replacing the previous ones.
+     *
+     * @param queryUrl the query URL
+     * @param books    the results, which must not be modified afterwards
+     */
+    public void saveAsync(String queryUrl, List<Book> books) {
+        final String key = QueryUtils.normalizeUrl(queryUrl);
+        if (key == null || books == null || books.isEmpty()) {
+            return;
+        }
+        final List<Book> snapshot = new ArrayList<Book>(books);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                save(key, snapshot);
+            }
+        });
+    }
+
+    /**
+     * Read the last results of a query. This does disk I/O and must be called from
+     * a background thread.
+     *
+     * @param queryUrl the query URL
+     * @return the results, or null if there is no valid snapshot for the query
+     */
+    public List<Book> load(String queryUrl) {
+        String key = QueryUtils.normalizeUrl(queryUrl);
+        if (key == null) {
+            return null;
+        }
+        File file = snapshotFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+            try {
+                List<Book> books = BookSnapshot.read(in, file.length(), key);
+                if (books != null) {
+                    // Mark it as recently used
+                    file.setLastModified(System.currentTimeMillis());
+                    sRestoreTime.recordSince(start);
+                }
+                return books;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Corrupt, or from another version of the app
+            Log.e(LOG_TAG, "Problem reading snapshot", e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private void save(String key, List<Book> books) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            return;
+        }
+        File file = snapshotFile(key);
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile),
+                    BUFFER_SIZE);
+            try {
+                BookSnapshot.write(out, key, books);
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            // Not fatal, the results will come from the network
+            Log.e(LOG_TAG, "Problem writing snapshot", e);
+            tempFile.delete();
+        }
+        trim();
+    }
+
+    /**
+     * Delete the least recently used snapshots over {@link #MAX_FILES}.
+     */
+    private void trim() {
+        File[] files = mDir.listFiles();
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = b.lastModified() - a.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (int i = MAX_FILES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * The file of a query. Named by the hash of the key, collisions are detected
+     * when reading, as the key is stored in the snapshot.
+     */
+    private File snapshotFile(String key) {
+        return new File(mDir, Integer.toHexString(key.hashCode()) + ".snapshot");
+    }
+}
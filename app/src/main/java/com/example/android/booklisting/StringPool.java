@@ -0,0 +1,56 @@
+package com.example.android.booklisting;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of shared instances for low-cardinality Strings, such as identifier types,
+ * language codes and publisher names, which are repeated across many books.
+ * <p>
+ * Unlike {@link String#intern()}, the pool is bounded: once it holds {@link #MAX_SIZE}
+ * values, new values are returned as they are.
+ */
+final class StringPool {
+
+    /** Maximum number of distinct values kept */
+    static final int MAX_SIZE = 4096;
+
+    private static final Map<String, String> sValues = new HashMap<String, String>();
+
+    private StringPool() {
+    }
+
+    /**
+     * Returns the shared instance equal to the given String, adding it to the pool
+     * if there is room.
+     *
+     * @return the shared instance, the given String if the pool is full, or null if null
+     */
+    static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.isEmpty()) {
+            return "";
+        }
+        synchronized (sValues) {
+            String shared = sValues.get(value);
+            if (shared != null) {
+                return shared;
+            }
+            if (sValues.size() < MAX_SIZE) {
+                sValues.put(value, value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Number of distinct values in the pool.
+     */
+    static int size() {
+        synchronized (sValues) {
+            return sValues.size();
+        }
+    }
+}
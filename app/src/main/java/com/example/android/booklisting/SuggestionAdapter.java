@@ -0,0 +1,56 @@
+package com.example.android.booklisting;
+
+import android.content.Context;
+import android.widget.ArrayAdapter;
+import android.widget.Filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adapter of the search box suggestions, from the {@link QueryHistory}.
+ * <p>
+ * The suggestions for what has been typed are looked up by the filter, on its own
+ * background thread, so the first lookup can read the history from disk.
+ */
+public class SuggestionAdapter extends ArrayAdapter<String> {
+
+    /** Maximum number of suggestions shown */
+    private static final int MAX_SUGGESTIONS = 5;
+
+    private final QueryHistory mHistory;
+    private final Filter mFilter = new SuggestionFilter();
+
+    public SuggestionAdapter(Context context) {
+        super(context, android.R.layout.simple_dropdown_item_1line, new ArrayList<String>());
+        mHistory = QueryHistory.getInstance(context);
+    }
+
+    @Override
+    public Filter getFilter() {
+        return mFilter;
+    }
+
+    private final class SuggestionFilter extends Filter {
+
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            List<String> suggestions = constraint == null ? new ArrayList<String>()
+                    : mHistory.suggest(constraint.toString(), MAX_SUGGESTIONS);
+            FilterResults results = new FilterResults();
+            results.values = suggestions;
+            results.count = suggestions.size();
+            return results;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            clear();
+            if (results != null && results.values != null) {
+                addAll((List<String>) results.values);
+            }
+            notifyDataSetChanged();
+        }
+    }
+}
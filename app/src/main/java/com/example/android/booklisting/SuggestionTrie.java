@@ -0,0 +1,351 @@
+package com.example.android.booklisting;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Prefix trie of search suggestions, ranked by how often and how recently they were used.
+ * <p>
+ * Nodes are held in parallel arrays, one char per node, instead of one object each, which
+ * keeps a few thousand suggestions in some tens of kilobytes. Each node also has the best
+ * rank below it, so the top suggestions for a prefix are found best first, without visiting
+ * the rest of the subtree.
+ * <p>
+ * The rank of a suggestion is the base-2 log of its uses, each decayed by half every
+ * {@link #HALF_LIFE_MILLIS}, plus the time of the ranking in half-lives. Adding the time
+ * makes ranks comparable whenever they were computed, so they never have to be refreshed
+ * as time passes, and a use only raises the ranks on its own path.
+ * <p>
+ * The trie is kept within a memory budget: when it is exceeded, the lowest ranked
+ * suggestions are dropped and the trie rebuilt. It is not thread-safe.
+ */
+final class SuggestionTrie {
+
+    /** Time after which a use counts half */
+    static final long HALF_LIFE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+    /** Longer suggestions are not kept */
+    static final int MAX_LENGTH = 80;
+
+    /** Approximate size of a node in the arrays */
+    private static final int NODE_BYTES = 2 + 4 + 4 + 4 + 8;
+
+    /** Approximate size of a suggestion, besides its chars: the String, its rank and id */
+    private static final int SUGGESTION_BYTES = 40 + 8 + 4;
+
+    /** Once over the budget, suggestions are dropped until this fraction of it is used */
+    private static final double TRIM_RATIO = 0.75;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private final long mBudgetBytes;
+
+    // Nodes
+    private char[] mLabels;
+    private int[] mFirstChild;
+    private int[] mNextSibling;
+    private int[] mSuggestionOf;
+    private double[] mBestRank;
+    private int mNodeCount;
+
+    // Suggestions, by id
+    private String[] mSuggestions;
+    private double[] mRanks;
+    private int mSuggestionCount;
+    private long mSuggestionChars;
+
+    /**
+     * @param budgetBytes approximate memory the trie is kept within
+     */
+    SuggestionTrie(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+        clear();
+    }
+
+    /**
+     * Record a use of a suggestion.
+     *
+     * @param suggestion the suggestion, as it is shown
+     * @param weight     how much the use counts, 1 for a search typed by the user
+     * @param nowMillis  the time of the use
+     */
+    void add(String suggestion, double weight, long nowMillis) {
+        String display = collapse(suggestion);
+        if (display == null || weight <= 0) {
+            return;
+        }
+        double use = log2(weight) + (double) nowMillis / HALF_LIFE_MILLIS;
+        // Inserted first, as it may grow the arrays
+        int node = findOrInsert(normalize(display));
+        int id = mSuggestionOf[node];
+        double rank = id == NONE ? use : logSum(mRanks[id], use);
+        put(display, rank);
+        if (estimateBytes() > mBudgetBytes) {
+            trim((long) (mBudgetBytes * TRIM_RATIO));
+        }
+    }
+
+    /**
+     * Returns the best ranked suggestions starting with the given prefix, best first.
+     * Case and repeated spaces are ignored.
+     */
+    List<String> suggest(String prefix, int count) {
+        String key = prefix == null ? "" : normalize(prefix.replaceAll("^\\s+", ""));
+        int node = ROOT;
+        for (int i = 0; i < key.length() && node != NONE; i++) {
+            node = findChild(node, key.charAt(i));
+        }
+        if (node == NONE || count <= 0) {
+            return Collections.emptyList();
+        }
+
+        // Best first: nodes by the best rank below them, suggestions by their rank, encoded
+        // as -1 - id. As a node ranks no lower than anything below it, suggestions come out
+        // of the queue in order.
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(16, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(rankOf(b), rankOf(a));
+            }
+        });
+        queue.add(node);
+        List<String> suggestions = new ArrayList<String>(count);
+        while (!queue.isEmpty() && suggestions.size() < count) {
+            int entry = queue.poll();
+            if (entry < 0) {
+                suggestions.add(mSuggestions[-1 - entry]);
+                continue;
+            }
+            if (mSuggestionOf[entry] != NONE) {
+                queue.add(-1 - mSuggestionOf[entry]);
+            }
+            for (int child = mFirstChild[entry]; child != NONE; child = mNextSibling[child]) {
+                queue.add(child);
+            }
+        }
+        return suggestions;
+    }
+
+    int size() {
+        return mSuggestionCount;
+    }
+
+    /**
+     * Returns an estimate of the memory used by the trie.
+     */
+    long estimateBytes() {
+        return (long) mNodeCount * NODE_BYTES
+                + (long) mSuggestionCount * SUGGESTION_BYTES + mSuggestionChars * 2;
+    }
+
+    /**
+     * Write the suggestions and their ranks. The nodes are rebuilt when read.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(mSuggestionCount);
+        for (int id = 0; id < mSuggestionCount; id++) {
+            out.writeUTF(mSuggestions[id]);
+            out.writeDouble(mRanks[id]);
+        }
+    }
+
+    /**
+     * Read suggestions written by {@link #write(DataOutputStream)}, adding them to the trie.
+     *
+     * @throws IOException if they can't be read, in which case the trie is left empty
+     */
+    void read(DataInputStream in) throws IOException {
+        clear();
+        try {
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Negative suggestion count: " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                String suggestion = collapse(in.readUTF());
+                double rank = in.readDouble();
+                if (suggestion != null) {
+                    findOrInsert(normalize(suggestion));
+                    put(suggestion, rank);
+                }
+            }
+        } catch (IOException e) {
+            clear();
+            throw e;
+        }
+        if (estimateBytes() > mBudgetBytes) {
+            trim((long) (mBudgetBytes * TRIM_RATIO));
+        }
+    }
+
+    private void clear() {
+        mLabels = new char[INITIAL_CAPACITY];
+        mFirstChild = new int[INITIAL_CAPACITY];
+        mNextSibling = new int[INITIAL_CAPACITY];
+        mSuggestionOf = new int[INITIAL_CAPACITY];
+        mBestRank = new double[INITIAL_CAPACITY];
+        mNodeCount = 0;
+        mSuggestions = new String[INITIAL_CAPACITY];
+        mRanks = new double[INITIAL_CAPACITY];
+        mSuggestionCount = 0;
+        mSuggestionChars = 0;
+        newNode('\0');
+    }
+
+    /**
+     * Set the rank of a suggestion whose key is in the trie, as left by
+     * {@link #findOrInsert(String)}, and raise the best ranks along its path.
+     */
+    private void put(String display, double rank) {
+        String key = normalize(display);
+        int node = ROOT;
+        raiseBestRank(node, rank);
+        for (int i = 0; i < key.length(); i++) {
+            node = findChild(node, key.charAt(i));
+            raiseBestRank(node, rank);
+        }
+        int id = mSuggestionOf[node];
+        if (id == NONE) {
+            if (mSuggestionCount == mSuggestions.length) {
+                int capacity = mSuggestionCount * 2;
+                mSuggestions = Arrays.copyOf(mSuggestions, capacity);
+                mRanks = Arrays.copyOf(mRanks, capacity);
+            }
+            id = mSuggestionCount++;
+            mSuggestionOf[node] = id;
+        } else {
+            mSuggestionChars -= mSuggestions[id].length();
+        }
+        // Shown as it was last typed
+        mSuggestions[id] = display;
+        mSuggestionChars += display.length();
+        mRanks[id] = rank;
+    }
+
+    /**
+     * Returns the node of a key, inserting the missing nodes on its path.
+     */
+    private int findOrInsert(String key) {
+        int node = ROOT;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            int child = findChild(node, c);
+            if (child == NONE) {
+                child = newNode(c);
+                mNextSibling[child] = mFirstChild[node];
+                mFirstChild[node] = child;
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    private int findChild(int node, char c) {
+        for (int child = mFirstChild[node]; child != NONE; child = mNextSibling[child]) {
+            if (mLabels[child] == c) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    private int newNode(char label) {
+        if (mNodeCount == mLabels.length) {
+            int capacity = mNodeCount * 2;
+            mLabels = Arrays.copyOf(mLabels, capacity);
+            mFirstChild = Arrays.copyOf(mFirstChild, capacity);
+            mNextSibling = Arrays.copyOf(mNextSibling, capacity);
+            mSuggestionOf = Arrays.copyOf(mSuggestionOf, capacity);
+            mBestRank = Arrays.copyOf(mBestRank, capacity);
+        }
+        int node = mNodeCount++;
+        mLabels[node] = label;
+        mFirstChild[node] = NONE;
+        mNextSibling[node] = NONE;
+        mSuggestionOf[node] = NONE;
+        mBestRank[node] = Double.NEGATIVE_INFINITY;
+        return node;
+    }
+
+    private void raiseBestRank(int node, double rank) {
+        if (rank > mBestRank[node]) {
+            mBestRank[node] = rank;
+        }
+    }
+
+    private double rankOf(int entry) {
+        return entry < 0 ? mRanks[-1 - entry] : mBestRank[entry];
+    }
+
+    /**
+     * Keep the best ranked suggestions that fit in the given size, rebuilding the trie,
+     * so the nodes of the dropped ones are released too.
+     */
+    private void trim(long targetBytes) {
+        Integer[] order = new Integer[mSuggestionCount];
+        for (int id = 0; id < mSuggestionCount; id++) {
+            order[id] = id;
+        }
+        final double[] ranks = mRanks;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(ranks[b], ranks[a]);
+            }
+        });
+        String[] suggestions = mSuggestions;
+
+        clear();
+        for (int id : order) {
+            findOrInsert(normalize(suggestions[id]));
+            put(suggestions[id], ranks[id]);
+            if (estimateBytes() > targetBytes) {
+                // Over by at most one suggestion, still well within the budget
+                break;
+            }
+        }
+    }
+
+    /**
+     * Trim and collapse the spaces of a suggestion.
+     *
+     * @return the suggestion, or null if it is empty or too long
+     */
+    private static String collapse(String suggestion) {
+        if (suggestion == null) {
+            return null;
+        }
+        String collapsed = suggestion.trim().replaceAll("\\s+", " ");
+        return collapsed.isEmpty() || collapsed.length() > MAX_LENGTH ? null : collapsed;
+    }
+
+    /**
+     * Returns the key of a collapsed suggestion, which ignores case.
+     */
+    private static String normalize(String collapsed) {
+        return collapsed.replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static double log2(double value) {
+        return Math.log(value) / Math.log(2);
+    }
+
+    /**
+     * Returns log2(2^a + 2^b), without overflowing.
+     */
+    private static double logSum(double a, double b) {
+        double max = Math.max(a, b);
+        return max + log2(1 + Math.pow(2, Math.min(a, b) - max));
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.android.booklisting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * {@link HttpTransport} over HttpURLConnection, with no shaping of any kind.
+ * <p>
+ * Requests go through the response cache installed by {@link BookListingApplication} and
+ * the connection pool of HttpURLConnection.
+ */
+final class UrlConnectionTransport implements HttpTransport {
+
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    /**
+     * Header added by the HttpURLConnection of Android, telling where the response came
+     * from: CACHE, CONDITIONAL_CACHE or NETWORK, followed by the response code
+     */
+    private static final String HEADER_RESPONSE_SOURCE = "X-Android-Response-Source";
+    private static final String SOURCE_CACHE = "CACHE ";
+
+    @Override
+    public Exchange execute(URL url) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        urlConnection.setRequestMethod("GET");
+        // Use the response cache installed by BookListingApplication. A fresh entry
+        // is served without going to the network, and a stale one is revalidated,
+        // a 304 response being served from the cache as a 200.
+        urlConnection.setUseCaches(true);
+        // Setting it explicitly disables the transparent decompression, so the
+        // compressed size can be measured
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        urlConnection.connect();
+        long connected = System.nanoTime();
+
+        int responseCode = urlConnection.getResponseCode();
+        long firstByte = System.nanoTime();
+        InputStream body = responseCode < HttpURLConnection.HTTP_BAD_REQUEST
+                ? urlConnection.getInputStream()
+                : urlConnection.getErrorStream();
+        // A revalidated entry, CONDITIONAL_CACHE, did go to the network
+        String source = urlConnection.getHeaderField(HEADER_RESPONSE_SOURCE);
+        return new Exchange(responseCode, urlConnection.getContentEncoding(), body,
+                connected - start, firstByte - connected,
+                urlConnection.getHeaderField(HEADER_RETRY_AFTER),
+                source != null && source.startsWith(SOURCE_CACHE));
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit tests for {@link BookBulkFetcher}, with scripted pages instead of requests.
+ */
+public class BookBulkFetcherTest {
+
+    private static final String QUERY_URL = "https://www.googleapis.com/books/v1/volumes?q=x";
+    private static final int PAGE_SIZE = 3;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void pages_areMergedInRankOrder_withoutDuplicates() throws Exception {
+        ScriptedPages pages = new ScriptedPages();
+        pages.put(0, "a", "b", "c");
+        pages.put(3, "c", "d", "e");
+        pages.put(6, "f", null, "g");
+        // The first page answers last
+        pages.waitForOthers = true;
+
+        List<Book> books = fetcher(pages).fetch(null, QUERY_URL, 9).get();
+
+        assertEquals("a b c d e f g", ids(books));
+    }
+
+    @Test
+    public void shortPage_endsTheResults_andCancelsTheRest() throws Exception {
+        ScriptedPages pages = new ScriptedPages();
+        pages.put(0, "a", "b", "c");
+        pages.put(3, "d");
+        // The pages after the end never answer, unless interrupted. The short page answers
+        // once they are running, so they can't be cancelled before they start.
+        pages.waitForBlockedAt = 3;
+
+        List<Book> books = fetcher(pages).fetch(null, QUERY_URL, 12).get();
+
+        assertEquals("a b c d", ids(books));
+        assertTrue(pages.interrupted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failedPage_failsTheFetch() throws Exception {
+        ScriptedPages pages = new ScriptedPages();
+        pages.put(0, "a", "b", "c");
+        pages.failed.add(3);
+        pages.put(6, "g", "h", "i");
+
+        try {
+            fetcher(pages).fetch(null, QUERY_URL, 9).get();
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            // Rather than a, b and c as if they were all the results
+        }
+    }
+
+    @Test
+    public void cancelledFetch_throwsCancellation() throws Exception {
+        ScriptedPages pages = new ScriptedPages();
+        BookBulkFetcher.Request request = fetcher(pages).fetch(null, QUERY_URL, 9);
+        request.cancel();
+
+        assertTrue(request.isCancelled());
+        assertCancelled(request);
+    }
+
+    @Test
+    public void cancellingTheOwner_cancelsThePages() throws Exception {
+        ScriptedPages pages = new ScriptedPages();
+        RequestScheduler scheduler = new RequestScheduler(1, 1, 1);
+        Object owner = new Object();
+        BookBulkFetcher.Request request =
+                new BookBulkFetcher(scheduler, pages, PAGE_SIZE).fetch(owner, QUERY_URL, 9);
+
+        assertEquals(3, scheduler.cancelAll(owner));
+        assertCancelled(request);
+    }
+
+    private static void assertCancelled(BookBulkFetcher.Request request) throws Exception {
+        try {
+            request.get();
+            fail("Expected a CancellationException");
+        } catch (CancellationException expected) {
+        }
+    }
+
+    private static BookBulkFetcher fetcher(ScriptedPages pages) {
+        return new BookBulkFetcher(new RequestScheduler(1, 1, 4), pages, PAGE_SIZE);
+    }
+
+    private static String ids(List<Book> books) {
+        StringBuilder ids = new StringBuilder();
+        for (Book book : books) {
+            if (ids.length() > 0) {
+                ids.append(' ');
+            }
+            ids.append(book.getId());
+        }
+        return ids.toString();
+    }
+
+    /**
+     * Answers with the books scripted for the startIndex of the page. A page that isn't
+     * scripted blocks until it is interrupted.
+     */
+    private static final class ScriptedPages implements BookBulkFetcher.PageFetcher {
+
+        final Map<Integer, List<Book>> pages = new HashMap<Integer, List<Book>>();
+        final List<Integer> failed = new ArrayList<Integer>();
+        final CountDownLatch interrupted = new CountDownLatch(2);
+        final CountDownLatch othersDone = new CountDownLatch(2);
+        final CountDownLatch blocked = new CountDownLatch(2);
+        volatile boolean waitForOthers;
+        volatile int waitForBlockedAt = -1;
+
+        void put(int startIndex, String... ids) {
+            List<Book> books = new ArrayList<Book>();
+            for (String id : ids) {
+                books.add(id == null ? null : new Book(id, "Title " + id,
+                        Arrays.asList("Author"), "Publisher", "2017",
+                        new ArrayList<IndustryIdentifier>(), 100, new ArrayList<ImageLink>(),
+                        "en", "http://example.com/" + id));
+            }
+            pages.put(startIndex, books);
+        }
+
+        @Override
+        public List<Book> fetchPage(String pageUrl) {
+            String startParam = "startIndex=";
+            int start = pageUrl.indexOf(startParam) + startParam.length();
+            int startIndex =
+                    Integer.parseInt(pageUrl.substring(start, pageUrl.indexOf('&', start)));
+            try {
+                if (failed.contains(startIndex)) {
+                    return null;
+                }
+                List<Book> page = pages.get(startIndex);
+                if (page == null) {
+                    blocked.countDown();
+                    new CountDownLatch(1).await();
+                }
+                if (startIndex == waitForBlockedAt) {
+                    assertTrue(blocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                }
+                if (startIndex == 0 && waitForOthers) {
+                    assertTrue(othersDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                } else {
+                    othersDone.countDown();
+                }
+                return page;
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                return null;
+            }
+        }
+    }
+}
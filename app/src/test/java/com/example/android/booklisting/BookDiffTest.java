@@ -0,0 +1,139 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for {@link BookDiff}. Each test replays the computed updates on a copy
+ * of the old list, the way a RecyclerView would, and checks it ends up as the new list.
+ */
+public class BookDiffTest {
+
+    @Test
+    public void appendedPage_isSingleRangeInsert() {
+        List<Book> oldBooks = books("a", "b", "c");
+        List<Book> newBooks = books("a", "b", "c", "d", "e");
+
+        List<BookDiff.Update> updates = BookDiff.compute(oldBooks, newBooks);
+
+        assertEquals(1, updates.size());
+        assertEquals(BookDiff.INSERT, updates.get(0).type);
+        assertEquals(3, updates.get(0).position);
+        assertEquals(2, updates.get(0).value);
+        assertReplays(oldBooks, newBooks, updates);
+    }
+
+    @Test
+    public void removalsInsertionsAndMoves_replayToNewList() {
+        List<Book> oldBooks = books("a", "b", "c", "d", "e", "f");
+        List<Book> newBooks = books("f", "x", "a", "c", "y", "z", "e");
+
+        assertReplays(oldBooks, newBooks, BookDiff.compute(oldBooks, newBooks));
+    }
+
+    @Test
+    public void changedBook_isChangeWithPayload() {
+        List<Book> oldBooks = books("a", "b");
+        List<Book> newBooks = new ArrayList<Book>();
+        newBooks.add(oldBooks.get(0));
+        newBooks.add(book("b", "Another title"));
+
+        List<BookDiff.Update> updates = BookDiff.compute(oldBooks, newBooks);
+
+        assertEquals(1, updates.size());
+        assertEquals(BookDiff.CHANGE, updates.get(0).type);
+        assertEquals(1, updates.get(0).position);
+        assertEquals(BookDiff.CHANGED_TITLE, updates.get(0).value);
+    }
+
+    @Test
+    public void sameList_hasNoUpdates() {
+        List<Book> oldBooks = books("a", "b", "c");
+        assertEquals(0, BookDiff.compute(oldBooks, books("a", "b", "c")).size());
+    }
+
+    @Test
+    public void isSame_comparesIdsOrderAndFields() {
+        List<Book> books = books("a", "b", "c");
+
+        assertEquals(true, BookDiff.isSame(books, books("a", "b", "c")));
+        assertEquals(false, BookDiff.isSame(books, books("a", "c", "b")));
+        assertEquals(false, BookDiff.isSame(books, books("a", "b")));
+
+        // A field that isn't shown in the list
+        List<Book> otherPageCount = books("a", "b");
+        otherPageCount.add(new Book("c", "Title c", new ArrayList<String>(Arrays.asList("Author")),
+                "Publisher", "2017", new ArrayList<IndustryIdentifier>(), 101,
+                new ArrayList<ImageLink>(), "en", "http://example.com/c"));
+        assertEquals(false, BookDiff.isSame(books, otherPageCount));
+    }
+
+    @Test
+    public void isSame_comparesIncompleteVolumesByPosition() {
+        List<Book> books = books("a", "b");
+        books.add(1, null);
+
+        List<Book> same = books("a", "b");
+        same.add(1, null);
+        assertEquals(true, BookDiff.isSame(books, same));
+
+        List<Book> moved = books("a", "b");
+        moved.add(null);
+        assertEquals(false, BookDiff.isSame(books, moved));
+        assertEquals(false, BookDiff.isSame(moved, books));
+        assertEquals(false, BookDiff.isSame(books, books("a", "x", "b")));
+    }
+
+    /**
+     * Apply the updates to a copy of the old list and check it matches the new one.
+     */
+    private static void assertReplays(List<Book> oldBooks, List<Book> newBooks,
+                                      List<BookDiff.Update> updates) {
+        List<String> ids = ids(oldBooks);
+        for (BookDiff.Update update : updates) {
+            switch (update.type) {
+                case BookDiff.REMOVE:
+                    ids.subList(update.position, update.position + update.value).clear();
+                    break;
+                case BookDiff.INSERT:
+                    for (int i = 0; i < update.value; i++) {
+                        ids.add(update.position + i, newBooks.get(update.position + i).getId());
+                    }
+                    break;
+                case BookDiff.MOVE:
+                    ids.add(update.value, ids.remove(update.position));
+                    break;
+                case BookDiff.CHANGE:
+                    break;
+            }
+        }
+        assertEquals(ids(newBooks), ids);
+    }
+
+    private static List<String> ids(List<Book> books) {
+        List<String> ids = new ArrayList<String>();
+        for (Book book : books) {
+            ids.add(book.getId());
+        }
+        return ids;
+    }
+
+    private static List<Book> books(String... ids) {
+        List<Book> books = new ArrayList<Book>();
+        for (String id : ids) {
+            books.add(book(id, "Title " + id));
+        }
+        return books;
+    }
+
+    private static Book book(String id, String title) {
+        return new Book(id, title, new ArrayList<String>(Arrays.asList("Author")), "Publisher",
+                "2017", new ArrayList<IndustryIdentifier>(), 100, new ArrayList<ImageLink>(),
+                "en", "http://example.com/" + id);
+    }
+}
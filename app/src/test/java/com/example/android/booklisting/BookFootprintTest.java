@@ -0,0 +1,160 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Heap footprint of {@link Book}: compares the bytes retained per book by the compact
+ * representation against the list-based one it replaced, for books as the parser creates
+ * them, with every String a separate instance.
+ */
+public class BookFootprintTest {
+
+    private static final int BOOK_COUNT = 20000;
+
+    private static final String[] PUBLISHERS = {
+            "O'Reilly Media, Inc.", "Addison-Wesley Professional", "Packt Publishing Ltd",
+            "Apress", "Manning Publications"};
+
+    private static final String[] LANGUAGES = {"en", "es", "fr", "de"};
+
+    @Test
+    public void compactBook_hasSameValues() {
+        Book book = createBook(7);
+        assertEquals(2, book.getAuthorCount());
+        assertEquals("Author 7", book.getAuthor(0));
+        assertEquals(2, book.getIdentifierCount());
+        assertEquals("ISBN_10", book.getIdentifierType(1));
+        assertEquals("http://books.google.com/books/content?id=7&zoom=5", book.getSmallThumbnail());
+        assertEquals("http://books.google.com/books/content?id=7&zoom=1", book.getThumbnail());
+        // Low-cardinality Strings are shared
+        assertTrue(book.getIdentifierType(0) == createBook(8).getIdentifierType(0));
+        assertTrue(book.getPublisher() == createBook(12).getPublisher());
+        assertTrue(book.getLanguage() == createBook(11).getLanguage());
+    }
+
+    @Test
+    public void compactBook_takesLessHeap() {
+        // Fill the pool first, as a running app would have it
+        createBook(0);
+
+        long legacyBytes = retainedBytesPerBook(true);
+        long compactBytes = retainedBytesPerBook(false);
+
+        System.out.println("Bytes per book: list-based " + legacyBytes
+                + ", compact " + compactBytes);
+        assertTrue(compactBytes < legacyBytes);
+    }
+
+    /**
+     * Build {@link #BOOK_COUNT} books and return the heap they retain, per book.
+     */
+    private static long retainedBytesPerBook(boolean legacy) {
+        long before = usedMemory();
+        List<Object> books = new ArrayList<Object>(BOOK_COUNT);
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            books.add(legacy ? createLegacyBook(i) : createBook(i));
+        }
+        long after = usedMemory();
+        // Keep the books reachable until measured
+        assertEquals(BOOK_COUNT, books.size());
+        return (after - before) / BOOK_COUNT;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Book createBook(int i) {
+        return new Book(copy("id" + i), copy("Title of book " + i), authors(i),
+                copy(PUBLISHERS[i % PUBLISHERS.length]), copy("2016-01-01"), identifiers(i),
+                100 + i, imageLinks(i), copy(LANGUAGES[i % LANGUAGES.length]),
+                copy("http://books.google.com/books?id=" + i));
+    }
+
+    private static LegacyBook createLegacyBook(int i) {
+        return new LegacyBook(copy("id" + i), copy("Title of book " + i), authors(i),
+                copy(PUBLISHERS[i % PUBLISHERS.length]), copy("2016-01-01"), identifiers(i),
+                100 + i, imageLinks(i), copy(LANGUAGES[i % LANGUAGES.length]),
+                copy("http://books.google.com/books?id=" + i));
+    }
+
+    private static ArrayList<String> authors(int i) {
+        ArrayList<String> authors = new ArrayList<String>();
+        authors.add(copy("Author " + i));
+        authors.add(copy("Co-author " + i));
+        return authors;
+    }
+
+    private static ArrayList<IndustryIdentifier> identifiers(int i) {
+        ArrayList<IndustryIdentifier> identifiers = new ArrayList<IndustryIdentifier>();
+        identifiers.add(new IndustryIdentifier(copy("ISBN_13"), String.format("978%010d", i)));
+        identifiers.add(new IndustryIdentifier(copy("ISBN_10"), String.format("%010d", i)));
+        return identifiers;
+    }
+
+    private static ArrayList<ImageLink> imageLinks(int i) {
+        ArrayList<ImageLink> imageLinks = new ArrayList<ImageLink>();
+        imageLinks.add(new ImageLink(copy("smallThumbnail"),
+                "http://books.google.com/books/content?id=" + i + "&zoom=5"));
+        imageLinks.add(new ImageLink(copy("thumbnail"),
+                "http://books.google.com/books/content?id=" + i + "&zoom=1"));
+        return imageLinks;
+    }
+
+    /**
+     * A separate instance, as the JSON parser would create it
+     */
+    private static String copy(String s) {
+        return new String(s.toCharArray());
+    }
+
+    /**
+     * The list-based book representation, with its display values, as it was before
+     * the compact one.
+     */
+    private static final class LegacyBook {
+        final String mId;
+        final String mTitle;
+        final ArrayList<String> mAuthors;
+        final String mPublisher;
+        final String mPublishedDate;
+        final ArrayList<IndustryIdentifier> mIndustryidentifiers;
+        final int mPageCount;
+        final ArrayList<ImageLink> mImageLinks;
+        final String mLanguage;
+        final String mInfoLink;
+        final String mDisplayAuthors;
+        final String mPrintableAuthors;
+        final String mPrintableIdentifiers;
+
+        LegacyBook(String id, String title, ArrayList<String> authors, String publisher,
+                   String publishedDate, ArrayList<IndustryIdentifier> industryidentifiers,
+                   int pageCount, ArrayList<ImageLink> imageLinks, String language,
+                   String infoLink) {
+            mId = id;
+            mTitle = title;
+            mAuthors = authors;
+            mPublisher = publisher;
+            mPublishedDate = publishedDate;
+            mIndustryidentifiers = industryidentifiers;
+            mPageCount = pageCount;
+            mImageLinks = imageLinks;
+            mLanguage = language;
+            mInfoLink = infoLink;
+            mPrintableAuthors = authors.get(0) + ", " + authors.get(1);
+            mDisplayAuthors = mPrintableAuthors + ".";
+            mPrintableIdentifiers = industryidentifiers.get(0).getIdentifier() + "\n"
+                    + industryidentifiers.get(1).getIdentifier();
+        }
+    }
+}
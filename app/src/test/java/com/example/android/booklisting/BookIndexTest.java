@@ -0,0 +1,183 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link BookIndex}.
+ */
+public class BookIndexTest {
+
+    private static final String[] NO_AUTHORS = new String[0];
+
+    @Test
+    public void parseDate_normalizesPartialDates() {
+        assertEquals(20050314, BookIndex.parseDate("2005-03-14"));
+        assertEquals(20050300, BookIndex.parseDate("2005-03"));
+        assertEquals(20050000, BookIndex.parseDate("2005"));
+        assertEquals(20050314, BookIndex.parseDate("2005-03-14T00:00:00Z"));
+        assertEquals(Integer.MAX_VALUE, BookIndex.parseDate(null));
+        assertEquals(Integer.MAX_VALUE, BookIndex.parseDate(""));
+        assertEquals(Integer.MAX_VALUE, BookIndex.parseDate("n.d."));
+    }
+
+    @Test
+    public void sortByDate_partialDatesFirstInTheirPeriod_missingLast() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(book("a", "A", "2005-03-14", 0, "en", null));
+        books.add(book("b", "B", null, 0, "en", null));
+        books.add(book("c", "C", "2005", 0, "en", null));
+        books.add(book("d", "D", "1999-12", 0, "en", null));
+        BookIndex index = BookIndex.build(books);
+
+        assertEquals("d c a b", ids(index.query(
+                BookIndex.Refinement.NONE.withSort(BookIndex.SORT_PUBLISHED_DATE, false))));
+        assertEquals("a c d b", ids(index.query(
+                BookIndex.Refinement.NONE.withSort(BookIndex.SORT_PUBLISHED_DATE, true))));
+        assertEquals("a b c d", ids(index.query(BookIndex.Refinement.NONE)));
+    }
+
+    @Test
+    public void sortByPagesAndTitle_keepRelevanceOrderForTies() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(book("a", "banana", null, 300, "en", null));
+        books.add(book("b", "Apple", null, 100, "en", null));
+        books.add(book("c", "apple", null, 0, "en", null));
+        books.add(book("d", "Cherry", null, 100, "en", null));
+        BookIndex index = BookIndex.build(books);
+
+        assertEquals("b d a c", ids(index.query(
+                BookIndex.Refinement.NONE.withSort(BookIndex.SORT_PAGE_COUNT, false))));
+        assertEquals("a b d c", ids(index.query(
+                BookIndex.Refinement.NONE.withSort(BookIndex.SORT_PAGE_COUNT, true))));
+        // Case is ignored, equal titles keep their order
+        assertEquals("b c a d", ids(index.query(
+                BookIndex.Refinement.NONE.withSort(BookIndex.SORT_TITLE, false))));
+    }
+
+    @Test
+    public void filters_andFacetCountsOfTheOtherFilters() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(book("a", "A", null, 0, "en", "Penguin", "ISBN_13", "ISBN_10"));
+        books.add(book("b", "B", null, 0, "en", "Oxford", "ISBN_13"));
+        books.add(book("c", "C", null, 0, "fr", "Penguin", "OTHER"));
+        books.add(book("d", "D", null, 0, "es", null));
+        BookIndex index = BookIndex.build(books);
+
+        BookIndex.Result all = index.query(BookIndex.Refinement.NONE);
+        assertEquals("en 2, es 1, fr 1", facet(all, BookIndex.FACET_LANGUAGE));
+        assertEquals("Penguin 2, Oxford 1", facet(all, BookIndex.FACET_PUBLISHER));
+        assertEquals("ISBN_13 2, ISBN_10 1, OTHER 1",
+                facet(all, BookIndex.FACET_IDENTIFIER_TYPE));
+
+        BookIndex.Result penguin = index.query(
+                BookIndex.Refinement.NONE.withFilter(BookIndex.FACET_PUBLISHER, "Penguin"));
+        assertEquals("a c", ids(penguin));
+        // Other facets are narrowed down, the filtered one still lists its alternatives
+        assertEquals("en 1, fr 1", facet(penguin, BookIndex.FACET_LANGUAGE));
+        assertEquals("Penguin 2, Oxford 1", facet(penguin, BookIndex.FACET_PUBLISHER));
+
+        BookIndex.Result isbn13InEnglish = index.query(BookIndex.Refinement.NONE
+                .withFilter(BookIndex.FACET_LANGUAGE, "en")
+                .withFilter(BookIndex.FACET_IDENTIFIER_TYPE, "ISBN_13"));
+        assertEquals("a b", ids(isbn13InEnglish));
+
+        assertEquals("", ids(index.query(
+                BookIndex.Refinement.NONE.withFilter(BookIndex.FACET_LANGUAGE, "de"))));
+    }
+
+    @Test
+    public void refinement_isNoneOnlyInRelevanceOrderUnfiltered() {
+        assertTrue(BookIndex.Refinement.NONE.isNone());
+        assertTrue(!BookIndex.Refinement.NONE.withSort(BookIndex.SORT_TITLE, false).isNone());
+        BookIndex.Refinement filtered =
+                BookIndex.Refinement.NONE.withFilter(BookIndex.FACET_LANGUAGE, "en");
+        assertTrue(!filtered.isNone());
+        assertTrue(filtered.withFilter(BookIndex.FACET_LANGUAGE, null).isNone());
+        // The original is unchanged
+        assertTrue(BookIndex.Refinement.NONE.isNone());
+    }
+
+    @Test
+    public void resorting_thousandsOfBooks_takesMilliseconds() {
+        List<Book> books = new ArrayList<Book>();
+        String[] languages = {"en", "fr", "es", "de"};
+        for (int i = 0; i < 4000; i++) {
+            books.add(book("id" + i, "Title " + (i * 7919 % 4000), (1900 + i % 120) + "-0"
+                    + (1 + i % 9), i * 31 % 900, languages[i % languages.length],
+                    "Publisher " + i % 50, "ISBN_13"));
+        }
+        BookIndex index = BookIndex.build(books);
+        int[] sorts = {BookIndex.SORT_PUBLISHED_DATE, BookIndex.SORT_PAGE_COUNT,
+                BookIndex.SORT_TITLE};
+
+        // Warm up, then time one round of every sort
+        for (int i = 0; i < 20; i++) {
+            for (int sort : sorts) {
+                index.query(BookIndex.Refinement.NONE.withSort(sort, i % 2 == 0));
+            }
+        }
+        long start = System.nanoTime();
+        for (int sort : sorts) {
+            assertEquals(4000, index.query(
+                    BookIndex.Refinement.NONE.withSort(sort, true)).getBooks().size());
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        // A generous bound, it is a few milliseconds on a laptop
+        assertTrue("Sorting took " + elapsedMillis + " ms", elapsedMillis < 200);
+    }
+
+    @Test
+    public void build_skipsIncompleteVolumes() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(null);
+        books.add(book("a", "banana", null, 300, "en", "P"));
+        books.add(null);
+        books.add(book("b", "Apple", null, 100, "fr", "P"));
+        BookIndex index = BookIndex.build(books);
+
+        assertTrue(index.getBooks() == books);
+        assertEquals("a b", ids(index.query(BookIndex.Refinement.NONE)));
+        assertEquals("b a", ids(index.query(
+                BookIndex.Refinement.NONE.withSort(BookIndex.SORT_TITLE, false))));
+        assertEquals("P 2", facet(index.query(BookIndex.Refinement.NONE),
+                BookIndex.FACET_PUBLISHER));
+    }
+
+    private static Book book(String id, String title, String date, int pageCount,
+                             String language, String publisher, String... identifierTypes) {
+        String[] identifiers = new String[identifierTypes.length];
+        for (int i = 0; i < identifiers.length; i++) {
+            identifiers[i] = id + i;
+        }
+        return new Book(id, title, NO_AUTHORS, publisher, date, identifierTypes, identifiers,
+                pageCount, null, null, language, null, null);
+    }
+
+    private static String ids(BookIndex.Result result) {
+        StringBuilder ids = new StringBuilder();
+        for (Book book : result.getBooks()) {
+            if (ids.length() > 0) {
+                ids.append(' ');
+            }
+            ids.append(book.getId());
+        }
+        return ids.toString();
+    }
+
+    private static String facet(BookIndex.Result result, int facet) {
+        StringBuilder values = new StringBuilder();
+        for (BookIndex.FacetValue value : result.getFacet(facet)) {
+            if (values.length() > 0) {
+                values.append(", ");
+            }
+            values.append(value.value).append(' ').append(value.count);
+        }
+        return values.toString();
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.android.booklisting;
+
+import android.graphics.Bitmap;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that the values bound to a list row are computed when the book is created,
+ * and that binding rows with {@link BookAdapter.BookViewHolder#bind(Book, int)} while
+ * scrolling doesn't allocate, once the covers are in the memory cache.
+ * <p>
+ * The rows are made of fake views, over the android.jar stubs, which do nothing.
+ */
+public class BookRowBindingTest {
+
+    private static final int ITEM_COUNT = 1000;
+
+    /** Rows shown at once, recycled as the list scrolls */
+    private static final int ROW_COUNT = 12;
+
+    private static final int THUMBNAIL_WIDTH = 64;
+    private static final int THUMBNAIL_HEIGHT = 96;
+
+    private List<Book> mBooks;
+    private BookAdapter mAdapter;
+    private BookAdapter.BookViewHolder[] mRows;
+
+    // What the rows showed during the last scroll
+    private int mCoversShown;
+    private int mIdentifiersShown;
+    private long mItemIds; // read as the RecyclerView does, summed so it is used
+
+    @Before
+    public void setUp() throws Exception {
+        // The covers are all in the memory cache, the disk cache is never read
+        ImageLoader imageLoader =
+                new ImageLoader(new File(System.getProperty("java.io.tmpdir"), "thumbnails"));
+        Bitmap cover = newBitmap();
+        mBooks = new ArrayList<Book>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            Book book = createBook(i);
+            mBooks.add(book);
+            // As if every cover had been loaded
+            imageLoader.putInMemory(book.getThumbnailUrl(), THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT,
+                    cover);
+        }
+
+        mAdapter = new BookAdapter(null, null, imageLoader, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+        mRows = new BookAdapter.BookViewHolder[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            mRows[i] = mAdapter.new BookViewHolder(new View(null), new FakeImageView(),
+                    new TextView(null), new TextView(null), new TextView(null),
+                    new FakeLinearLayout(), new TextView(null), new TextView(null));
+        }
+    }
+
+    @Test
+    public void displayValues() {
+        Book book = createBook(1);
+        assertEquals("Author 1, Co-author 1.", book.getDisplayAuthors());
+        assertEquals("Author 1, Co-author 1", book.getPrintableAuthors());
+        assertEquals("ISBN_13", book.getPrimaryIdentifierType());
+        assertEquals("978000000001", book.getPrimaryIdentifier());
+        assertEquals("978000000001\n000000001", book.getPrintableIdentifiers());
+        assertEquals("http://books.example.com/1-small", book.getThumbnailUrl());
+
+        Book empty = new Book("id", "Title", new ArrayList<String>(), "", "",
+                new ArrayList<IndustryIdentifier>(), 0, new ArrayList<ImageLink>(), "en", "link");
+        assertNull(empty.getDisplayAuthors());
+        assertEquals("", empty.getPrintableAuthors());
+        assertNull(empty.getPrimaryIdentifier());
+        assertEquals("", empty.getPrintableIdentifiers());
+        assertNull(empty.getThumbnailUrl());
+        assertEquals(false, empty.hasPublisher());
+    }
+
+    @Test
+    public void stableIds_areDistinct() {
+        Set<Long> ids = new HashSet<Long>();
+        for (Book book : mBooks) {
+            ids.add(book.getStableId());
+        }
+        assertEquals(ITEM_COUNT, ids.size());
+        assertEquals(mBooks.get(3).getStableId(), createBook(3).getStableId());
+        assertNotEquals(createBook(12).getStableId(), createBook(21).getStableId());
+    }
+
+    @Test
+    public void scrollingDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            // Allocation counters are not available on this VM
+            return;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        // Warm up, so class loading and compilation are not counted
+        scroll();
+        scroll();
+
+        // Keep the lowest of a few passes, the VM itself may allocate now and then
+        // (compilation, safepoints), that isn't the binding code
+        long allocated = Long.MAX_VALUE;
+        for (int pass = 0; pass < 5; pass++) {
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            scroll();
+            long after = threadBean.getThreadAllocatedBytes(threadId);
+            // Measure what the measurement itself allocates, and leave it out
+            long overhead = threadBean.getThreadAllocatedBytes(threadId) - after;
+            allocated = Math.min(allocated, Math.max(0, after - before - overhead));
+        }
+
+        assertEquals(ITEM_COUNT, mCoversShown);
+        assertEquals(ITEM_COUNT, mIdentifiersShown);
+        assertEquals(0, allocated);
+    }
+
+    /**
+     * Bind every book once, fully, to the rows in turn, as a RecyclerView does when
+     * scrolling through the list.
+     */
+    private void scroll() {
+        mCoversShown = 0;
+        mIdentifiersShown = 0;
+        for (int position = 0; position < mBooks.size(); position++) {
+            BookAdapter.BookViewHolder row = mRows[position % ROW_COUNT];
+            if (position >= ROW_COUNT) {
+                mAdapter.onViewRecycled(row);
+            }
+            Book book = mBooks.get(position);
+            mItemIds += book.getStableId();
+            row.bind(book, ~0);
+        }
+    }
+
+    /**
+     * Bitmaps can't be decoded on the JVM, and their constructor isn't public: call it with
+     * default values, it does nothing in the android.jar stubs.
+     */
+    private static Bitmap newBitmap() throws Exception {
+        Constructor<?> constructor = Bitmap.class.getDeclaredConstructors()[0];
+        Class<?>[] types = constructor.getParameterTypes();
+        Object[] args = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].isPrimitive()) {
+                // The default value of the type, from a new array of it
+                args[i] = Array.get(Array.newInstance(types[i], 1), 0);
+            }
+        }
+        constructor.setAccessible(true);
+        return (Bitmap) constructor.newInstance(args);
+    }
+
+    private static Book createBook(int i) {
+        ArrayList<String> authors = new ArrayList<String>();
+        authors.add("Author " + i);
+        authors.add("Co-author " + i);
+
+        ArrayList<IndustryIdentifier> identifiers = new ArrayList<IndustryIdentifier>();
+        identifiers.add(new IndustryIdentifier("ISBN_13", String.format("978%09d", i)));
+        identifiers.add(new IndustryIdentifier("ISBN_10", String.format("%09d", i)));
+
+        ArrayList<ImageLink> imageLinks = new ArrayList<ImageLink>();
+        imageLinks.add(new ImageLink("smallThumbnail", "http://books.example.com/" + i + "-small"));
+        imageLinks.add(new ImageLink("thumbnail", "http://books.example.com/" + i));
+
+        return new Book("id" + i, "Title " + i, authors, "Publisher " + i, "2016-01-01",
+                identifiers, 100 + i, imageLinks, "en", "http://books.example.com/info/" + i);
+    }
+
+    /**
+     * Counts the covers shown.
+     */
+    private final class FakeImageView extends ImageView {
+
+        FakeImageView() {
+            super(null);
+        }
+
+        @Override
+        public void setImageBitmap(Bitmap bitmap) {
+            if (bitmap != null) {
+                mCoversShown++;
+            }
+        }
+    }
+
+    /**
+     * Counts the identifiers shown.
+     */
+    private final class FakeLinearLayout extends LinearLayout {
+
+        FakeLinearLayout() {
+            super(null);
+        }
+
+        @Override
+        public void setVisibility(int visibility) {
+            if (visibility == View.VISIBLE) {
+                mIdentifiersShown++;
+            }
+        }
+    }
+}
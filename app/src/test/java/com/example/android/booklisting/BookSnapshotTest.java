@@ -0,0 +1,189 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BookSnapshotTest {
+
+    private static final String KEY = "https://www.googleapis.com/books/v1/volumes?q=android";
+
+    @Test
+    public void roundTrip_keepsAllFields() throws IOException {
+        List<Book> books = new ArrayList<Book>();
+        books.add(new Book("id1", "T\u00edtulo", new String[]{"Author", "Co-author"}, "Publisher",
+                "2016-01-01", new String[]{"ISBN_13", "ISBN_10"},
+                new String[]{"9780000000001", "0000000001"}, 300, "http://small", "http://large",
+                "es", "http://info", "<b>Description</b>"));
+        books.add(null);
+        books.add(new Book("id2", "Title", new String[0], "Publisher", "", new String[0],
+                new String[0], 0, null, "", "en", "http://info2", null));
+
+        List<Book> read = read(write(books), KEY);
+
+        assertEquals(2, read.size());
+        Book first = read.get(0);
+        assertEquals("id1", first.getId());
+        assertEquals("T\u00edtulo", first.getTitle());
+        assertEquals(2, first.getAuthorCount());
+        assertEquals("Co-author", first.getAuthor(1));
+        assertEquals("Publisher", first.getPublisher());
+        assertEquals("2016-01-01", first.getPublishedDate());
+        assertEquals("ISBN_10", first.getIdentifierType(1));
+        assertEquals("0000000001", first.getIdentifier(1));
+        assertEquals(300, first.getPageCount());
+        assertEquals("http://small", first.getSmallThumbnail());
+        assertEquals("http://large", first.getThumbnail());
+        assertEquals("es", first.getLanguage());
+        assertEquals("http://info", first.getInfoLink());
+        assertEquals("<b>Description</b>", first.getDescription());
+
+        Book second = read.get(1);
+        assertEquals(0, second.getAuthorCount());
+        assertEquals(0, second.getIdentifierCount());
+        assertNull(second.getSmallThumbnail());
+        assertEquals("", second.getThumbnail());
+        assertEquals("Publisher", second.getPublisher());
+        assertNull(second.getDescription());
+    }
+
+    @Test
+    public void otherKey_isNotRead() throws IOException {
+        byte[] data = write(Arrays.asList(book("id1")));
+        assertNull(read(data, KEY + "&other"));
+    }
+
+    @Test
+    public void otherVersion_isRejected() throws IOException {
+        byte[] data = write(Arrays.asList(book("id1")));
+        // The version follows the 4 byte magic
+        data[4] = (byte) (BookSnapshot.VERSION + 1);
+        try {
+            read(data, KEY);
+            fail();
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void corruptCounts_areRejected() throws IOException {
+        int[] counts = {-1, Integer.MAX_VALUE, 1000};
+        for (int count : counts) {
+            // Book count
+            assertMalformed(header().append(count).toByteArray());
+            // Author count of the first book
+            assertMalformed(header().append(1).appendString("id").appendString("title")
+                    .append(count).toByteArray());
+            // Length of the id of the first book, plus one
+            assertMalformed(header().append(1).append(count).toByteArray());
+        }
+    }
+
+    @Test
+    public void unknownPoolTag_isRejected() throws IOException {
+        // A whole book, whose publisher is pooled with the given tag
+        int[] tags = {2, 3, 7};
+        for (int tag : tags) {
+            byte[] data = header().append(1).appendString("id").appendString("title").append(0)
+                    .append(tag).appendString("Publisher").appendString("2016")
+                    .append(0).append(100).append(0).append(0)
+                    .append(2).appendString("en").append(0).append(0).toByteArray();
+            if (tag == 2) {
+                assertEquals("Publisher", read(data, KEY).get(0).getPublisher());
+            } else {
+                assertMalformed(data);
+            }
+        }
+    }
+
+    @Test
+    public void varints_roundTrip() throws IOException {
+        int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int value : values) {
+            BookSnapshot.writeVarint(out, value);
+        }
+        assertEquals(1 + 1 + 1 + 2 + 2 + 3 + 5, out.size());
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (int value : values) {
+            assertEquals(value, BookSnapshot.readVarint(in));
+        }
+    }
+
+    @Test
+    public void snapshot_isSmallerThanJson() throws IOException {
+        List<Book> books = new ArrayList<Book>();
+        for (int i = 0; i < 40; i++) {
+            books.add(book("id" + i));
+        }
+        // A volume in the API response is well over 1 KB
+        assertTrue(write(books).length < 40 * 300);
+    }
+
+    private static Book book(String id) {
+        return new Book(id, "Title " + id, new String[]{"Author " + id}, "Publisher",
+                "2016-01-01", new String[]{"ISBN_13"}, new String[]{"9780000000001"}, 100,
+                "http://books.google.com/books/content?id=" + id + "&zoom=5", "", "en",
+                "http://books.google.com/books?id=" + id, null);
+    }
+
+    private static List<Book> read(byte[] data, String key) throws IOException {
+        return BookSnapshot.read(new ByteArrayInputStream(data), data.length, key);
+    }
+
+    private static void assertMalformed(byte[] data) {
+        try {
+            read(data, KEY);
+            fail();
+        } catch (IOException expected) {
+            // Expected, rather than an OutOfMemoryError or a NegativeArraySizeException
+        }
+    }
+
+    /**
+     * Returns a snapshot of KEY, up to its book count.
+     */
+    private static SnapshotBytes header() throws IOException {
+        SnapshotBytes bytes = new SnapshotBytes();
+        bytes.write(BookSnapshot.MAGIC >>> 24);
+        bytes.write(BookSnapshot.MAGIC >>> 16);
+        bytes.write(BookSnapshot.MAGIC >>> 8);
+        bytes.write(BookSnapshot.MAGIC);
+        return bytes.append(BookSnapshot.VERSION).appendString(KEY);
+    }
+
+    private static byte[] write(List<Book> books) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BookSnapshot.write(out, KEY, books);
+        return out.toByteArray();
+    }
+
+    /**
+     * Snapshot bytes written by hand, to corrupt them.
+     */
+    private static final class SnapshotBytes extends ByteArrayOutputStream {
+
+        SnapshotBytes append(int varint) throws IOException {
+            BookSnapshot.writeVarint(this, varint);
+            return this;
+        }
+
+        SnapshotBytes appendString(String value) throws IOException {
+            byte[] bytes = value.getBytes("UTF-8");
+            append(bytes.length + 1);
+            write(bytes);
+            return this;
+        }
+    }
+}
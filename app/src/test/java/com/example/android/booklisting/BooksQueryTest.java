@@ -0,0 +1,274 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the URLs built by {@link BooksQuery}, that the partial response fixtures have the
+ * fields it asks for, and that they are much smaller than the full ones.
+ */
+public class BooksQueryTest {
+
+    private static final String FIELDS =
+            "&fields=" + BooksQuery.encode(BooksQuery.LIST_FIELDS);
+
+    @Test
+    public void terms_areEncoded() {
+        assertEquals(BooksQuery.VOLUMES_URL + "?q=c%2B%2B+%26+java" + FIELDS,
+                new BooksQuery("  c++ & java ").toUrl());
+    }
+
+    @Test
+    public void qualifiers_joinTheTerms() {
+        String url = new BooksQuery("android")
+                .inTitle("programming  guide")
+                .inAuthor("Smith")
+                .isbn("978-0-13-468599-1")
+                .toUrl();
+
+        assertEquals(BooksQuery.VOLUMES_URL + "?q=" + BooksQuery.encode(
+                "android intitle:\"programming guide\" inauthor:Smith isbn:9780134685991")
+                + FIELDS, url);
+        assertEquals("android intitle:\"programming guide\" inauthor:Smith isbn:9780134685991",
+                QueryUtils.getSearchTerms(url));
+    }
+
+    @Test
+    public void filtersAndPaging_areParameters() {
+        String url = new BooksQuery(null)
+                .inAuthor("Tolkien")
+                .langRestrict("EN")
+                .orderBy(BooksQuery.ORDER_NEWEST)
+                .printType(BooksQuery.PRINT_TYPE_BOOKS)
+                .startIndex(20)
+                .maxResults(10)
+                .fields(null)
+                .endpoint("http://127.0.0.1:8080/books/v1/volumes")
+                .toUrl();
+
+        assertEquals("http://127.0.0.1:8080/books/v1/volumes?q=inauthor%3ATolkien"
+                + "&langRestrict=en&orderBy=newest&printType=books&startIndex=20&maxResults=10",
+                url);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emptyQuery_isRejected() {
+        new BooksQuery(" ").inTitle(" ").toUrl();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxResults_isLimited() {
+        new BooksQuery("android").maxResults(QueryUtils.MAX_PAGE_SIZE + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void orderBy_isChecked() {
+        new BooksQuery("android").orderBy("oldest");
+    }
+
+    @Test
+    public void partialResponse_isMuchSmaller() throws IOException {
+        // The same hand-written responses, in full and with the fields of LIST_FIELDS,
+        // see partialFixtures_haveExactlyTheListFields()
+        for (String name : new String[]{"volumes_10", "volumes_40"}) {
+            String full = readFixture(name + ".json");
+            String partial = readFixture(name + "_fields.json");
+
+            // Same volumes, none of what isn't parsed
+            assertEquals(count(full, "\"infoLink\""), count(partial, "\"infoLink\""));
+            assertEquals(count(full, "\"smallThumbnail\""), count(partial, "\"smallThumbnail\""));
+            for (String dropped : new String[]{"saleInfo", "accessInfo", "searchInfo",
+                    "description", "readingModes", "selfLink"}) {
+                assertFalse(name + " " + dropped, partial.contains("\"" + dropped + "\""));
+            }
+
+            // At least 60% less, both decoded and gzip-compressed, as sent on the wire
+            long fullBytes = full.getBytes("UTF-8").length;
+            long partialBytes = partial.getBytes("UTF-8").length;
+            assertTrue(name + ": " + partialBytes + " of " + fullBytes,
+                    partialBytes * 10 <= fullBytes * 4);
+            long fullGzip = gzipSize(full);
+            long partialGzip = gzipSize(partial);
+            assertTrue(name + " gzip: " + partialGzip + " of " + fullGzip,
+                    partialGzip * 10 <= fullGzip * 4);
+        }
+    }
+
+    @Test
+    public void partialFixtures_haveExactlyTheListFields() throws IOException {
+        // Paths of the fields named by LIST_FIELDS, the leaves select all of their subfields
+        Set<String> named = new HashSet<String>();
+        Set<String> leaves = new HashSet<String>();
+        parseFields(BooksQuery.LIST_FIELDS, new int[]{0}, "", named, leaves);
+        assertTrue(leaves.contains("items/volumeInfo/imageLinks/thumbnail"));
+
+        for (String name : new String[]{"volumes_10", "volumes_40"}) {
+            Set<String> fullPaths = jsonPaths(readFixture(name + ".json"));
+            Set<String> partialPaths = jsonPaths(readFixture(name + "_fields.json"));
+
+            // Every field asked for exists, and is in the partial response
+            for (String leaf : leaves) {
+                assertTrue(name + " has no " + leaf, fullPaths.contains(leaf));
+                assertTrue(name + "_fields has no " + leaf, partialPaths.contains(leaf));
+            }
+            // And nothing else is
+            for (String path : partialPaths) {
+                assertTrue(name + "_fields has " + path, isSelected(path, named, leaves));
+            }
+        }
+    }
+
+    /**
+     * Parse a fields parameter, such as a(b,c(d)), into the paths it names, a/b, a/c and
+     * a/c/d, and its leaves, a/b and a/c/d.
+     */
+    private static void parseFields(String fields, int[] position, String parent,
+                                    Set<String> named, Set<String> leaves) {
+        while (position[0] < fields.length()) {
+            int start = position[0];
+            while (position[0] < fields.length()
+                    && Character.isLetterOrDigit(fields.charAt(position[0]))) {
+                position[0]++;
+            }
+            String path = parent + fields.substring(start, position[0]);
+            named.add(path);
+            if (position[0] < fields.length() && fields.charAt(position[0]) == '(') {
+                position[0]++;
+                parseFields(fields, position, path + "/", named, leaves);
+            } else {
+                leaves.add(path);
+            }
+            if (position[0] >= fields.length()) {
+                return;
+            }
+            char c = fields.charAt(position[0]++);
+            if (c == ')') {
+                return;
+            }
+            assertEquals(',', c);
+        }
+    }
+
+    private static boolean isSelected(String path, Set<String> named, Set<String> leaves) {
+        if (named.contains(path)) {
+            return true;
+        }
+        for (String leaf : leaves) {
+            if (path.startsWith(leaf + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the paths of all the object members of a JSON document, such as
+     * items/volumeInfo/title. Arrays don't add to the path.
+     */
+    private static Set<String> jsonPaths(String json) {
+        Set<String> paths = new HashSet<String>();
+        int end = readJsonValue(json, skipSpaces(json, 0), "", paths);
+        assertEquals(json.length(), skipSpaces(json, end));
+        return paths;
+    }
+
+    /**
+     * Read the JSON value at the given position, adding the paths of its members.
+     *
+     * @return the position after the value
+     */
+    private static int readJsonValue(String json, int i, String path, Set<String> paths) {
+        char c = json.charAt(i);
+        if (c == '{' || c == '[') {
+            char close = c == '{' ? '}' : ']';
+            i = skipSpaces(json, i + 1);
+            while (json.charAt(i) != close) {
+                String memberPath = path;
+                if (c == '{') {
+                    int nameEnd = readJsonString(json, i);
+                    String name = json.substring(i + 1, nameEnd - 1);
+                    memberPath = path.isEmpty() ? name : path + "/" + name;
+                    paths.add(memberPath);
+                    i = skipSpaces(json, nameEnd);
+                    assertEquals(':', json.charAt(i));
+                    i = skipSpaces(json, i + 1);
+                }
+                i = skipSpaces(json, readJsonValue(json, i, memberPath, paths));
+                if (json.charAt(i) == ',') {
+                    i = skipSpaces(json, i + 1);
+                }
+            }
+            return i + 1;
+        }
+        if (c == '"') {
+            return readJsonString(json, i);
+        }
+        // Number, true, false or null
+        while (i < json.length() && ",}] \t\r\n".indexOf(json.charAt(i)) < 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the position after the JSON string starting at the given position.
+     */
+    private static int readJsonString(String json, int i) {
+        assertEquals('"', json.charAt(i));
+        for (i++; json.charAt(i) != '"'; i++) {
+            if (json.charAt(i) == '\\') {
+                i++;
+            }
+        }
+        return i + 1;
+    }
+
+    private static int skipSpaces(String json, int i) {
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int count(String text, String token) {
+        int count = 0;
+        for (int i = text.indexOf(token); i >= 0; i = text.indexOf(token, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static long gzipSize(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(text.getBytes("UTF-8"));
+        gzip.close();
+        return bytes.size();
+    }
+
+    private static String readFixture(String name) throws IOException {
+        InputStream in = BooksQueryTest.class.getResourceAsStream("/fixtures/" + name);
+        assertTrue("Missing fixture " + name, in != null);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
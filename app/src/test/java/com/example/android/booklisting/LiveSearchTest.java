@@ -0,0 +1,86 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for how {@link LiveSearch} answers from loaded results.
+ */
+public class LiveSearchTest {
+
+    private static final List<Book> COMPLETE = Arrays.asList(
+            book("a", "Java Script Basics", "Ann Smith"),
+            book("b", "Java Concurrency", "Bob Jones"),
+            null,
+            book("c", "Javanese Cooking", "Cy Java"));
+
+    @Test
+    public void longerWord_needsARequest() {
+        // Books about "java" aren't all in the results for "jav"
+        assertEquals(LiveSearch.ANSWER_REQUEST, LiveSearch.localAnswer("jav", COMPLETE, "java"));
+        assertEquals(LiveSearch.ANSWER_REQUEST, LiveSearch.localAnswer("jav", COMPLETE, "java "));
+    }
+
+    @Test
+    public void sameWords_areAnsweredByTheLoadedResults() {
+        assertEquals(LiveSearch.ANSWER_LOADED, LiveSearch.localAnswer("java", COMPLETE, "java "));
+        assertEquals(LiveSearch.ANSWER_LOADED, LiveSearch.localAnswer("java", COMPLETE, "Java"));
+    }
+
+    @Test
+    public void extraCompleteWord_filtersCompleteResults() {
+        assertEquals(LiveSearch.ANSWER_FILTERED,
+                LiveSearch.localAnswer("java", COMPLETE, "java script "));
+    }
+
+    @Test
+    public void extraWordBeingTyped_needsARequest() {
+        assertEquals(LiveSearch.ANSWER_REQUEST,
+                LiveSearch.localAnswer("java", COMPLETE, "java scr"));
+    }
+
+    @Test
+    public void extraWord_onAFullPage_needsARequest() {
+        List<Book> full = new ArrayList<Book>();
+        for (int i = 0; i < LiveSearch.PAGE_SIZE; i++) {
+            full.add(book("id" + i, "Java " + i, "Author"));
+        }
+        assertEquals(LiveSearch.ANSWER_REQUEST,
+                LiveSearch.localAnswer("java", full, "java script "));
+    }
+
+    @Test
+    public void nothingLoaded_needsARequest() {
+        assertEquals(LiveSearch.ANSWER_REQUEST, LiveSearch.localAnswer(null, null, "java "));
+    }
+
+    @Test
+    public void filter_matchesWholeWords() {
+        assertEquals("a", ids(LiveSearch.filter(COMPLETE, "java script")));
+        // "Javanese" is not the word "java", but the author "Cy Java" is
+        assertEquals("a b c", ids(LiveSearch.filter(COMPLETE, "java")));
+        assertEquals("", ids(LiveSearch.filter(COMPLETE, "jav")));
+    }
+
+    private static Book book(String id, String title, String author) {
+        return new Book(id, title, Arrays.asList(author), "Publisher", "2017",
+                new ArrayList<IndustryIdentifier>(), 100, new ArrayList<ImageLink>(),
+                "en", "http://example.com/" + id);
+    }
+
+    private static String ids(List<Book> books) {
+        StringBuilder ids = new StringBuilder();
+        for (Book book : books) {
+            if (ids.length() > 0) {
+                ids.append(' ');
+            }
+            ids.append(book.getId());
+        }
+        return ids.toString();
+    }
+}
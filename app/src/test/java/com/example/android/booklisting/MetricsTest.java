@@ -0,0 +1,134 @@
+package com.example.android.booklisting;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the histogram buckets and percentiles, the dump, and that recording is cheap
+ * enough to be left enabled.
+ */
+public class MetricsTest {
+
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(true);
+    }
+
+    @Test
+    public void buckets_boundValues() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 100, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = Metrics.Histogram.bucketIndex(value);
+            assertTrue(value <= Metrics.Histogram.bucketUpperBound(index));
+            if (index > 0) {
+                assertTrue(value > Metrics.Histogram.bucketUpperBound(index - 1));
+            }
+            // Relative error of 1/8 at most
+            assertTrue(Metrics.Histogram.bucketUpperBound(index) - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        Metrics.Histogram histogram = Metrics.histogram("test.percentiles", "items");
+        histogram.reset();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+        assertWithin(500, histogram.getPercentile(50));
+        assertWithin(950, histogram.getPercentile(95));
+        assertWithin(990, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void registry_returnsSameMetric() {
+        assertSame(Metrics.timer("test.same"), Metrics.timer("test.same"));
+        assertSame(Metrics.counter("test.same"), Metrics.counter("test.same"));
+    }
+
+    @Test
+    public void dump_listsRecordedMetrics() {
+        Metrics.reset();
+        Metrics.timer("test.dump.timer").record(2500000);
+        Metrics.counter("test.dump.counter").add(3);
+        Metrics.histogram("test.dump.empty", "B");
+
+        String dump = Metrics.dump();
+        assertTrue(dump, dump.contains("test.dump.counter"));
+        assertTrue(dump, dump.contains("test.dump.timer"));
+        assertTrue(dump, dump.contains("max 2.5 ms"));
+        assertFalse(dump, dump.contains("test.dump.empty"));
+    }
+
+    @Test
+    public void disabled_recordsNothing() {
+        Metrics.Histogram histogram = Metrics.timer("test.disabled");
+        histogram.reset();
+        Metrics.setEnabled(false);
+        histogram.record(10);
+        Metrics.counter("test.disabled").increment();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, Metrics.counter("test.disabled").get());
+    }
+
+    @Test
+    public void recording_doesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            // Allocation counters are not available on this VM
+            return;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+        Metrics.Histogram histogram = Metrics.timer("test.allocation");
+        Metrics.Counter counter = Metrics.counter("test.allocation");
+
+        record(histogram, counter);
+
+        // Keep the lowest of a few passes, the VM itself may allocate now and then
+        long allocated = Long.MAX_VALUE;
+        long bestNanos = Long.MAX_VALUE;
+        for (int pass = 0; pass < 5; pass++) {
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            record(histogram, counter);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            allocated = Math.min(allocated, threadBean.getThreadAllocatedBytes(threadId) - before);
+        }
+
+        assertEquals(0, allocated);
+        // A request records about a dozen values and takes tens of milliseconds:
+        // even at a microsecond per value, that is well under 1%
+        assertTrue("ns per value: " + bestNanos / 100000, bestNanos / 100000 < 1000);
+    }
+
+    private static void record(Metrics.Histogram histogram, Metrics.Counter counter) {
+        for (int i = 0; i < 100000; i++) {
+            long start = System.nanoTime();
+            counter.increment();
+            histogram.recordSince(start);
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " ~ " + actual,
+                actual >= expected && actual - expected <= expected / 8);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for {@link QueryHistory}.
+ */
+public class QueryHistoryTest {
+
+    private static final long NOW = 1500000000000L;
+
+    @Test
+    public void addVocabulary_skipsIncompleteVolumes() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(null);
+        books.add(new Book("a", "The Hobbit", Arrays.asList("J. R. R. Tolkien"), "", "",
+                Collections.<IndustryIdentifier>emptyList(), 310, null, "en", ""));
+        books.add(null);
+
+        SuggestionTrie trie = new SuggestionTrie(64 * 1024);
+        QueryHistory.addVocabulary(trie, books, NOW);
+
+        assertEquals(2, trie.size());
+        assertEquals(Arrays.asList("The Hobbit"), trie.suggest("the", 5));
+        assertEquals(Arrays.asList("J. R. R. Tolkien"), trie.suggest("j", 5));
+    }
+}
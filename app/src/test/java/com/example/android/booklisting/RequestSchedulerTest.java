@@ -0,0 +1,173 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit tests for {@link RequestScheduler}.
+ */
+public class RequestSchedulerTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void lane_runsAtMostItsThreadCount() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(1, 1, 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(scheduler.submit(RequestScheduler.LANE_PREFETCH, null, new Runnable() {
+                @Override
+                public void run() {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void cancelAll_dropsQueuedAndInterruptsRunning() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(1, 1, 1);
+        final Object owner = new Object();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger queuedRuns = new AtomicInteger();
+
+        Future<?> running = scheduler.submit(RequestScheduler.LANE_INTERACTIVE, owner,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            Thread.sleep(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                        }
+                    }
+                });
+        List<Future<?>> queued = new ArrayList<Future<?>>();
+        for (int i = 0; i < 3; i++) {
+            queued.add(scheduler.submit(RequestScheduler.LANE_INTERACTIVE, owner, new Runnable() {
+                @Override
+                public void run() {
+                    queuedRuns.incrementAndGet();
+                }
+            }));
+        }
+        // Someone else's work isn't touched
+        Future<String> other = scheduler.submit(RequestScheduler.LANE_VISIBLE, new Object(),
+                constant("other"));
+
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(3, scheduler.getQueuedCount(RequestScheduler.LANE_INTERACTIVE));
+
+        assertEquals(4, scheduler.cancelAll(owner));
+        assertTrue(interrupted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getQueuedCount(RequestScheduler.LANE_INTERACTIVE));
+        assertTrue(running.isCancelled());
+        for (Future<?> future : queued) {
+            assertTrue(future.isCancelled());
+        }
+        assertEquals("other", other.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // The lane is free again, and nothing that was queued ran
+        assertEquals("next", scheduler.submit(RequestScheduler.LANE_INTERACTIVE, owner,
+                constant("next")).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, queuedRuns.get());
+        assertEquals(0, scheduler.cancelAll(owner));
+    }
+
+    @Test
+    public void cancelledFuture_throwsCancellation() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(1, 1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(RequestScheduler.LANE_INTERACTIVE, null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Future<String> queued = scheduler.submit(RequestScheduler.LANE_INTERACTIVE, "tag",
+                constant("never"));
+        scheduler.cancelAll("tag");
+        release.countDown();
+        try {
+            queued.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("Expected a CancellationException");
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test
+    public void interactiveLatency_isNotDelayedByPrefetchBacklog() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(2, 3, 2);
+        final Object prefetches = new Object();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // Fill the prefetch lane with work that doesn't finish until told to
+        for (int i = 0; i < 300; i++) {
+            scheduler.submit(RequestScheduler.LANE_PREFETCH, prefetches, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertEquals(298, scheduler.getQueuedCount(RequestScheduler.LANE_PREFETCH));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            assertEquals("result", scheduler.submit(RequestScheduler.LANE_INTERACTIVE, null,
+                    constant("result")).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Interactive requests took " + elapsedMillis + " ms", elapsedMillis < 1000);
+
+        release.countDown();
+        scheduler.cancelAll(prefetches);
+    }
+
+    private static Callable<String> constant(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the retries, circuit breaking and hedging of {@link ResilientTransport} against
+ * a scripted transport. Backoff pauses are recorded instead of slept.
+ */
+public class ResilientTransportTest {
+
+    private static final String URL_STRING = "http://books.example.com/books/v1/volumes?q=x";
+
+    @Test
+    public void retryableResponse_isRetriedUntilItSucceeds() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport(503, 500, 200);
+        RecordingTransport transport = new RecordingTransport(delegate, 3);
+
+        assertEquals(200, transport.execute(new URL(URL_STRING)).responseCode);
+        assertEquals(3, delegate.requests);
+        assertEquals(2, transport.sleeps.size());
+        // Full jitter below 100 ms, then 200 ms
+        assertTrue(transport.sleeps.get(0) < 100);
+        assertTrue(transport.sleeps.get(1) < 200);
+    }
+
+    @Test
+    public void failure_isRetried_andRethrownWhenOutOfAttempts() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport(-1, -1, -1, 200);
+        RecordingTransport transport = new RecordingTransport(delegate, 3);
+
+        try {
+            transport.execute(new URL(URL_STRING));
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+        }
+        assertEquals(3, delegate.requests);
+    }
+
+    @Test
+    public void clientError_isNotRetried() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport(404, 200);
+        RecordingTransport transport = new RecordingTransport(delegate, 3);
+
+        assertEquals(404, transport.execute(new URL(URL_STRING)).responseCode);
+        assertEquals(1, delegate.requests);
+    }
+
+    @Test
+    public void retryAfter_isHonored_unlessTooLong() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport(429, 200);
+        delegate.retryAfter = "2";
+        RecordingTransport transport = new RecordingTransport(delegate, 3);
+
+        assertEquals(200, transport.execute(new URL(URL_STRING)).responseCode);
+        assertEquals(Long.valueOf(2000), transport.sleeps.get(0));
+
+        // Longer than the longest delay: the error response is returned right away
+        delegate = new ScriptedTransport(503, 200);
+        delegate.retryAfter = "3600";
+        transport = new RecordingTransport(delegate, 3);
+        assertEquals(503, transport.execute(new URL(URL_STRING)).responseCode);
+        assertEquals(1, delegate.requests);
+        assertTrue(transport.sleeps.isEmpty());
+    }
+
+    @Test
+    public void parseRetryAfter_readsSecondsAndDates() {
+        long now = 1000000000000L;
+        assertEquals(120000, RetryPolicy.parseRetryAfter(" 120 ", now));
+        assertEquals(-1, RetryPolicy.parseRetryAfter(null, now));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("soon", now));
+        // 2001-09-09T01:46:40Z is the epoch millisecond 1000000000000
+        assertEquals(30000,
+                RetryPolicy.parseRetryAfter("Sun, 09 Sep 2001 01:47:10 GMT", now));
+        assertEquals(0, RetryPolicy.parseRetryAfter("Sun, 09 Sep 2001 01:00:00 GMT", now));
+    }
+
+    @Test
+    public void backoff_growsExponentially_upToTheCap() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getDelayMillis(1, -1, random) < 100);
+            assertTrue(policy.getDelayMillis(3, -1, random) < 400);
+            assertTrue(policy.getDelayMillis(40, -1, random) < 1000);
+        }
+    }
+
+    @Test
+    public void circuitBreaker_opensAfterFailures_andProbesAfterAWhile() {
+        long openNanos = TimeUnit.SECONDS.toNanos(30);
+        CircuitBreaker breaker = new CircuitBreaker(3, openNanos);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.allowRequest(0));
+            breaker.onFailure(0);
+        }
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertTrue(!breaker.allowRequest(openNanos - 1));
+
+        // One probe, which fails: open again
+        assertTrue(breaker.allowRequest(openNanos));
+        assertTrue(!breaker.allowRequest(openNanos));
+        breaker.onFailure(openNanos);
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+
+        // The next probe succeeds: closed
+        assertTrue(breaker.allowRequest(2 * openNanos));
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(2 * openNanos));
+    }
+
+    @Test
+    public void openCircuit_failsFast_withoutRequests() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport();
+        delegate.defaultCode = 503;
+        RecordingTransport transport = new RecordingTransport(delegate, 1);
+
+        // Five failures in a row open it
+        for (int i = 0; i < 5; i++) {
+            assertEquals(503, transport.execute(new URL(URL_STRING)).responseCode);
+        }
+        try {
+            transport.execute(new URL(URL_STRING));
+            fail("Expected a CircuitOpenException");
+        } catch (ResilientTransport.CircuitOpenException expected) {
+        }
+        assertEquals(5, delegate.requests);
+
+        // Other hosts are not affected
+        assertEquals(503, transport.execute(
+                new URL("http://other.example.com/books/v1/volumes?q=x")).responseCode);
+
+        // After a while, a probe goes through, and its success closes the circuit
+        transport.now += TimeUnit.SECONDS.toNanos(30);
+        delegate.defaultCode = 200;
+        assertEquals(200, transport.execute(new URL(URL_STRING)).responseCode);
+        assertEquals(200, transport.execute(new URL(URL_STRING)).responseCode);
+    }
+
+    @Test
+    public void hedging_sendsASecondRequest_whenTheFirstIsSlow() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport();
+        delegate.defaultCode = 200;
+        RecordingTransport transport = new RecordingTransport(delegate, 1);
+        transport.setHedging(true);
+
+        // Time fast requests, so the hedging delay is known
+        for (int i = 0; i < 200; i++) {
+            transport.execute(new URL(URL_STRING));
+        }
+
+        // The next request hangs, the hedge answers
+        delegate.hangNext = true;
+        int before = delegate.requests;
+        long start = System.nanoTime();
+        assertEquals(200, transport.execute(new URL(URL_STRING)).responseCode);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(before + 2, delegate.requests);
+        assertTrue("Hedged request took " + elapsedMillis + " ms", elapsedMillis < 1000);
+    }
+
+    @Test
+    public void hedging_ignoresTheTimeOfCacheHits() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport();
+        delegate.defaultCode = 200;
+        RecordingTransport transport = new RecordingTransport(delegate, 1);
+        transport.setHedging(true);
+
+        // Cache hits, much faster than any request, don't set the hedging delay
+        delegate.fromCache = true;
+        for (int i = 0; i < 200; i++) {
+            transport.execute(new URL(URL_STRING));
+        }
+
+        // So a slower request from the network isn't hedged
+        delegate.fromCache = false;
+        delegate.hangMillis = 200;
+        delegate.hangNext = true;
+        int before = delegate.requests;
+        assertEquals(200, transport.execute(new URL(URL_STRING)).responseCode);
+        assertEquals(before + 1, delegate.requests);
+    }
+
+    @Test
+    public void hedging_isOffByDefault() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport();
+        delegate.defaultCode = 200;
+        RecordingTransport transport = new RecordingTransport(delegate, 1);
+
+        for (int i = 0; i < 50; i++) {
+            transport.execute(new URL(URL_STRING));
+        }
+        assertEquals(50, delegate.requests);
+    }
+
+    /**
+     * Answers with the scripted response codes in turn, -1 for an IOException, then with
+     * the default code.
+     */
+    private static final class ScriptedTransport implements HttpTransport {
+
+        private final LinkedList<Integer> mCodes = new LinkedList<Integer>();
+
+        volatile int requests;
+        volatile int defaultCode = 200;
+        volatile String retryAfter;
+        volatile boolean hangNext;
+        volatile long hangMillis = TimeUnit.SECONDS.toMillis(10);
+        volatile boolean fromCache;
+
+        ScriptedTransport(int... codes) {
+            for (int code : codes) {
+                mCodes.add(code);
+            }
+        }
+
+        @Override
+        public Exchange execute(URL url) throws IOException {
+            boolean hang;
+            int code;
+            synchronized (this) {
+                requests++;
+                hang = hangNext;
+                hangNext = false;
+                code = mCodes.isEmpty() ? defaultCode : mCodes.removeFirst();
+            }
+            if (hang) {
+                try {
+                    Thread.sleep(hangMillis);
+                } catch (InterruptedException e) {
+                    throw new IOException("Cancelled");
+                }
+            }
+            if (code < 0) {
+                throw new IOException("Scripted failure");
+            }
+            return new Exchange(code, null, new ByteArrayInputStream(new byte[0]), 0, 0,
+                    retryAfter, fromCache);
+        }
+    }
+
+    /**
+     * Records the backoff pauses instead of sleeping, and has a clock moved by hand.
+     */
+    private static final class RecordingTransport extends ResilientTransport {
+
+        final List<Long> sleeps = new ArrayList<Long>();
+        long now;
+
+        RecordingTransport(HttpTransport delegate, int maxAttempts) {
+            super(delegate, new RetryPolicy(maxAttempts, 100, 5000));
+        }
+
+        @Override
+        void sleep(long millis) {
+            sleeps.add(millis);
+        }
+
+        @Override
+        long nanoTime() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that requests are shaped as configured, and the same way for the same seed.
+ * The pauses are recorded instead of slept.
+ */
+public class ShapingTransportTest {
+
+    private static final int BODY_SIZE = 10 * 1024;
+
+    private final byte[] mBody = new byte[BODY_SIZE];
+
+    @Test
+    public void unconfigured_passesThrough() throws IOException {
+        RecordingTransport transport = new RecordingTransport(1);
+
+        assertArrayEquals(mBody, readBody(transport));
+        assertEquals(0, transport.totalSleepMillis());
+    }
+
+    @Test
+    public void bandwidth_pausesForTheBodySize() throws IOException {
+        RecordingTransport transport = new RecordingTransport(1);
+        transport.setBandwidth(10 * 1024);
+
+        readBody(transport);
+
+        // 10 KiB at 10 KiB/s
+        assertEquals(1000, transport.totalSleepMillis());
+    }
+
+    @Test
+    public void latency_addsBaseAndJitter() throws IOException {
+        RecordingTransport transport = new RecordingTransport(1);
+        transport.setLatency(100, 50);
+
+        long total = 0;
+        for (int i = 0; i < 1000; i++) {
+            transport.sleeps.clear();
+            transport.execute(new URL("http://books.example.com/" + i));
+            assertEquals(1, transport.sleeps.size());
+            assertTrue(transport.sleeps.get(0) >= 100);
+            total += transport.sleeps.get(0);
+        }
+        // Mean of base + jitter
+        assertEquals(150, total / 1000.0, 10);
+    }
+
+    @Test
+    public void sameSeed_sameShaping() throws IOException {
+        List<String> first = shapeRequests(new RecordingTransport(42));
+        List<String> second = shapeRequests(new RecordingTransport(42));
+        List<String> other = shapeRequests(new RecordingTransport(43));
+
+        assertEquals(first, second);
+        assertTrue(!first.equals(other));
+    }
+
+    @Test
+    public void failuresAndTruncations_matchTheRates() throws IOException {
+        RecordingTransport transport = new RecordingTransport(7);
+        transport.setFailureRate(0.2);
+        transport.setTruncateRate(0.1);
+
+        int failed = 0;
+        int truncated = 0;
+        for (int i = 0; i < 1000; i++) {
+            String outcome = shapeRequest(transport);
+            if (outcome.equals("failed")) {
+                failed++;
+            } else if (outcome.equals("truncated")) {
+                truncated++;
+            }
+        }
+        assertEquals(200, failed, 40);
+        // Of the requests that didn't fail
+        assertEquals(80, truncated, 30);
+    }
+
+    private List<String> shapeRequests(RecordingTransport transport) throws IOException {
+        transport.setLatency(20, 100);
+        transport.setStalls(0.05, 300);
+        transport.setFailureRate(0.1);
+        transport.setTruncateRate(0.1);
+
+        List<String> outcomes = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            transport.sleeps.clear();
+            outcomes.add(shapeRequest(transport) + " " + transport.sleeps);
+        }
+        return outcomes;
+    }
+
+    private String shapeRequest(RecordingTransport transport) throws IOException {
+        try {
+            readBody(transport);
+            return "ok";
+        } catch (IOException e) {
+            return e.getMessage().contains("cut short") ? "truncated" : "failed";
+        }
+    }
+
+    private byte[] readBody(HttpTransport transport) throws IOException {
+        HttpTransport.Exchange exchange = transport.execute(new URL("http://books.example.com/"));
+        InputStream body = exchange.body;
+        byte[] read = new byte[BODY_SIZE];
+        int offset = 0;
+        int n;
+        while (offset < read.length && (n = body.read(read, offset, read.length - offset)) != -1) {
+            offset += n;
+        }
+        assertEquals(-1, body.read());
+        return read;
+    }
+
+    /**
+     * Serves the test body, and records the pauses instead of sleeping.
+     */
+    private final class RecordingTransport extends ShapingTransport {
+
+        final List<Long> sleeps = new ArrayList<Long>();
+
+        RecordingTransport(long seed) {
+            super(new HttpTransport() {
+                @Override
+                public Exchange execute(URL url) {
+                    return new Exchange(200, null, new ByteArrayInputStream(mBody), 0, 0);
+                }
+            }, seed);
+        }
+
+        @Override
+        void sleep(long millis) throws InterruptedIOException {
+            if (millis > 0) {
+                sleeps.add(millis);
+            }
+        }
+
+        long totalSleepMillis() {
+            long total = 0;
+            for (long millis : sleeps) {
+                total += millis;
+            }
+            return total;
+        }
+    }
+}
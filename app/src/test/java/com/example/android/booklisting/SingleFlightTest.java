@@ -0,0 +1,278 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit tests for {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void concurrentCallers_shareOneCall() throws Exception {
+        final SingleFlight<Object> singleFlight = new SingleFlight<Object>();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger invocations = new AtomicInteger();
+        final Object result = new Object();
+
+        final Callable<Object> callable = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                invocations.incrementAndGet();
+                release.await();
+                return result;
+            }
+        };
+
+        int callers = 5;
+        final List<Object> results = new ArrayList<Object>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < callers; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Object value = singleFlight.execute("key", callable);
+                        synchronized (results) {
+                            results.add(value);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        waitForCalls(singleFlight, callers);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        }
+
+        assertEquals(1, invocations.get());
+        assertEquals(callers - 1, singleFlight.getCollapsedCount());
+        assertEquals(callers, results.size());
+        for (Object value : results) {
+            assertSame(result, value);
+        }
+    }
+
+    @Test
+    public void sequentialCalls_areNotCollapsed() throws Exception {
+        SingleFlight<Integer> singleFlight = new SingleFlight<Integer>();
+        final AtomicInteger invocations = new AtomicInteger();
+        Callable<Integer> callable = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return invocations.incrementAndGet();
+            }
+        };
+
+        assertEquals(Integer.valueOf(1), singleFlight.execute("key", callable));
+        assertEquals(Integer.valueOf(2), singleFlight.execute("key", callable));
+        assertEquals(0, singleFlight.getCollapsedCount());
+    }
+
+    @Test
+    public void firstCallerInterrupted_othersStillGetResult() throws Exception {
+        final SingleFlight<String> singleFlight = new SingleFlight<String>();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> callable = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                release.await();
+                return "done";
+            }
+        };
+
+        final AtomicReference<Throwable> firstOutcome = new AtomicReference<Throwable>();
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    singleFlight.execute("key", callable);
+                } catch (Throwable e) {
+                    firstOutcome.set(e);
+                }
+            }
+        });
+        first.start();
+        waitForCalls(singleFlight, 1);
+
+        final AtomicReference<String> secondResult = new AtomicReference<String>();
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    secondResult.set(singleFlight.execute("key", callable));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        second.start();
+        waitForCalls(singleFlight, 2);
+
+        // Cancel the caller that started the call
+        first.interrupt();
+        first.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertTrue(firstOutcome.get() instanceof InterruptedException);
+
+        release.countDown();
+        second.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertEquals("done", secondResult.get());
+    }
+
+    @Test
+    public void allCallersInterrupted_cancelsCall() throws Exception {
+        final SingleFlight<String> singleFlight = new SingleFlight<String>();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final Callable<String> callable = new Callable<String>() {
+            @Override
+            public String call() {
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return null;
+            }
+        };
+
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    singleFlight.execute("key", callable);
+                } catch (Exception e) {
+                    // Expected
+                }
+            }
+        });
+        caller.start();
+        waitForCalls(singleFlight, 1);
+        caller.interrupt();
+
+        assertTrue(interrupted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void firstCallerInterrupted_whileAllThreadsAreBusy_othersStillGetResult()
+            throws Exception {
+        final SingleFlight<String> singleFlight = new SingleFlight<String>(1);
+
+        // Keep the only thread busy
+        final CountDownLatch releaseBusy = new CountDownLatch(1);
+        Thread busy = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    singleFlight.execute("busy", new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            releaseBusy.await();
+                            return "busy";
+                        }
+                    });
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        busy.start();
+        waitForCalls(singleFlight, 1);
+
+        final Callable<String> callable = new Callable<String>() {
+            @Override
+            public String call() {
+                return "done";
+            }
+        };
+        final AtomicReference<Throwable> firstOutcome = new AtomicReference<Throwable>();
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    singleFlight.execute("key", callable);
+                } catch (Throwable e) {
+                    firstOutcome.set(e);
+                }
+            }
+        });
+        first.start();
+        waitForCalls(singleFlight, 2);
+
+        final AtomicReference<String> secondResult = new AtomicReference<String>();
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    secondResult.set(singleFlight.execute("key", callable));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        second.start();
+        waitForCalls(singleFlight, 3);
+
+        // Cancel the caller that started the call, still waiting for a thread
+        first.interrupt();
+        first.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertTrue(firstOutcome.get() instanceof InterruptedException);
+
+        releaseBusy.countDown();
+        second.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertEquals("done", secondResult.get());
+        busy.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+    }
+
+    @Test
+    public void exception_isReportedToAllCallers() throws Exception {
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+        try {
+            singleFlight.execute("key", new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw new IllegalStateException("failed");
+                }
+            });
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    /**
+     * Wait until the given number of calls have been made, so the callers are waiting.
+     */
+    private static void waitForCalls(SingleFlight<?> singleFlight, int calls)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (singleFlight.getCallCount() < calls) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for " + calls + " calls");
+            }
+            Thread.sleep(5);
+        }
+        // Give the last caller time to reach future.get()
+        Thread.sleep(50);
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link SuggestionTrie}.
+ */
+public class SuggestionTrieTest {
+
+    private static final long BUDGET = 256 * 1024;
+    private static final long NOW = 1500000000000L;
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    @Test
+    public void suggest_matchesPrefixIgnoringCaseAndSpaces() {
+        SuggestionTrie trie = new SuggestionTrie(BUDGET);
+        trie.add("  Harry   Potter ", 1, NOW);
+        trie.add("harp music", 1, NOW);
+        trie.add("Dune", 1, NOW);
+
+        assertEquals(Arrays.asList("Harry Potter"), trie.suggest("HARRY p", 5));
+        assertEquals(2, trie.suggest("har", 5).size());
+        assertEquals(Arrays.asList("Dune"), trie.suggest(" du", 5));
+        assertTrue(trie.suggest("x", 5).isEmpty());
+        // The same suggestion in another case is counted once, shown as last typed
+        trie.add("DUNE", 1, NOW);
+        assertEquals(Arrays.asList("DUNE"), trie.suggest("d", 5));
+        assertEquals(3, trie.size());
+    }
+
+    @Test
+    public void suggest_ranksByFrequencyAndRecency() {
+        SuggestionTrie trie = new SuggestionTrie(BUDGET);
+        trie.add("java", 1, NOW);
+        trie.add("javascript", 1, NOW);
+        trie.add("javascript", 1, NOW);
+        trie.add("jazz", 0.2, NOW);
+        assertEquals(Arrays.asList("javascript", "java", "jazz"), trie.suggest("ja", 5));
+        assertEquals(Arrays.asList("javascript"), trie.suggest("ja", 1));
+
+        // Two uses a month ago count less than one now
+        trie.add("jane austen", 1, NOW + 30 * DAY);
+        assertEquals("jane austen", trie.suggest("ja", 1).get(0));
+    }
+
+    @Test
+    public void add_staysWithinTheBudget_keepingTheBest() {
+        long budget = 16 * 1024;
+        SuggestionTrie trie = new SuggestionTrie(budget);
+        trie.add("favourite", 1000, NOW);
+        for (int i = 0; i < 2000; i++) {
+            trie.add("suggestion number " + i, 1, NOW + i);
+            assertTrue(trie.estimateBytes() <= budget);
+        }
+        assertTrue(trie.size() < 2000);
+        assertEquals(Arrays.asList("favourite"), trie.suggest("fav", 5));
+        // The most recent ones are kept
+        assertEquals(Arrays.asList("suggestion number 1999"),
+                trie.suggest("suggestion number 1999", 5));
+    }
+
+    @Test
+    public void writeAndRead_keepSuggestionsAndRanks() throws IOException {
+        SuggestionTrie trie = new SuggestionTrie(BUDGET);
+        trie.add("Tolkien", 1, NOW);
+        trie.add("The Hobbit", 1, NOW);
+        trie.add("The Hobbit", 1, NOW);
+        trie.add("the two towers", 0.2, NOW);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        trie.write(new DataOutputStream(bytes));
+        SuggestionTrie read = new SuggestionTrie(BUDGET);
+        read.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(3, read.size());
+        assertEquals(trie.suggest("t", 5), read.suggest("t", 5));
+        assertEquals(Arrays.asList("The Hobbit", "Tolkien", "the two towers"),
+                read.suggest("t", 5));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_truncated_throws() throws IOException {
+        SuggestionTrie trie = new SuggestionTrie(BUDGET);
+        trie.add("Tolkien", 1, NOW);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        trie.write(new DataOutputStream(bytes));
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 3);
+        new SuggestionTrie(BUDGET).read(
+                new DataInputStream(new ByteArrayInputStream(truncated)));
+    }
+
+    @Test
+    public void suggest_thousandsOfSuggestions_takesLessThanAMillisecond() {
+        // Large enough for all of them
+        SuggestionTrie trie = new SuggestionTrie(8 * BUDGET);
+        String[] words = {"the", "history", "of", "android", "java", "programming", "art",
+                "science", "world", "war", "love", "story"};
+        for (int i = 0; i < 5000; i++) {
+            trie.add(words[i % words.length] + " " + words[i * 7 % words.length] + " " + i,
+                    1 + i % 5, NOW + i * 1000L);
+        }
+        assertEquals(5000, trie.size());
+        String[] prefixes = {"t", "th", "the", "a", "j", "s", "w", "l", "h", "p"};
+
+        // Warm up, then time the lookups
+        for (int i = 0; i < 2000; i++) {
+            trie.suggest(prefixes[i % prefixes.length], 5);
+        }
+        int lookups = 1000;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            List<String> suggestions = trie.suggest(prefixes[i % prefixes.length], 5);
+            assertEquals(5, suggestions.size());
+        }
+        long averageMicros = (System.nanoTime() - start) / lookups / 1000;
+        assertTrue("A lookup took " + averageMicros + " us", averageMicros < 1000);
+    }
+}
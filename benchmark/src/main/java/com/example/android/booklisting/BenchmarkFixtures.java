@@ -0,0 +1,90 @@
+package com.example.android.booklisting;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Google Books volume list responses used by the benchmarks. The files in
+ * resources/fixtures have the structure of real API v1 responses, with all the
+ * sections the parsers have to skip (saleInfo, accessInfo, searchInfo...).
+ */
+final class BenchmarkFixtures {
+
+    /** 10 items, the size of a default page */
+    static final String VOLUMES_10 = "volumes_10.json";
+
+    /** 40 items, the maximum page size */
+    static final String VOLUMES_40 = "volumes_40.json";
+
+    /** The 40 items, as a partial response with the fields of BooksQuery.LIST_FIELDS */
+    static final String VOLUMES_40_FIELDS = "volumes_40_fields.json";
+
+    /** 10 items, each missing some optional fields (authors, publisher, imageLinks...) */
+    static final String VOLUMES_MISSING_OPTIONAL = "volumes_missing_optional.json";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Returns the content of a fixture.
+     */
+    static String load(String name) throws IOException {
+        InputStream in = BenchmarkFixtures.class.getResourceAsStream("/fixtures/" + name);
+        if (in == null) {
+            throw new IOException("Missing fixture " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Build a response with the given number of items, repeating the items of the
+     * 40 item fixture with new IDs.
+     */
+    static String synthesize(int itemCount) throws IOException, JSONException {
+        JSONObject source = new JSONObject(load(VOLUMES_40));
+        JSONArray sourceItems = source.getJSONArray("items");
+
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < itemCount; i++) {
+            JSONObject item = new JSONObject(sourceItems.getJSONObject(
+                    i % sourceItems.length()).toString());
+            item.put("id", item.getString("id") + i);
+            items.put(item);
+        }
+        JSONObject response = new JSONObject();
+        response.put("kind", "books#volumes");
+        response.put("totalItems", itemCount);
+        response.put("items", items);
+        return response.toString();
+    }
+
+    /**
+     * Returns the items of a response, already parsed.
+     */
+    static JSONObject[] items(String response) throws JSONException {
+        JSONArray array = new JSONObject(response).getJSONArray("items");
+        JSONObject[] items = new JSONObject[array.length()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = array.getJSONObject(i);
+        }
+        return items;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.booklisting;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Minimal JMH-style runner: timed warmup iterations, then timed measurement iterations
+ * recording the latency of every operation and the bytes allocated by the thread.
+ * Results are kept alive through a sink, so the JIT can't drop the work.
+ */
+final class BenchmarkRunner {
+
+    /**
+     * The operation measured
+     */
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    /**
+     * Measurements of a benchmark
+     */
+    static final class Result {
+        final String name;
+        final long operations;
+        final double opsPerSecond;
+        final long p50Nanos;
+        final long p90Nanos;
+        final long p99Nanos;
+        final long maxNanos;
+        /** Bytes allocated per book, or -1 if the VM can't tell */
+        final double bytesPerBook;
+
+        Result(String name, long operations, double opsPerSecond, long p50Nanos, long p90Nanos,
+               long p99Nanos, long maxNanos, double bytesPerBook) {
+            this.name = name;
+            this.operations = operations;
+            this.opsPerSecond = opsPerSecond;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+            this.bytesPerBook = bytesPerBook;
+        }
+    }
+
+    private final int mWarmupIterations;
+    private final int mMeasurementIterations;
+    private final long mIterationNanos;
+
+    /** Keeps results reachable */
+    private volatile Object mSink;
+
+    BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis) {
+        mWarmupIterations = warmupIterations;
+        mMeasurementIterations = measurementIterations;
+        mIterationNanos = iterationMillis * 1000000L;
+    }
+
+    /**
+     * Run a benchmark.
+     *
+     * @param name        name of the benchmark
+     * @param booksPerOp  books parsed by each operation, to report allocation per book
+     * @param operation   the operation
+     */
+    Result run(String name, int booksPerOp, Operation operation) throws Exception {
+        for (int i = 0; i < mWarmupIterations; i++) {
+            long end = System.nanoTime() + mIterationNanos;
+            while (System.nanoTime() < end) {
+                mSink = operation.run();
+            }
+        }
+        System.gc();
+
+        com.sun.management.ThreadMXBean threadBean = allocationBean();
+        long threadId = Thread.currentThread().getId();
+
+        long[] latencies = new long[1 << 16];
+        int count = 0;
+        long totalNanos = 0;
+        long allocatedBytes = 0;
+        for (int i = 0; i < mMeasurementIterations; i++) {
+            long allocatedBefore = threadBean != null
+                    ? threadBean.getThreadAllocatedBytes(threadId) : 0;
+            long iterationStart = System.nanoTime();
+            long end = iterationStart + mIterationNanos;
+            long now = iterationStart;
+            while (now < end) {
+                mSink = operation.run();
+                long finished = System.nanoTime();
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = finished - now;
+                now = finished;
+            }
+            totalNanos += now - iterationStart;
+            if (threadBean != null) {
+                allocatedBytes += threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            }
+        }
+
+        Arrays.sort(latencies, 0, count);
+        double bytesPerBook = threadBean != null
+                ? (double) allocatedBytes / count / booksPerOp : -1;
+        return new Result(name, count, count * 1e9 / totalNanos,
+                percentile(latencies, count, 50), percentile(latencies, count, 90),
+                percentile(latencies, count, 99), latencies[count - 1], bytesPerBook);
+    }
+
+    private static long percentile(long[] sorted, int count, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    /**
+     * Returns the HotSpot thread bean with allocation counters, or null if not available.
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        return threadBean;
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.android.booklisting;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The original JSONObject parser for Google Books volume list responses, which reads the
+ * whole response into a String and then into a JSONObject tree.
+ * <p>
+ * The app parses the response stream with {@link BookStreamParser} instead, so this one is
+ * only kept here, outside of the app: as the baseline of {@link ParserBenchmark}, and as the
+ * reference {@code ParserParityTest} checks the streaming parser against. It only depends on
+ * org.json and on the logging in {@link Log} and {@link TextUtils}.
+ */
+final class BookJsonParser {
+
+    // Constants for JSON objects
+    private static final String JSON_ITEMS = "items";
+    private static final String JSON_ID = "id";
+    private static final String JSON_TYPE = "type";
+    private static final String JSON_VOLUME_INFO = "volumeInfo";
+    private static final String JSON_TITLE = "title";
+    private static final String JSON_IDENTIFIER = "identifier";
+    private static final String JSON_AUTHORS = "authors";
+    private static final String JSON_PUBLISHER = "publisher";
+    private static final String JSON_PUBLISHED_DATE = "publishedDate";
+    private static final String JSON_PAGE_COUNT = "pageCount";
+    private static final String JSON_IMAGE_LINKS = "imageLinks";
+    private static final String JSON_LANGUAGE = "language";
+    private static final String JSON_INFO_LINK = "infoLink";
+    private static final String JSON_SMALL_THUMBNAIL = "smallThumbnail";
+    private static final String JSON_THUMBNAIL = "thumbnail";
+
+    private static final String PROBLEM_PARSING_JSON = "Problem parsing the book JSON results.";
+
+    /**
+     * Tag for log messages
+     */
+    private static final String LOG_TAG = BookJsonParser.class.getSimpleName();
+
+    private BookJsonParser() {
+    }
+
+    /**
+     * Convert the {@link InputStream} into a String which contains the
+     * whole JSON response from the server.
+     */
+    static String readFromStream(InputStream inputStream) throws IOException {
+        StringBuilder output = new StringBuilder();
+        if (inputStream != null) {
+            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
+            BufferedReader reader = new BufferedReader(inputStreamReader);
+            String line = reader.readLine();
+            while (line != null) {
+                output.append(line);
+                line = reader.readLine();
+            }
+        }
+        return output.toString();
+    }
+
+    /**
+     * Return a list of {@link Book} objects that has been built up from
+     * parsing the given JSON response.
+     */
+    static List<Book> extractBookFromJson(String bookJSON) {
+        // If the JSON string is empty or null, then return early.
+        if (TextUtils.isEmpty(bookJSON)) {
+            return null;
+        }
+
+        // Create an empty ArrayList that we can start adding books to
+        List<Book> books = new ArrayList<Book>();
+
+        // Try to parse the JSON response string. If there's a problem with the way the JSON
+        // is formatted, a JSONException exception object will be thrown.
+        // Catch the exception so the app doesn't crash, and print the error message to the logs.
+        try {
+
+            // Create a JSONObject from the JSON response string
+            JSONObject baseJsonResponse = new JSONObject(bookJSON);
+
+            // Extract the JSONArray associated with the key called "items",
+            // which represents a list of books.
+            JSONArray bookArray = baseJsonResponse.getJSONArray(JSON_ITEMS);
+
+            // For each book in the bookArray, create an {@link Book} object
+            for (int i = 0; i < bookArray.length(); i++) {
+
+                // Get a single book at position i within the list of books
+                JSONObject currentBookJSON = bookArray.getJSONObject(i);
+
+                Book book = JSONtoBook(currentBookJSON);
+
+                // Add the new {@link Book} to the list of books.
+                books.add(book);
+            }
+        } catch (JSONException e) {
+            // If an error is thrown when executing any of the above statements in the "try" block,
+            // catch the exception here, so the app doesn't crash. Print a log message
+            // with the message from the exception.
+            Log.e(LOG_TAG, PROBLEM_PARSING_JSON, e);
+        }
+
+        // Return the list of books
+        return books;
+    }
+
+    /**
+     * Return a Book object from a JSONObject that represents a book in JSON format
+     *
+     * @param currentBookJSON a JSON Object containing info about a book
+     * @return the Book object
+     */
+    static Book JSONtoBook(JSONObject currentBookJSON) {
+
+        Book book = null;
+
+        // For a given book, extract its data
+        try {
+            // ID
+            String id = currentBookJSON.getString(JSON_ID);
+
+            // Volume Info
+            JSONObject volumeInfoJSON = currentBookJSON.getJSONObject(JSON_VOLUME_INFO);
+
+            // Title
+            String title = volumeInfoJSON.getString(JSON_TITLE);
+
+            // Authors
+            ArrayList<String> authors = new ArrayList<String>();
+            JSONArray authorJSONArray = volumeInfoJSON.optJSONArray(JSON_AUTHORS);
+            if (authorJSONArray != null) {
+                for (int j = 0; j < authorJSONArray.length(); j++) {
+                    authors.add(authorJSONArray.getString(j));
+                }
+            }
+            // Publisher
+            String publisher = volumeInfoJSON.optString(JSON_PUBLISHER);
+
+            // Published Date
+            String publishedDate = volumeInfoJSON.optString(JSON_PUBLISHED_DATE);
+
+            // Industry identifiers
+            ArrayList<IndustryIdentifier> industryIdentifiers = new ArrayList<IndustryIdentifier>();
+            JSONArray industryIdentifierJSONArray = volumeInfoJSON.optJSONArray("industryIdentifiers");
+            if (industryIdentifierJSONArray != null) {
+                for (int j = 0; j < industryIdentifierJSONArray.length(); j++) {
+                    JSONObject industryIdentifierJSON = industryIdentifierJSONArray.getJSONObject(j);
+                    String type = industryIdentifierJSON.optString(JSON_TYPE);
+                    String identifier = industryIdentifierJSON.getString(JSON_IDENTIFIER);
+                    IndustryIdentifier industryIdentifier = new IndustryIdentifier(type, identifier);
+                    industryIdentifiers.add(industryIdentifier);
+                }
+            }
+
+            // Page count
+            int pageCount = volumeInfoJSON.getInt(JSON_PAGE_COUNT);
+
+            // Image Links
+            ArrayList<ImageLink> imageLinks = new ArrayList<ImageLink>();
+            String type;
+            String url;
+            ImageLink imageLink;
+
+            JSONObject imagelinkJSONObject = volumeInfoJSON.optJSONObject(JSON_IMAGE_LINKS);
+            if (imagelinkJSONObject != null) {
+                type = JSON_SMALL_THUMBNAIL;
+                url = imagelinkJSONObject.optString(type);
+                imageLink = new ImageLink(type, url);
+                imageLinks.add(imageLink);
+
+                type = JSON_THUMBNAIL;
+                url = imagelinkJSONObject.optString(type);
+                imageLink = new ImageLink(type, url);
+                imageLinks.add(imageLink);
+            }
+
+            // Language
+            String language = volumeInfoJSON.getString(JSON_LANGUAGE);
+
+            // Info Link
+            String infoLink = volumeInfoJSON.getString(JSON_INFO_LINK);
+
+
+            // Create a new {@link Book} object with the parsed data from the JSON response.
+            book = new Book(id, title, authors, publisher, publishedDate,
+                    industryIdentifiers, pageCount, imageLinks, language, infoLink);
+
+        } catch (JSONException e) {
+            // If an error is thrown when executing any of the above statements in the "try" block,
+            // catch the exception here, so the app doesn't crash. Print a log message
+            // with the message from the exception.
+            Log.e(LOG_TAG, "Problem parsing the book JSON results", e);
+        }
+
+        return book;
+
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.android.booklisting;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Benchmarks of the JSON parsing of Google Books responses, over recorded-shape fixtures
+ * of several sizes. Runs offline on a plain JVM.
+ * <p>
+ * For every fixture, measures {@link BookStreamParser#readBooks(InputStream)}, the parser of
+ * the app, from the bytes of the response, against the JSONObject parser it replaced:
+ * {@link BookJsonParser#extractBookFromJson(String)}, the whole response from its String,
+ * which leaves out decoding the bytes to a String, and
+ * {@link BookJsonParser#JSONtoBook(JSONObject)}, the mapping of already parsed items to
+ * books. Reports throughput, latency percentiles and bytes allocated per book.
+ * <p>
+ * Arguments:
+ * <ul>
+ * <li>--save FILE: write the results, to be used as a baseline</li>
+ * <li>--baseline FILE: compare the results with a saved baseline</li>
+ * <li>--quick: shorter iterations, for a smoke run</li>
+ * </ul>
+ */
+public final class ParserBenchmark {
+
+    private static final int SYNTHETIC_ITEM_COUNT = 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ParserBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String saveFile = null;
+        String baselineFile = null;
+        boolean quick = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--save".equals(args[i]) && i + 1 < args.length) {
+                saveFile = args[++i];
+            } else if ("--baseline".equals(args[i]) && i + 1 < args.length) {
+                baselineFile = args[++i];
+            } else if ("--quick".equals(args[i])) {
+                quick = true;
+            } else {
+                System.err.println("Unknown argument " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        BenchmarkRunner runner = quick
+                ? new BenchmarkRunner(1, 2, 200)
+                : new BenchmarkRunner(5, 10, 1000);
+
+        List<BenchmarkRunner.Result> results = new ArrayList<BenchmarkRunner.Result>();
+        results.addAll(runFixture(runner, "items10",
+                BenchmarkFixtures.load(BenchmarkFixtures.VOLUMES_10)));
+        results.addAll(runFixture(runner, "items40",
+                BenchmarkFixtures.load(BenchmarkFixtures.VOLUMES_40)));
+        results.addAll(runFixture(runner, "items40Fields",
+                BenchmarkFixtures.load(BenchmarkFixtures.VOLUMES_40_FIELDS)));
+        results.addAll(runFixture(runner, "items1k",
+                BenchmarkFixtures.synthesize(SYNTHETIC_ITEM_COUNT)));
+        results.addAll(runFixture(runner, "missingOptional",
+                BenchmarkFixtures.load(BenchmarkFixtures.VOLUMES_MISSING_OPTIONAL)));
+
+        Properties baseline = baselineFile != null ? loadProperties(baselineFile) : null;
+        print(results, baseline);
+
+        if (saveFile != null) {
+            saveProperties(results, saveFile);
+        }
+    }
+
+    /**
+     * Run the benchmarks of both parsers over a response.
+     */
+    private static List<BenchmarkRunner.Result> runFixture(BenchmarkRunner runner, String name,
+                                                           final String response)
+            throws Exception {
+        final JSONObject[] items = BenchmarkFixtures.items(response);
+        final byte[] bytes = response.getBytes(UTF_8);
+        List<BenchmarkRunner.Result> results = new ArrayList<BenchmarkRunner.Result>();
+
+        results.add(runner.run("readBooks." + name, items.length,
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public Object run() throws IOException {
+                        return BookStreamParser.readBooks(new ByteArrayInputStream(bytes));
+                    }
+                }));
+
+        results.add(runner.run("extractBookFromJson." + name, items.length,
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public Object run() {
+                        return BookJsonParser.extractBookFromJson(response);
+                    }
+                }));
+
+        results.add(runner.run("JSONtoBook." + name, items.length,
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public Object run() {
+                        Book last = null;
+                        for (JSONObject item : items) {
+                            last = BookJsonParser.JSONtoBook(item);
+                        }
+                        return last;
+                    }
+                }));
+        return results;
+    }
+
+    private static void print(List<BenchmarkRunner.Result> results, Properties baseline) {
+        System.out.println(String.format(Locale.US, "%-36s %10s %10s %10s %10s %10s %12s",
+                "Benchmark", "ops/s", "p50 us", "p90 us", "p99 us", "max us", "B/book"));
+        for (BenchmarkRunner.Result result : results) {
+            System.out.println(String.format(Locale.US,
+                    "%-36s %10.1f %10.1f %10.1f %10.1f %10.1f %12.1f",
+                    result.name, result.opsPerSecond, result.p50Nanos / 1e3,
+                    result.p90Nanos / 1e3, result.p99Nanos / 1e3, result.maxNanos / 1e3,
+                    result.bytesPerBook));
+            if (baseline != null) {
+                String opsPerSecond = baseline.getProperty(result.name + ".opsPerSecond");
+                String bytesPerBook = baseline.getProperty(result.name + ".bytesPerBook");
+                if (opsPerSecond != null && bytesPerBook != null) {
+                    System.out.println(String.format(Locale.US,
+                            "%-36s %+9.1f%% %43s %+11.1f%%", "  vs baseline",
+                            change(Double.parseDouble(opsPerSecond), result.opsPerSecond), "",
+                            change(Double.parseDouble(bytesPerBook), result.bytesPerBook)));
+                }
+            }
+        }
+    }
+
+    private static double change(double before, double after) {
+        return before == 0 ? 0 : (after - before) * 100 / before;
+    }
+
+    private static Properties loadProperties(String fileName) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(new File(fileName));
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    private static void saveProperties(List<BenchmarkRunner.Result> results, String fileName)
+            throws IOException {
+        Properties properties = new Properties();
+        for (BenchmarkRunner.Result result : results) {
+            properties.setProperty(result.name + ".opsPerSecond",
+                    String.valueOf(result.opsPerSecond));
+            properties.setProperty(result.name + ".p50Nanos", String.valueOf(result.p50Nanos));
+            properties.setProperty(result.name + ".p99Nanos", String.valueOf(result.p99Nanos));
+            properties.setProperty(result.name + ".bytesPerBook",
+                    String.valueOf(result.bytesPerBook));
+        }
+        OutputStream out = new FileOutputStream(new File(fileName));
+        try {
+            properties.store(out, "Parser benchmark baseline");
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Stand-in for the Android JsonReader, so the streaming parser can run on a plain JVM.
+ * Delegates to the Gson JsonReader, which the Android one was ported from, and which
+ * reads the same input the same way.
+ */
+public final class JsonReader implements Closeable {
+
+    private final com.google.gson.stream.JsonReader mDelegate;
+
+    public JsonReader(Reader in) {
+        mDelegate = new com.google.gson.stream.JsonReader(in);
+    }
+
+    public void setLenient(boolean lenient) {
+        mDelegate.setLenient(lenient);
+    }
+
+    public boolean isLenient() {
+        return mDelegate.isLenient();
+    }
+
+    public void beginArray() throws IOException {
+        mDelegate.beginArray();
+    }
+
+    public void endArray() throws IOException {
+        mDelegate.endArray();
+    }
+
+    public void beginObject() throws IOException {
+        mDelegate.beginObject();
+    }
+
+    public void endObject() throws IOException {
+        mDelegate.endObject();
+    }
+
+    public boolean hasNext() throws IOException {
+        return mDelegate.hasNext();
+    }
+
+    public JsonToken peek() throws IOException {
+        return JsonToken.valueOf(mDelegate.peek().name());
+    }
+
+    public String nextName() throws IOException {
+        return mDelegate.nextName();
+    }
+
+    public String nextString() throws IOException {
+        return mDelegate.nextString();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        return mDelegate.nextBoolean();
+    }
+
+    public void nextNull() throws IOException {
+        mDelegate.nextNull();
+    }
+
+    public double nextDouble() throws IOException {
+        return mDelegate.nextDouble();
+    }
+
+    public long nextLong() throws IOException {
+        return mDelegate.nextLong();
+    }
+
+    public int nextInt() throws IOException {
+        return mDelegate.nextInt();
+    }
+
+    public void skipValue() throws IOException {
+        mDelegate.skipValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDelegate.close();
+    }
+}
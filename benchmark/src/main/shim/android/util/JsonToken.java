@@ -0,0 +1,17 @@
+package android.util;
+
+/**
+ * Stand-in for the Android JsonToken, see {@link JsonReader}.
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}
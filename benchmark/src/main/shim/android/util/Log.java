@@ -0,0 +1,25 @@
+package android.util;
+
+/**
+ * Stand-in for the Android logger, so the parsers can run on a plain JVM.
+ * Messages go to standard error, except debug ones which are dropped.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int e(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        System.err.println(tag + ": " + msg + ": " + tr);
+        return 0;
+    }
+}
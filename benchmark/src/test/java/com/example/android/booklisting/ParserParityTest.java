@@ -0,0 +1,104 @@
+package com.example.android.booklisting;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link BookStreamParser}, the parser of the app, reads the fixtures into the
+ * same books as {@link BookJsonParser}, the JSONObject parser it replaced.
+ */
+public class ParserParityTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void volumes10() throws Exception {
+        assertSameBooks(BenchmarkFixtures.VOLUMES_10, 10);
+    }
+
+    @Test
+    public void volumes40() throws Exception {
+        assertSameBooks(BenchmarkFixtures.VOLUMES_40, 40);
+    }
+
+    @Test
+    public void volumesMissingOptional() throws Exception {
+        assertSameBooks(BenchmarkFixtures.VOLUMES_MISSING_OPTIONAL, 10);
+    }
+
+    @Test
+    public void incompleteVolumes_areNullInBoth() throws Exception {
+        // A volume without pageCount, which is common, and one with an identifier
+        // without its code, around a complete one
+        String response = "{\"kind\":\"books#volumes\",\"items\":["
+                + "{\"id\":\"a\",\"volumeInfo\":{\"title\":\"A\",\"language\":\"en\","
+                + "\"infoLink\":\"http://a\"}},"
+                + "{\"id\":\"b\",\"volumeInfo\":{\"title\":\"B\",\"pageCount\":12,"
+                + "\"language\":\"en\",\"infoLink\":\"http://b\"}},"
+                + "{\"id\":\"c\",\"volumeInfo\":{\"title\":\"C\",\"pageCount\":12,"
+                + "\"industryIdentifiers\":[{\"type\":\"ISBN_10\"}],"
+                + "\"language\":\"en\",\"infoLink\":\"http://c\"}}]}";
+        assertSameBooks("incomplete", response, 3);
+        assertNull(BookStreamParser.readBooks(
+                new ByteArrayInputStream(response.getBytes(UTF_8))).get(0));
+    }
+
+    private static void assertSameBooks(String fixture, int itemCount) throws IOException {
+        assertSameBooks(fixture, BenchmarkFixtures.load(fixture), itemCount);
+    }
+
+    private static void assertSameBooks(String fixture, String response, int itemCount)
+            throws IOException {
+        List<Book> expected = BookJsonParser.extractBookFromJson(response);
+        List<Book> actual = BookStreamParser.readBooks(
+                new ByteArrayInputStream(response.getBytes(UTF_8)));
+
+        assertEquals(itemCount, expected.size());
+        assertEquals(expected.size(), actual.size());
+        int complete = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            String where = fixture + " item " + i;
+            Book expectedBook = expected.get(i);
+            Book actualBook = actual.get(i);
+            // Incomplete volumes are null in both, in the same place
+            if (expectedBook == null) {
+                assertNull(where, actualBook);
+                continue;
+            }
+            assertNotNull(where, actualBook);
+            assertSameBook(where, expectedBook, actualBook);
+            complete++;
+        }
+        assertTrue(fixture + " has no complete volume", complete > 0);
+    }
+
+    private static void assertSameBook(String where, Book expected, Book actual) {
+        assertEquals(where, expected.getId(), actual.getId());
+        assertEquals(where, expected.getTitle(), actual.getTitle());
+        assertEquals(where, expected.getAuthorCount(), actual.getAuthorCount());
+        for (int i = 0; i < expected.getAuthorCount(); i++) {
+            assertEquals(where, expected.getAuthor(i), actual.getAuthor(i));
+        }
+        assertEquals(where, expected.getPublisher(), actual.getPublisher());
+        assertEquals(where, expected.getPublishedDate(), actual.getPublishedDate());
+        assertEquals(where, expected.getIdentifierCount(), actual.getIdentifierCount());
+        for (int i = 0; i < expected.getIdentifierCount(); i++) {
+            assertEquals(where, expected.getIdentifierType(i), actual.getIdentifierType(i));
+            assertEquals(where, expected.getIdentifier(i), actual.getIdentifier(i));
+        }
+        assertEquals(where, expected.getPageCount(), actual.getPageCount());
+        assertEquals(where, expected.getSmallThumbnail(), actual.getSmallThumbnail());
+        assertEquals(where, expected.getThumbnail(), actual.getThumbnail());
+        assertEquals(where, expected.getLanguage(), actual.getLanguage());
+        assertEquals(where, expected.getInfoLink(), actual.getInfoLink());
+    }
+}